@@ -0,0 +1,42 @@
+package edu.unc.mapseq.commands.ncnexus38.dx;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.ClusterLoad;
+import edu.unc.mapseq.commons.ncnexus38.dx.ConcurrencyStatus;
+
+@Command(scope = "ncnexus38-dx", name = "concurrency-status", description = "Show the executor's adaptive concurrency limit")
+@Service
+public class ConcurrencyStatusAction implements Action {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyStatusAction.class);
+
+    @Reference
+    private ConcurrencyStatus concurrencyStatus;
+
+    public ConcurrencyStatusAction() {
+        super();
+    }
+
+    @Override
+    public Object execute() throws Exception {
+        logger.debug("ENTERING execute()");
+        System.out.println(String.format("limit: %d, inFlight: %d", concurrencyStatus.getLimit(), concurrencyStatus.getInFlight()));
+        ClusterLoad load = concurrencyStatus.getLastLoad();
+        if (load == null) {
+            System.out.println("no cluster load sampled yet");
+            return null;
+        }
+        System.out.println(String.format("sampled: %s", load.getSampled()));
+        System.out.println(String.format("condor idle/running/held: %d/%d/%d", load.getIdleJobs(), load.getRunningJobs(), load.getHeldJobs()));
+        System.out.println(String.format("mean queue wait: %d s", load.getQueueWait() / 1000));
+        System.out.println(String.format("storage latency: %d ms", load.getStorageLatency()));
+        return null;
+    }
+
+}
@@ -1,12 +1,15 @@
 package edu.unc.mapseq.commands.ncnexus38.dx;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
 
@@ -14,12 +17,13 @@ import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 
+import edu.unc.mapseq.commons.ncnexus38.dx.MessageEncoding;
 import edu.unc.mapseq.config.MaPSeqConfigurationService;
 import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
 
@@ -33,6 +37,9 @@ public class RunWorkflowAction implements Action {
     @Argument(index = 1, name = "sampleId", description = "sampleId", required = true, multiValued = false)
     private Long sampleId;
 
+    @Option(name = "--encoding", description = "JSON, SMILE or CBOR", required = false, multiValued = false)
+    private String encoding = "JSON";
+
     @Reference
     private MaPSeqDAOBeanService maPSeqDAOBeanService;
 
@@ -46,6 +53,12 @@ public class RunWorkflowAction implements Action {
     @Override
     public Object execute() {
 
+        MessageEncoding messageEncoding = MessageEncoding.fromContentType(encoding);
+        if (messageEncoding == null) {
+            System.err.println(String.format("unsupported encoding: %s", encoding));
+            return null;
+        }
+
         ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
                 String.format("nio://%s:61616", maPSeqConfigurationService.getWebServiceHost("localhost")));
 
@@ -54,12 +67,12 @@ public class RunWorkflowAction implements Action {
         try {
             connection = connectionFactory.createConnection();
             session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            Destination destination = session.createQueue("queue/ncnexus.dx");
+            Destination destination = session.createQueue("queue/ncnexus38.dx");
             MessageProducer producer = session.createProducer(destination);
             producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-            StringWriter sw = new StringWriter();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-            JsonGenerator generator = new JsonFactory().createGenerator(sw);
+            JsonGenerator generator = messageEncoding.getFactory().createGenerator(out);
 
             generator.writeStartObject();
             generator.writeArrayFieldStart("entities");
@@ -80,10 +93,7 @@ public class RunWorkflowAction implements Action {
             generator.flush();
             generator.close();
 
-            sw.flush();
-            sw.close();
-
-            producer.send(session.createTextMessage(sw.toString()));
+            producer.send(createMessage(session, out.toByteArray(), messageEncoding));
 
         } catch (JMSException | IOException e) {
             e.printStackTrace();
@@ -99,6 +109,16 @@ public class RunWorkflowAction implements Action {
         return null;
     }
 
+    private Message createMessage(Session session, byte[] payload, MessageEncoding messageEncoding) throws JMSException {
+        if (!messageEncoding.isBinary()) {
+            return session.createTextMessage(new String(payload, StandardCharsets.UTF_8));
+        }
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(payload);
+        message.setStringProperty(MessageEncoding.PROPERTY, messageEncoding.getContentType());
+        return message;
+    }
+
     public Long getSampleId() {
         return sampleId;
     }
@@ -107,6 +127,14 @@ public class RunWorkflowAction implements Action {
         this.sampleId = sampleId;
     }
 
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
     public String getWorkflowRunName() {
         return workflowRunName;
     }
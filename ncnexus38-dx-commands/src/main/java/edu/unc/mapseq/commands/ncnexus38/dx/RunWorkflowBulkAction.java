@@ -0,0 +1,227 @@
+package edu.unc.mapseq.commands.ncnexus38.dx;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.MessageEncoding;
+import edu.unc.mapseq.config.MaPSeqConfigurationService;
+
+/*
+ * Sends many runs as bulk requests. The file is tab separated: sampleId, workflowRunName, dx_id & list_version, the last two
+ * are optional per line when given as options.
+ */
+@Command(scope = "ncnexus38-dx", name = "run-workflow-bulk", description = "Run NCNEXUS DX Workflow for every line of a file")
+@Service
+public class RunWorkflowBulkAction implements Action {
+
+    @Argument(index = 0, name = "file", description = "tab separated sampleId, workflowRunName, dx_id, list_version", required = true, multiValued = false)
+    private File file;
+
+    @Option(name = "--dxId", description = "dx_id for lines that lack one", required = false, multiValued = false)
+    private String dxId;
+
+    @Option(name = "--listVersion", description = "list_version for lines that lack one", required = false, multiValued = false)
+    private String listVersion;
+
+    @Option(name = "--priority", description = "priority of every run", required = false, multiValued = false)
+    private String priority;
+
+    @Option(name = "--requestsPerMessage", description = "runs sent in one message", required = false, multiValued = false)
+    private Integer requestsPerMessage = 1000;
+
+    @Option(name = "--encoding", description = "JSON, SMILE or CBOR", required = false, multiValued = false)
+    private String encoding = "JSON";
+
+    @Reference
+    private MaPSeqConfigurationService maPSeqConfigurationService;
+
+    public RunWorkflowBulkAction() {
+        super();
+    }
+
+    @Override
+    public Object execute() {
+
+        MessageEncoding messageEncoding = MessageEncoding.fromContentType(encoding);
+        if (messageEncoding == null) {
+            System.err.println(String.format("unsupported encoding: %s", encoding));
+            return null;
+        }
+
+        List<String[]> lines = new ArrayList<String[]>();
+        try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length < 2 || !columns[0].trim().matches("\\d+")) {
+                    System.err.println(String.format("skipping line: %s", line));
+                    continue;
+                }
+                lines.add(columns);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
+                String.format("nio://%s:61616", maPSeqConfigurationService.getWebServiceHost("localhost")));
+
+        Connection connection = null;
+        Session session = null;
+        try {
+            connection = connectionFactory.createConnection();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Destination destination = session.createQueue("queue/ncnexus38.dx");
+            MessageProducer producer = session.createProducer(destination);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+
+            int messages = 0;
+            for (int i = 0; i < lines.size(); i += requestsPerMessage) {
+                byte[] payload = toPayload(lines.subList(i, Math.min(lines.size(), i + requestsPerMessage)), messageEncoding);
+                producer.send(createMessage(session, payload, messageEncoding));
+                ++messages;
+            }
+            System.out.println(String.format("sent %d runs in %d messages", lines.size(), messages));
+
+        } catch (JMSException | IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (session != null) {
+                    session.close();
+                }
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (JMSException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+
+    private byte[] toPayload(List<String[]> lines, MessageEncoding messageEncoding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = messageEncoding.getFactory().createGenerator(out);
+
+        generator.writeStartObject();
+        // defaults come before the requests so the listener can apply them while streaming
+        if (dxId != null && !dxId.isEmpty()) {
+            generator.writeStringField("dx_id", dxId);
+        }
+        if (listVersion != null && !listVersion.isEmpty()) {
+            generator.writeStringField("list_version", listVersion);
+        }
+        if (priority != null && !priority.isEmpty()) {
+            generator.writeStringField("priority", priority);
+        }
+        generator.writeArrayFieldStart("requests");
+        for (String[] columns : lines) {
+            generator.writeStartObject();
+            generator.writeStringField("sampleId", columns[0].trim());
+            generator.writeStringField("workflowRunName", columns[1].trim());
+            if (columns.length > 2 && !columns[2].trim().isEmpty()) {
+                generator.writeStringField("dx_id", columns[2].trim());
+            }
+            if (columns.length > 3 && !columns[3].trim().isEmpty()) {
+                generator.writeStringField("list_version", columns[3].trim());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+        generator.flush();
+        generator.close();
+        return out.toByteArray();
+    }
+
+    private Message createMessage(Session session, byte[] payload, MessageEncoding messageEncoding) throws JMSException {
+        if (!messageEncoding.isBinary()) {
+            return session.createTextMessage(new String(payload, StandardCharsets.UTF_8));
+        }
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(payload);
+        message.setStringProperty(MessageEncoding.PROPERTY, messageEncoding.getContentType());
+        return message;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public String getDxId() {
+        return dxId;
+    }
+
+    public void setDxId(String dxId) {
+        this.dxId = dxId;
+    }
+
+    public String getListVersion() {
+        return listVersion;
+    }
+
+    public void setListVersion(String listVersion) {
+        this.listVersion = listVersion;
+    }
+
+    public String getPriority() {
+        return priority;
+    }
+
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public Integer getRequestsPerMessage() {
+        return requestsPerMessage;
+    }
+
+    public void setRequestsPerMessage(Integer requestsPerMessage) {
+        this.requestsPerMessage = requestsPerMessage;
+    }
+
+}
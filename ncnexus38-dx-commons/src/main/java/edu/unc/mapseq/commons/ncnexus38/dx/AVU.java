@@ -0,0 +1,101 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.util.Objects;
+
+public class AVU {
+
+    private String path;
+
+    private Boolean collection = Boolean.FALSE;
+
+    private String attribute;
+
+    private String value;
+
+    private String unit;
+
+    public AVU() {
+        super();
+    }
+
+    public AVU(String path, Boolean collection, String attribute, String value, String unit) {
+        super();
+        this.path = path;
+        this.collection = collection;
+        this.attribute = attribute;
+        this.value = value;
+        this.unit = unit;
+    }
+
+    public static AVU forDataObject(String path, String attribute, String value, String unit) {
+        return new AVU(path, Boolean.FALSE, attribute, value, unit);
+    }
+
+    public static AVU forCollection(String path, String attribute, String value, String unit) {
+        return new AVU(path, Boolean.TRUE, attribute, value, unit);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Boolean getCollection() {
+        return collection;
+    }
+
+    public void setCollection(Boolean collection) {
+        this.collection = collection;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public void setAttribute(String attribute) {
+        this.attribute = attribute;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void setUnit(String unit) {
+        this.unit = unit;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, collection, attribute, value, unit);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AVU other = (AVU) obj;
+        return Objects.equals(path, other.path) && Objects.equals(collection, other.collection)
+                && Objects.equals(attribute, other.attribute) && Objects.equals(value, other.value) && Objects.equals(unit, other.unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AVU [path=%s, collection=%s, attribute=%s, value=%s, unit=%s]", path, collection, attribute, value, unit);
+    }
+
+}
@@ -0,0 +1,11 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import edu.unc.mapseq.workflow.WorkflowException;
+
+public interface AnnotationRegistry {
+
+    VersionAnnotationSet getVersionAnnotationSet(String listVersion) throws WorkflowException;
+
+    DXAnnotationSet getDXAnnotationSet(String listVersion, String dxId, Boolean incidental) throws WorkflowException;
+
+}
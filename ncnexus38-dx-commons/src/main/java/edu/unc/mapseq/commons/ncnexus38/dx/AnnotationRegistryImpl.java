@@ -0,0 +1,191 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.workflow.WorkflowException;
+
+public class AnnotationRegistryImpl implements AnnotationRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnnotationRegistryImpl.class);
+
+    private final Map<String, AnnotationSet> annotationSets = new ConcurrentHashMap<String, AnnotationSet>();
+
+    private String annotationDirectory;
+
+    private Long checkInterval = 60L;
+
+    private String preloadVersions;
+
+    public AnnotationRegistryImpl() {
+        super();
+    }
+
+    /*
+     * runs the callback with the registry published by the commons bundle, the service is released again when it returns
+     */
+    public static <T> T call(Class<?> caller, Callback<T> callback) throws WorkflowException {
+        Bundle bundle = FrameworkUtil.getBundle(caller);
+        BundleContext bundleContext = bundle != null ? bundle.getBundleContext() : null;
+        ServiceReference<AnnotationRegistry> reference = null;
+        if (bundleContext != null) {
+            reference = bundleContext.getServiceReference(AnnotationRegistry.class);
+        }
+        AnnotationRegistry registry = reference != null ? bundleContext.getService(reference) : null;
+        if (registry == null) {
+            throw new WorkflowException("no AnnotationRegistry service");
+        }
+        try {
+            return callback.call(registry);
+        } finally {
+            bundleContext.ungetService(reference);
+        }
+    }
+
+    public interface Callback<T> {
+
+        T call(AnnotationRegistry registry) throws WorkflowException;
+
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        if (StringUtils.isBlank(preloadVersions)) {
+            return;
+        }
+
+        // resolve & validate the versions in use now so a missing annotation file shows up here rather than in an attempt
+        long start = System.currentTimeMillis();
+        for (String listVersion : StringUtils.split(preloadVersions, ", ")) {
+            try {
+                getVersionAnnotationSet(listVersion);
+                Pattern pattern = Pattern.compile(String.format("genes_dxid_(.+)_v_%s\\.interval_list", Pattern.quote(listVersion)));
+                File[] files = new File(getAnnotationDirectory(), listVersion).listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    Matcher matcher = pattern.matcher(file.getName());
+                    if (matcher.matches()) {
+                        getDXAnnotationSet(listVersion, matcher.group(1), Boolean.FALSE);
+                    }
+                }
+            } catch (WorkflowException e) {
+                logger.error("invalid annotation set for version {}", listVersion, e);
+            }
+        }
+        logger.info("resolved {} annotation sets in {} ms", annotationSets.size(), System.currentTimeMillis() - start);
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        annotationSets.clear();
+    }
+
+    @Override
+    public VersionAnnotationSet getVersionAnnotationSet(String listVersion) throws WorkflowException {
+        return lookup(listVersion, () -> {
+            File directory = getAnnotationDirectory();
+            File allIntervalsFile = new File(directory, String.format("all/allintervals.v%s.txt", listVersion));
+            if (!allIntervalsFile.exists()) {
+                throw new WorkflowException("allIntervalsFile does not exist: " + allIntervalsFile.getAbsolutePath());
+            }
+            File exonsIntervalListFile = new File(directory, String.format("%1$s/exons_pm_0_v%1$s.interval_list", listVersion));
+            if (!exonsIntervalListFile.exists()) {
+                throw new WorkflowException("Interval list file does not exist: " + exonsIntervalListFile.getAbsolutePath());
+            }
+            File exonsBedFile = new File(directory, String.format("%1$s/exons_pm_0_v%1$s.bed", listVersion));
+            if (!exonsBedFile.exists()) {
+                throw new WorkflowException("BED file does not exist: " + exonsBedFile.getAbsolutePath());
+            }
+            return new VersionAnnotationSet(listVersion, allIntervalsFile, exonsIntervalListFile, exonsBedFile);
+        });
+    }
+
+    @Override
+    public DXAnnotationSet getDXAnnotationSet(String listVersion, String dxId, Boolean incidental) throws WorkflowException {
+        boolean isIncidental = incidental != null && incidental;
+        return lookup(String.format("%s/%s/%s", listVersion, dxId, isIncidental), () -> {
+            File intervalListFile = new File(getAnnotationDirectory(),
+                    String.format("%1$s/genes_dxid_%2$s_v_%1$s.interval_list", listVersion, dxId));
+            if (isIncidental) {
+                intervalListFile = new File(getAnnotationDirectory(),
+                        String.format("Incidental/incidental_%2$s_%1$s.interval_list", listVersion, dxId));
+            }
+            if (!intervalListFile.exists()) {
+                throw new WorkflowException("Interval list file does not exist: " + intervalListFile.getAbsolutePath());
+            }
+            return new DXAnnotationSet(listVersion, dxId, isIncidental, intervalListFile);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends AnnotationSet> T lookup(String key, Loader<T> loader) throws WorkflowException {
+        long interval = checkInterval * 1000L;
+        T annotationSet = (T) annotationSets.get(key);
+        if (annotationSet != null && !annotationSet.isModified(interval)) {
+            return annotationSet;
+        }
+        synchronized (this) {
+            T current = (T) annotationSets.get(key);
+            if (current != null && current != annotationSet) {
+                // loaded by another thread in the meantime
+                return current;
+            }
+            long start = System.currentTimeMillis();
+            T loaded = loader.load();
+            annotationSets.put(key, loaded);
+            logger.info("{} {} in {} ms", annotationSet == null ? "resolved" : "re-resolved", loaded, System.currentTimeMillis() - start);
+            return loaded;
+        }
+    }
+
+    private interface Loader<T extends AnnotationSet> {
+
+        T load() throws WorkflowException;
+
+    }
+
+    public File getAnnotationDirectory() {
+        if (StringUtils.isNotBlank(annotationDirectory)) {
+            return new File(annotationDirectory);
+        }
+        String dataDirectory = System.getenv("MAPSEQ_DATA_DIRECTORY");
+        if (StringUtils.isEmpty(dataDirectory)) {
+            dataDirectory = "/projects/mapseq/data";
+        }
+        return new File(dataDirectory, "resources/annotation/abeast/NCNEXUS38");
+    }
+
+    public void setAnnotationDirectory(String annotationDirectory) {
+        this.annotationDirectory = annotationDirectory;
+    }
+
+    public Long getCheckInterval() {
+        return checkInterval;
+    }
+
+    public void setCheckInterval(Long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    public String getPreloadVersions() {
+        return preloadVersions;
+    }
+
+    public void setPreloadVersions(String preloadVersions) {
+        this.preloadVersions = preloadVersions;
+    }
+
+}
@@ -0,0 +1,58 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+public abstract class AnnotationSet {
+
+    private final String listVersion;
+
+    private final List<File> files;
+
+    private final long[] lastModified;
+
+    private final long[] length;
+
+    private volatile long lastChecked;
+
+    protected AnnotationSet(String listVersion, List<File> files) {
+        super();
+        this.listVersion = listVersion;
+        this.files = Collections.unmodifiableList(files);
+        this.lastModified = new long[files.size()];
+        this.length = new long[files.size()];
+        for (int i = 0; i < files.size(); ++i) {
+            lastModified[i] = files.get(i).lastModified();
+            length[i] = files.get(i).length();
+        }
+        this.lastChecked = System.currentTimeMillis();
+    }
+
+    /*
+     * stats the files at most once per checkInterval, returns true when any of them changed or disappeared since loading
+     */
+    public boolean isModified(long checkInterval) {
+        long now = System.currentTimeMillis();
+        if (now - lastChecked < checkInterval) {
+            return false;
+        }
+        lastChecked = now;
+        for (int i = 0; i < files.size(); ++i) {
+            File file = files.get(i);
+            if (!file.exists() || file.lastModified() != lastModified[i] || file.length() != length[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getListVersion() {
+        return listVersion;
+    }
+
+    public List<File> getFiles() {
+        return files;
+    }
+
+}
@@ -2,14 +2,7 @@ package edu.unc.mapseq.commons.ncnexus38.dx;
 
 import java.io.File;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-
-import org.renci.common.exec.BashExecutor;
-import org.renci.common.exec.CommandInput;
-import org.renci.common.exec.CommandOutput;
-import org.renci.common.exec.Executor;
-import org.renci.common.exec.ExecutorException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +24,8 @@ public class AssertExpectedOutputFilesExistInIRODSRunnable implements Runnable {
 
     private String dx;
 
+    private IRODSClient irodsClient;
+
     public AssertExpectedOutputFilesExistInIRODSRunnable(MaPSeqDAOBeanService maPSeqDAOBeanService, Sample sample, String version,
             String dx) {
         super();
@@ -52,19 +47,10 @@ public class AssertExpectedOutputFilesExistInIRODSRunnable implements Runnable {
         }
 
         File outputDirectory = SequencingWorkflowUtil.createOutputDirectory(sample, workflow);
-        File tmpDir = new File(outputDirectory, "tmp");
-        if (!tmpDir.exists()) {
-            tmpDir.mkdirs();
-        }
-
         String irodsDirectory = String.format("/MedGenZone/%s/sequencing/ncnexus/analysis/%s/L%03d_%s/%s/%s",
                 workflow.getSystem().getValue(), sample.getFlowcell().getName(), sample.getLaneIndex(), sample.getBarcode(),
                 workflow.getName(), version);
 
-        List<CommandInput> commandInputList = new LinkedList<CommandInput>();
-
-        CommandOutput commandOutput = null;
-
         String rootFileName = String.format("%s_%s_L%03d.fixed-rg.deduped.realign.fixmate.recal", sample.getFlowcell().getName(),
                 sample.getBarcode(), sample.getLaneIndex());
 
@@ -87,25 +73,21 @@ public class AssertExpectedOutputFilesExistInIRODSRunnable implements Runnable {
         File zipFile = new File(outputDirectory, String.format("%s.filtered_by_dxid_%s_v%s.sorted.zip", rootFileName, dx, version));
         File vcfFile = new File(outputDirectory, String.format("%s.filtered_by_dxid_%s_v%s.vcf", rootFileName, dx, version));
 
-        Arrays.asList(sampleCumulativeCoverageCountsFile, sampleCumulativeCoverageProportionsFile, sampleIntervalStatsFile,
+        IRODSClient client = irodsClient != null ? irodsClient : IRODSClientFactory.lookup(getClass());
+
+        CollectionState state;
+        try {
+            state = client.getCollectionState(irodsDirectory);
+        } catch (IRODSException e) {
+            logger.warn("failed to check {}", irodsDirectory, e);
+            return;
+        }
+
+        for (File file : Arrays.asList(sampleCumulativeCoverageCountsFile, sampleCumulativeCoverageProportionsFile, sampleIntervalStatsFile,
                 sampleIntervalSummaryFile, sampleStatsFile, sampleSummaryFile, filteredBAMFile, filteredSortedBAMFile,
-                filteredSortedBAIFile, zipFile, vcfFile)
-                .forEach(a -> commandInputList
-                        .add(new CommandInput(String.format("$IRODS_HOME/ils %s/%s", irodsDirectory, a.getName()), tmpDir, Boolean.FALSE)));
-
-        File mapseqrc = new File(System.getProperty("user.home"), ".mapseqrc");
-        Executor executor = BashExecutor.getInstance();
-
-        for (CommandInput ci : commandInputList) {
-            try {
-                commandOutput = executor.execute(ci, mapseqrc);
-                if (commandOutput.getExitCode() != 0) {
-                    logger.warn(ci.getCommand().split(" ")[1]);
-                }
-            } catch (ExecutorException e) {
-                if (commandOutput != null) {
-                    logger.warn("commandOutput.getStderr(): {}", commandOutput.getStderr());
-                }
+                filteredSortedBAIFile, zipFile, vcfFile)) {
+            if (state == null || state.getDataObject(file.getName()) == null) {
+                logger.warn(String.format("%s/%s", irodsDirectory, file.getName()));
             }
         }
 
@@ -135,6 +117,14 @@ public class AssertExpectedOutputFilesExistInIRODSRunnable implements Runnable {
         this.version = version;
     }
 
+    public IRODSClient getIrodsClient() {
+        return irodsClient;
+    }
+
+    public void setIrodsClient(IRODSClient irodsClient) {
+        this.irodsClient = irodsClient;
+    }
+
     public String getDx() {
         return dx;
     }
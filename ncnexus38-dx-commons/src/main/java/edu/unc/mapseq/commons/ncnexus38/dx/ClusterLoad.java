@@ -0,0 +1,91 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.util.Date;
+
+/*
+ * One sample of how busy condor and the subject merge filesystem are.
+ */
+public class ClusterLoad {
+
+    private Date sampled = new Date();
+
+    private int idleJobs;
+
+    private int runningJobs;
+
+    private int heldJobs;
+
+    // mean time the idle jobs have been waiting in the queue
+    private long queueWait;
+
+    // time to write & sync a probe file, -1 when not measured
+    private long storageLatency = -1;
+
+    public ClusterLoad() {
+        super();
+    }
+
+    public ClusterLoad(int idleJobs, int runningJobs, int heldJobs, long queueWait, long storageLatency) {
+        super();
+        this.idleJobs = idleJobs;
+        this.runningJobs = runningJobs;
+        this.heldJobs = heldJobs;
+        this.queueWait = queueWait;
+        this.storageLatency = storageLatency;
+    }
+
+    public Date getSampled() {
+        return sampled;
+    }
+
+    public void setSampled(Date sampled) {
+        this.sampled = sampled;
+    }
+
+    public int getIdleJobs() {
+        return idleJobs;
+    }
+
+    public void setIdleJobs(int idleJobs) {
+        this.idleJobs = idleJobs;
+    }
+
+    public int getRunningJobs() {
+        return runningJobs;
+    }
+
+    public void setRunningJobs(int runningJobs) {
+        this.runningJobs = runningJobs;
+    }
+
+    public int getHeldJobs() {
+        return heldJobs;
+    }
+
+    public void setHeldJobs(int heldJobs) {
+        this.heldJobs = heldJobs;
+    }
+
+    public long getQueueWait() {
+        return queueWait;
+    }
+
+    public void setQueueWait(long queueWait) {
+        this.queueWait = queueWait;
+    }
+
+    public long getStorageLatency() {
+        return storageLatency;
+    }
+
+    public void setStorageLatency(long storageLatency) {
+        this.storageLatency = storageLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ClusterLoad [idleJobs=%s, runningJobs=%s, heldJobs=%s, queueWait=%s, storageLatency=%s]", idleJobs, runningJobs,
+                heldJobs, queueWait, storageLatency);
+    }
+
+}
@@ -0,0 +1,9 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.IOException;
+
+public interface ClusterLoadProbe {
+
+    ClusterLoad sample() throws IOException;
+
+}
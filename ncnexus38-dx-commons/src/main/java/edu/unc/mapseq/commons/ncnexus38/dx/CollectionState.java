@@ -0,0 +1,59 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CollectionState {
+
+    private String collection;
+
+    private List<AVU> avus = new ArrayList<AVU>();
+
+    // by data object name
+    private Map<String, DataObjectState> dataObjects = new LinkedHashMap<String, DataObjectState>();
+
+    public CollectionState() {
+        super();
+    }
+
+    public CollectionState(String collection) {
+        super();
+        this.collection = collection;
+    }
+
+    public DataObjectState getDataObject(String name) {
+        return dataObjects.get(name);
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
+
+    public List<AVU> getAvus() {
+        return avus;
+    }
+
+    public void setAvus(List<AVU> avus) {
+        this.avus = avus;
+    }
+
+    public Map<String, DataObjectState> getDataObjects() {
+        return dataObjects;
+    }
+
+    public void setDataObjects(Map<String, DataObjectState> dataObjects) {
+        this.dataObjects = dataObjects;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CollectionState [collection=%s, avus=%s, dataObjects=%s]", collection, avus.size(), dataObjects.size());
+    }
+
+}
@@ -0,0 +1,14 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+/*
+ * What the executor's adaptive concurrency limit currently is and what it last reacted to.
+ */
+public interface ConcurrencyStatus {
+
+    int getLimit();
+
+    int getInFlight();
+
+    ClusterLoad getLastLoad();
+
+}
@@ -0,0 +1,117 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.renci.common.exec.BashExecutor;
+import org.renci.common.exec.CommandInput;
+import org.renci.common.exec.CommandOutput;
+import org.renci.common.exec.ExecutorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.workflow.WorkflowBeanService;
+
+/*
+ * Job counts & queue wait from condor_q, storage latency from timing a synced write to subjectMergeHome.
+ */
+public class CondorClusterLoadProbe implements ClusterLoadProbe {
+
+    private static final Logger logger = LoggerFactory.getLogger(CondorClusterLoadProbe.class);
+
+    private static final int PROBE_SIZE = 64 * 1024;
+
+    private WorkflowBeanService workflowBeanService;
+
+    public CondorClusterLoadProbe() {
+        super();
+    }
+
+    @Override
+    public ClusterLoad sample() throws IOException {
+        logger.debug("ENTERING sample()");
+
+        CommandInput commandInput = new CommandInput();
+        commandInput.setExitImmediately(Boolean.FALSE);
+        commandInput.setCommand("condor_q -allusers -af JobStatus QDate");
+        File mapseqrc = new File(System.getProperty("user.home"), ".mapseqrc");
+
+        CommandOutput commandOutput;
+        try {
+            commandOutput = BashExecutor.getInstance().execute(commandInput, mapseqrc);
+        } catch (ExecutorException e) {
+            throw new IOException(e);
+        }
+        if (commandOutput.getExitCode() != 0) {
+            throw new IOException(String.format("condor_q failed: %s", commandOutput.getStderr()));
+        }
+
+        ClusterLoad ret = parse(commandOutput.getStdout().toString(), System.currentTimeMillis());
+        ret.setStorageLatency(measureStorageLatency());
+        return ret;
+    }
+
+    /*
+     * lines of "JobStatus QDate", 1 is idle, 2 running and 5 held
+     */
+    public static ClusterLoad parse(String output, long now) {
+        ClusterLoad ret = new ClusterLoad();
+        long totalWait = 0;
+        for (String line : output.split("\n")) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length < 2 || !StringUtils.isNumeric(columns[0]) || !StringUtils.isNumeric(columns[1])) {
+                continue;
+            }
+            switch (Integer.parseInt(columns[0])) {
+                case 1:
+                    ret.setIdleJobs(ret.getIdleJobs() + 1);
+                    totalWait += Math.max(now - TimeUnit.SECONDS.toMillis(Long.parseLong(columns[1])), 0);
+                    break;
+                case 2:
+                    ret.setRunningJobs(ret.getRunningJobs() + 1);
+                    break;
+                case 5:
+                    ret.setHeldJobs(ret.getHeldJobs() + 1);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (ret.getIdleJobs() > 0) {
+            ret.setQueueWait(totalWait / ret.getIdleJobs());
+        }
+        return ret;
+    }
+
+    private long measureStorageLatency() {
+        String subjectMergeHome = workflowBeanService != null ? workflowBeanService.getAttributes().get("subjectMergeHome") : null;
+        if (StringUtils.isEmpty(subjectMergeHome) || !new File(subjectMergeHome).isDirectory()) {
+            return -1;
+        }
+        File probeFile = new File(subjectMergeHome, String.format(".load-probe-%s", UUID.randomUUID()));
+        long start = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(probeFile, "rw")) {
+            raf.write(new byte[PROBE_SIZE]);
+            raf.getFD().sync();
+        } catch (IOException e) {
+            logger.warn("failed to write probe file {}", probeFile.getAbsolutePath(), e);
+            return -1;
+        } finally {
+            probeFile.delete();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public WorkflowBeanService getWorkflowBeanService() {
+        return workflowBeanService;
+    }
+
+    public void setWorkflowBeanService(WorkflowBeanService workflowBeanService) {
+        this.workflowBeanService = workflowBeanService;
+    }
+
+}
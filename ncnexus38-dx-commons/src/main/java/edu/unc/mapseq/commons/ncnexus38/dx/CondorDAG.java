@@ -0,0 +1,117 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.renci.common.exec.BashExecutor;
+import org.renci.common.exec.CommandInput;
+import org.renci.common.exec.CommandOutput;
+import org.renci.common.exec.ExecutorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * What DAGMan left in a WorkflowRunAttempt's submit directory, read without a running WorkflowExecutor.
+ */
+public class CondorDAG {
+
+    private static final Logger logger = LoggerFactory.getLogger(CondorDAG.class);
+
+    private static final Pattern EXIT_PATTERN = Pattern.compile("EXITING WITH STATUS (\\d+)");
+
+    public enum State {
+
+        NOT_SUBMITTED,
+
+        RUNNING,
+
+        SUCCEEDED,
+
+        INCOMPLETE;
+
+    }
+
+    private final File dagFile;
+
+    public CondorDAG(File dagFile) {
+        super();
+        this.dagFile = dagFile;
+    }
+
+    public static CondorDAG find(File submitDirectory) {
+        if (submitDirectory == null) {
+            return null;
+        }
+        File[] dagFiles = submitDirectory.listFiles((a, b) -> b.endsWith(".dag"));
+        if (dagFiles == null || dagFiles.length == 0) {
+            return null;
+        }
+        return new CondorDAG(dagFiles[0]);
+    }
+
+    /*
+     * the last exit status in dagman.out decides once DAGMan is gone, a lock file with a dagman.out that stayed quiet for
+     * longer than staleAfter is taken to be left over from a DAGMan that died without exiting
+     */
+    public State getState(long staleAfter, TimeUnit unit) throws IOException {
+        File dagmanOutFile = new File(dagFile.getParentFile(), dagFile.getName() + ".dagman.out");
+        if (!dagmanOutFile.exists()) {
+            return State.NOT_SUBMITTED;
+        }
+
+        File lockFile = new File(dagFile.getParentFile(), dagFile.getName() + ".lock");
+        if (lockFile.exists() && System.currentTimeMillis() - dagmanOutFile.lastModified() < unit.toMillis(staleAfter)) {
+            return State.RUNNING;
+        }
+
+        Integer exitStatus = null;
+        try (BufferedReader br = Files.newBufferedReader(dagmanOutFile.toPath(), StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                Matcher matcher = EXIT_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    exitStatus = Integer.valueOf(matcher.group(1));
+                }
+            }
+        }
+        return exitStatus != null && exitStatus == 0 ? State.SUCCEEDED : State.INCOMPLETE;
+    }
+
+    /*
+     * with autorescue DAGMan picks up the newest rescue dag, so only the nodes that didn't complete run again
+     */
+    public boolean resubmit() {
+        CommandInput commandInput = new CommandInput();
+        commandInput.setExitImmediately(Boolean.FALSE);
+        commandInput.setCommand(String.format("condor_submit_dag -update_submit -autorescue 1 %s", dagFile.getName()));
+        commandInput.setWorkDir(dagFile.getParentFile());
+        File mapseqrc = new File(System.getProperty("user.home"), ".mapseqrc");
+        try {
+            CommandOutput commandOutput = BashExecutor.getInstance().execute(commandInput, mapseqrc);
+            if (commandOutput.getExitCode() != 0) {
+                logger.warn("resubmitting {} failed: {}", dagFile.getAbsolutePath(), commandOutput.getStderr());
+                return false;
+            }
+            logger.info("resubmitted {}: {}", dagFile.getAbsolutePath(), commandOutput.getStdout());
+            return true;
+        } catch (ExecutorException e) {
+            logger.error("resubmitting {} failed", dagFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    public long getLastActivity() {
+        return new File(dagFile.getParentFile(), dagFile.getName() + ".dagman.out").lastModified();
+    }
+
+    public File getDagFile() {
+        return dagFile;
+    }
+
+}
@@ -0,0 +1,39 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class DXAnnotationSet extends AnnotationSet {
+
+    private final String dxId;
+
+    private final Boolean incidental;
+
+    private final File intervalListFile;
+
+    public DXAnnotationSet(String listVersion, String dxId, Boolean incidental, File intervalListFile) {
+        super(listVersion, Arrays.asList(intervalListFile));
+        this.dxId = dxId;
+        this.incidental = incidental;
+        this.intervalListFile = intervalListFile;
+    }
+
+    public String getDxId() {
+        return dxId;
+    }
+
+    public Boolean getIncidental() {
+        return incidental;
+    }
+
+    public File getIntervalListFile() {
+        return intervalListFile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DXAnnotationSet [listVersion=%s, dxId=%s, incidental=%s, intervalListFile=%s]", getListVersion(), dxId,
+                incidental, intervalListFile);
+    }
+
+}
@@ -0,0 +1,78 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DataObjectState {
+
+    private String name;
+
+    private Long size;
+
+    // as the catalog has it, null when never computed
+    private String checksum;
+
+    // where the registered file lives
+    private String physicalPath;
+
+    private List<AVU> avus = new ArrayList<AVU>();
+
+    public DataObjectState() {
+        super();
+    }
+
+    public DataObjectState(String name, Long size, String checksum, String physicalPath) {
+        super();
+        this.name = name;
+        this.size = size;
+        this.checksum = checksum;
+        this.physicalPath = physicalPath;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getPhysicalPath() {
+        return physicalPath;
+    }
+
+    public void setPhysicalPath(String physicalPath) {
+        this.physicalPath = physicalPath;
+    }
+
+    public List<AVU> getAvus() {
+        return avus;
+    }
+
+    public void setAvus(List<AVU> avus) {
+        this.avus = avus;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DataObjectState [name=%s, size=%s, checksum=%s, physicalPath=%s, avus=%s]", name, size, checksum,
+                physicalPath, avus.size());
+    }
+
+}
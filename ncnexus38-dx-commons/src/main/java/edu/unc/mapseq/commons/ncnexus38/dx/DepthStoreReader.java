@@ -0,0 +1,232 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class DepthStoreReader implements Closeable {
+
+    private final FileChannel channel;
+
+    private final Inflater inflater = new Inflater();
+
+    private int columnCount;
+
+    private final List<String> contigs = new ArrayList<String>();
+
+    private final Map<String, int[]> contigBlockRanges = new HashMap<String, int[]>();
+
+    private int[] blockFirstPositions;
+
+    private int[] blockLastPositions;
+
+    private long[] blockOffsets;
+
+    private int[] blockCompressedLengths;
+
+    private int[] blockLengths;
+
+    private int[] blockEntryCounts;
+
+    private byte[] compressedBuffer = new byte[0];
+
+    private byte[] blockBuffer = new byte[0];
+
+    private int decodedBlock = -1;
+
+    private int[] decodedPositions = new int[DepthStoreWriter.BLOCK_ENTRIES];
+
+    private int[] decodedDepths = new int[DepthStoreWriter.BLOCK_ENTRIES];
+
+    public DepthStoreReader(File storeFile) throws IOException {
+        super();
+        this.channel = FileChannel.open(storeFile.toPath(), StandardOpenOption.READ);
+        try {
+            readIndex(storeFile);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readIndex(File storeFile) throws IOException {
+        long size = channel.size();
+        if (size < 20) {
+            throw new IOException("truncated depth store: " + storeFile.getAbsolutePath());
+        }
+
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+        MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - 12, 12);
+        long indexOffset = trailer.getLong();
+        if (header.getInt() != DepthStoreWriter.MAGIC || trailer.getInt() != DepthStoreWriter.MAGIC) {
+            throw new IOException("not a depth store: " + storeFile.getAbsolutePath());
+        }
+        int version = header.getInt();
+        if (version != DepthStoreWriter.VERSION) {
+            throw new IOException(String.format("unsupported depth store version %d: %s", version, storeFile.getAbsolutePath()));
+        }
+
+        MappedByteBuffer indexBuffer = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, size - 12 - indexOffset);
+        byte[] index = new byte[indexBuffer.remaining()];
+        indexBuffer.get(index);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(index))) {
+            this.columnCount = in.readInt();
+            int contigCount = in.readInt();
+            for (int i = 0; i < contigCount; ++i) {
+                String contig = in.readUTF();
+                contigs.add(contig);
+                contigBlockRanges.put(contig, new int[] { in.readInt(), in.readInt() });
+            }
+            int blockCount = in.readInt();
+            blockFirstPositions = new int[blockCount];
+            blockLastPositions = new int[blockCount];
+            blockOffsets = new long[blockCount];
+            blockCompressedLengths = new int[blockCount];
+            blockLengths = new int[blockCount];
+            blockEntryCounts = new int[blockCount];
+            for (int i = 0; i < blockCount; ++i) {
+                blockFirstPositions[i] = in.readInt();
+                blockLastPositions[i] = in.readInt();
+                blockOffsets[i] = in.readLong();
+                blockCompressedLengths[i] = in.readInt();
+                blockLengths[i] = in.readInt();
+                blockEntryCounts[i] = in.readInt();
+            }
+        }
+
+        decodedDepths = new int[DepthStoreWriter.BLOCK_ENTRIES * Math.max(columnCount, 1)];
+    }
+
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(contigs);
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /*
+     * reports every stored position in [start, end] (1-based, inclusive) in order, the depths array is reused between calls
+     */
+    public void query(String contig, int start, int end, DepthConsumer consumer) throws IOException {
+        int[] range = contigBlockRanges.get(contig);
+        if (range == null || range[1] == 0) {
+            return;
+        }
+
+        int low = range[0];
+        int high = range[0] + range[1] - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blockLastPositions[mid] < start) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int[] depths = new int[columnCount];
+        for (int block = low; block < range[0] + range[1] && blockFirstPositions[block] <= end; ++block) {
+            if (blockLastPositions[block] < start) {
+                continue;
+            }
+            decode(block);
+            for (int i = 0; i < blockEntryCounts[block]; ++i) {
+                int position = decodedPositions[i];
+                if (position < start) {
+                    continue;
+                }
+                if (position > end) {
+                    break;
+                }
+                System.arraycopy(decodedDepths, i * columnCount, depths, 0, columnCount);
+                consumer.accept(contig, position, depths);
+            }
+        }
+    }
+
+    private void decode(int block) throws IOException {
+        if (decodedBlock == block) {
+            return;
+        }
+
+        int compressedLength = blockCompressedLengths[block];
+        if (compressedBuffer.length < compressedLength) {
+            compressedBuffer = new byte[compressedLength];
+        }
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[block], compressedLength);
+        mapped.get(compressedBuffer, 0, compressedLength);
+
+        int length = blockLengths[block];
+        if (blockBuffer.length < length) {
+            blockBuffer = new byte[length];
+        }
+        inflater.reset();
+        inflater.setInput(compressedBuffer, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                inflated += inflater.inflate(blockBuffer, inflated, length - inflated);
+            }
+            if (inflated != length) {
+                throw new IOException(String.format("short block %d: %d of %d bytes", block, inflated, length));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+
+        int cursor = 0;
+        int position = blockFirstPositions[block];
+        int depthIndex = 0;
+        for (int i = 0; i < blockEntryCounts[block]; ++i) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = blockBuffer[cursor++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            position += value;
+            decodedPositions[i] = position;
+            for (int c = 0; c < columnCount; ++c) {
+                value = 0;
+                shift = 0;
+                do {
+                    b = blockBuffer[cursor++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                decodedDepths[depthIndex++] = value;
+            }
+        }
+        decodedBlock = block;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    public interface DepthConsumer {
+
+        void accept(String contig, int position, int[] depths) throws IOException;
+
+    }
+
+}
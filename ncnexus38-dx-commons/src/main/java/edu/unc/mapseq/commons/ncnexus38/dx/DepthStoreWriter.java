@@ -0,0 +1,211 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Layout: MAGIC, VERSION, deflated blocks of (varint position delta, varint depth per column) entries, then the index
+ * (column count, contigs with their first block and block count, per block first/last position, offset, lengths & entry
+ * count) and a trailer holding the index offset followed by MAGIC.
+ */
+public class DepthStoreWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DepthStoreWriter.class);
+
+    public static final int MAGIC = 0x4E435844;
+
+    public static final int VERSION = 1;
+
+    public static final int BLOCK_ENTRIES = 32 * 1024;
+
+    private final DataOutputStream out;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private final List<String> contigs = new ArrayList<String>();
+
+    private final List<int[]> contigBlockRanges = new ArrayList<int[]>();
+
+    private final List<long[]> blocks = new ArrayList<long[]>();
+
+    private byte[] blockBuffer = new byte[BLOCK_ENTRIES * 8];
+
+    private int blockLength = 0;
+
+    private byte[] compressedBuffer = new byte[BLOCK_ENTRIES * 8];
+
+    private int columnCount = -1;
+
+    private int blockEntryCount = 0;
+
+    private int blockFirstPosition;
+
+    private int lastPosition;
+
+    private long offset = 0;
+
+    public DepthStoreWriter(File storeFile) throws IOException {
+        super();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile), 1024 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        offset = 8;
+    }
+
+    public static void convert(File depthFile, File storeFile) throws IOException {
+        logger.info("converting {} to {}", depthFile.getAbsolutePath(), storeFile.getAbsolutePath());
+        long start = System.currentTimeMillis();
+
+        // concurrent attempts for the same subject may race here, the last complete store wins
+        File tmpFile = new File(storeFile.getParentFile(), String.format("%s.%s.tmp", storeFile.getName(), UUID.randomUUID()));
+        try {
+            try (BufferedReader br = Files.newBufferedReader(depthFile.toPath(), StandardCharsets.UTF_8);
+                    DepthStoreWriter writer = new DepthStoreWriter(tmpFile)) {
+                String line;
+                int[] depths = null;
+                while ((line = br.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] columns = line.split("\t");
+                    if (columns.length < 3) {
+                        throw new IOException("malformed depth line: " + line);
+                    }
+                    if (depths == null || depths.length != columns.length - 2) {
+                        depths = new int[columns.length - 2];
+                    }
+                    for (int i = 0; i < depths.length; ++i) {
+                        depths[i] = Integer.parseInt(columns[i + 2]);
+                    }
+                    writer.add(columns[0], Integer.parseInt(columns[1]), depths);
+                }
+            }
+            Files.move(tmpFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+
+        logger.info("converted {} in {} ms", depthFile.getName(), System.currentTimeMillis() - start);
+    }
+
+    public void add(String contig, int position, int[] depths) throws IOException {
+        if (columnCount == -1) {
+            columnCount = depths.length;
+        } else if (columnCount != depths.length) {
+            throw new IOException(String.format("expected %d depth columns at %s:%d", columnCount, contig, position));
+        }
+
+        boolean newContig = contigs.isEmpty() || !contigs.get(contigs.size() - 1).equals(contig);
+        if (newContig) {
+            flushBlock();
+            if (contigs.contains(contig)) {
+                throw new IOException("depth file is not grouped by contig: " + contig);
+            }
+            contigs.add(contig);
+            contigBlockRanges.add(new int[] { blocks.size(), 0 });
+        } else if (position <= lastPosition) {
+            throw new IOException(String.format("depth file is not sorted at %s:%d", contig, position));
+        }
+
+        if (blockEntryCount == BLOCK_ENTRIES) {
+            flushBlock();
+        }
+
+        if (blockEntryCount == 0) {
+            blockFirstPosition = position;
+            writeVarInt(0);
+        } else {
+            writeVarInt(position - lastPosition);
+        }
+        for (int depth : depths) {
+            writeVarInt(depth);
+        }
+        lastPosition = position;
+        ++blockEntryCount;
+    }
+
+    private void writeVarInt(int value) {
+        if (blockLength + 5 > blockBuffer.length) {
+            blockBuffer = Arrays.copyOf(blockBuffer, blockBuffer.length * 2);
+        }
+        while ((value & ~0x7F) != 0) {
+            blockBuffer[blockLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        blockBuffer[blockLength++] = (byte) value;
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockEntryCount == 0) {
+            return;
+        }
+
+        deflater.reset();
+        deflater.setInput(blockBuffer, 0, blockLength);
+        deflater.finish();
+        if (compressedBuffer.length < blockLength + 64) {
+            compressedBuffer = new byte[blockLength + 64];
+        }
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressedBuffer.length) {
+                compressedBuffer = Arrays.copyOf(compressedBuffer, compressedBuffer.length * 2);
+            }
+            compressedLength += deflater.deflate(compressedBuffer, compressedLength, compressedBuffer.length - compressedLength);
+        }
+        out.write(compressedBuffer, 0, compressedLength);
+
+        blocks.add(new long[] { blockFirstPosition, lastPosition, offset, compressedLength, blockLength, blockEntryCount });
+        contigBlockRanges.get(contigBlockRanges.size() - 1)[1]++;
+        offset += compressedLength;
+
+        blockLength = 0;
+        blockEntryCount = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            long indexOffset = offset;
+            out.writeInt(Math.max(columnCount, 0));
+            out.writeInt(contigs.size());
+            for (int i = 0; i < contigs.size(); ++i) {
+                out.writeUTF(contigs.get(i));
+                out.writeInt(contigBlockRanges.get(i)[0]);
+                out.writeInt(contigBlockRanges.get(i)[1]);
+            }
+            out.writeInt(blocks.size());
+            for (long[] block : blocks) {
+                out.writeInt((int) block[0]);
+                out.writeInt((int) block[1]);
+                out.writeLong(block[2]);
+                out.writeInt((int) block[3]);
+                out.writeInt((int) block[4]);
+                out.writeInt((int) block[5]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+}
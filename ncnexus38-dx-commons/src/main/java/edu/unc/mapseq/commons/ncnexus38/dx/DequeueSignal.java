@@ -0,0 +1,10 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+/*
+ * Raised after a WorkflowRunAttempt was enqueued so the executor can dequeue right away instead of waiting for its poll.
+ */
+public interface DequeueSignal {
+
+    void signal();
+
+}
@@ -0,0 +1,183 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.CloserUtil;
+
+public class ExtractBAMRegionsCallable implements Callable<List<File>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractBAMRegionsCallable.class);
+
+    private File bamFile;
+
+    private File bamIndexFile;
+
+    private List<IntervalFilterOutput> outputs;
+
+    public ExtractBAMRegionsCallable() {
+        super();
+    }
+
+    public ExtractBAMRegionsCallable(File bamFile, File bamIndexFile, List<IntervalFilterOutput> outputs) {
+        super();
+        this.bamFile = bamFile;
+        this.bamIndexFile = bamIndexFile;
+        this.outputs = outputs;
+    }
+
+    @Override
+    public List<File> call() throws Exception {
+        logger.debug("ENTERING call()");
+
+        long start = System.currentTimeMillis();
+        long recordCount = 0;
+
+        SamReaderFactory samReaderFactory = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT);
+
+        try (SamReader reader = samReaderFactory.open(SamInputResource.of(bamFile).index(bamIndexFile))) {
+
+            if (!reader.hasIndex()) {
+                throw new IOException("bam index could not be opened: " + bamIndexFile.getAbsolutePath());
+            }
+
+            SAMFileHeader header = reader.getFileHeader();
+            if (header.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+                throw new IOException("bam is not coordinate sorted: " + bamFile.getAbsolutePath());
+            }
+
+            // contig index of every header sequence in each panel's interval set
+            int sequenceCount = header.getSequenceDictionary().size();
+            IntervalSet[] intervalSets = new IntervalSet[outputs.size()];
+            int[][] contigIndexes = new int[outputs.size()][sequenceCount];
+            List<QueryInterval> queryIntervalList = new ArrayList<QueryInterval>();
+            for (int i = 0; i < outputs.size(); ++i) {
+                IntervalSet intervalSet = outputs.get(i).loadIntervalSet();
+                intervalSets[i] = intervalSet;
+                Arrays.fill(contigIndexes[i], -1);
+                for (int contigIndex = 0; contigIndex < intervalSet.getContigCount(); ++contigIndex) {
+                    int sequenceIndex = header.getSequenceIndex(intervalSet.getContig(contigIndex));
+                    if (sequenceIndex < 0) {
+                        logger.warn("contig not found in bam header: {}", intervalSet.getContig(contigIndex));
+                        continue;
+                    }
+                    contigIndexes[i][sequenceIndex] = contigIndex;
+                    for (int j = 0; j < intervalSet.size(contigIndex); ++j) {
+                        queryIntervalList.add(new QueryInterval(sequenceIndex, intervalSet.getStart(contigIndex, j),
+                                intervalSet.getEnd(contigIndex, j)));
+                    }
+                }
+            }
+
+            // one pass over the union of all panels, each record is routed to every panel it overlaps
+            QueryInterval[] queryIntervals = QueryInterval
+                    .optimizeIntervals(queryIntervalList.toArray(new QueryInterval[queryIntervalList.size()]));
+            logger.info("querying {} intervals for {} outputs from {}", queryIntervals.length, outputs.size(), bamFile.getAbsolutePath());
+
+            SAMFileWriterFactory samFileWriterFactory = new SAMFileWriterFactory().setCreateIndex(true);
+            List<SAMFileWriter> writers = new ArrayList<SAMFileWriter>(outputs.size());
+            try {
+                for (IntervalFilterOutput output : outputs) {
+                    writers.add(samFileWriterFactory.makeBAMWriter(header, true, output.getOutput()));
+                }
+
+                try (SAMRecordIterator iter = reader.queryOverlapping(queryIntervals)) {
+                    while (iter.hasNext()) {
+                        SAMRecord record = iter.next();
+                        ++recordCount;
+                        if (writers.size() == 1) {
+                            writers.get(0).addAlignment(record);
+                            continue;
+                        }
+                        int sequenceIndex = record.getReferenceIndex();
+                        int alignmentStart = record.getAlignmentStart();
+                        // an unmapped read placed at its mate covers just that position
+                        int alignmentEnd = Math.max(record.getAlignmentEnd(), alignmentStart);
+                        for (int i = 0; i < writers.size(); ++i) {
+                            if (intervalSets[i].overlaps(contigIndexes[i][sequenceIndex], alignmentStart, alignmentEnd)) {
+                                writers.get(i).addAlignment(record);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                for (SAMFileWriter writer : writers) {
+                    CloserUtil.close(writer);
+                }
+            }
+
+        }
+
+        List<File> ret = new ArrayList<File>();
+        for (IntervalFilterOutput output : outputs) {
+            File bamOutput = output.getOutput();
+            File indexOutput = new File(bamOutput.getParentFile(), bamOutput.getName().replaceAll("\\.bam$", ".bai"));
+            if (!indexOutput.exists()) {
+                throw new IOException("bam index was not written: " + indexOutput.getAbsolutePath());
+            }
+            File zipOutput = new File(bamOutput.getParentFile(), bamOutput.getName().replaceAll("\\.bam$", ".zip"));
+            zip(zipOutput, bamOutput, indexOutput);
+            ret.add(bamOutput);
+        }
+
+        logger.info("read {} records for {} outputs in {} ms", recordCount, outputs.size(), System.currentTimeMillis() - start);
+        return ret;
+    }
+
+    private void zip(File zipFile, File... entries) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)))) {
+            for (File entry : entries) {
+                zos.putNextEntry(new ZipEntry(entry.getName()));
+                Files.copy(entry.toPath(), zos);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    public File getBamFile() {
+        return bamFile;
+    }
+
+    public void setBamFile(File bamFile) {
+        this.bamFile = bamFile;
+    }
+
+    public File getBamIndexFile() {
+        return bamIndexFile;
+    }
+
+    public void setBamIndexFile(File bamIndexFile) {
+        this.bamIndexFile = bamIndexFile;
+    }
+
+    public List<IntervalFilterOutput> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(List<IntervalFilterOutput> outputs) {
+        this.outputs = outputs;
+    }
+
+}
@@ -0,0 +1,124 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ExtractTargetDepthCallable implements Callable<File> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractTargetDepthCallable.class);
+
+    private File depthFile;
+
+    private File depthStoreFile;
+
+    private File intervalsFile;
+
+    private IntervalSet intervals;
+
+    private File output;
+
+    public ExtractTargetDepthCallable() {
+        super();
+    }
+
+    public ExtractTargetDepthCallable(File depthFile, File depthStoreFile, File intervalsFile, File output) {
+        super();
+        this.depthFile = depthFile;
+        this.depthStoreFile = depthStoreFile;
+        this.intervalsFile = intervalsFile;
+        this.output = output;
+    }
+
+    @Override
+    public File call() throws Exception {
+        logger.debug("ENTERING call()");
+
+        if (!depthStoreFile.exists() || depthStoreFile.lastModified() < depthFile.lastModified()) {
+            DepthStoreWriter.convert(depthFile, depthStoreFile);
+        }
+
+        long start = System.currentTimeMillis();
+        IntervalSet intervalSet = intervals != null ? intervals : IntervalSet.fromIntervalsFile(intervalsFile);
+
+        long count = 0;
+        try (DepthStoreReader reader = new DepthStoreReader(depthStoreFile);
+                BufferedWriter writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+
+            StringBuilder sb = new StringBuilder();
+            long[] counter = new long[1];
+            DepthStoreReader.DepthConsumer consumer = (contig, position, depths) -> {
+                sb.setLength(0);
+                sb.append(contig).append('\t').append(position);
+                for (int depth : depths) {
+                    sb.append('\t').append(depth);
+                }
+                sb.append('\n');
+                writer.append(sb);
+                ++counter[0];
+            };
+
+            // same contig order as the samtools depth file
+            for (String contig : reader.getContigs()) {
+                int contigIndex = intervalSet.getContigIndex(contig);
+                if (contigIndex < 0) {
+                    continue;
+                }
+                for (int i = 0; i < intervalSet.size(contigIndex); ++i) {
+                    reader.query(contig, intervalSet.getStart(contigIndex, i), intervalSet.getEnd(contigIndex, i), consumer);
+                }
+            }
+            count = counter[0];
+        }
+
+        logger.info("wrote {} target loci to {} in {} ms", count, output.getAbsolutePath(), System.currentTimeMillis() - start);
+        return output;
+    }
+
+    public File getDepthFile() {
+        return depthFile;
+    }
+
+    public void setDepthFile(File depthFile) {
+        this.depthFile = depthFile;
+    }
+
+    public File getDepthStoreFile() {
+        return depthStoreFile;
+    }
+
+    public void setDepthStoreFile(File depthStoreFile) {
+        this.depthStoreFile = depthStoreFile;
+    }
+
+    public File getIntervalsFile() {
+        return intervalsFile;
+    }
+
+    public void setIntervalsFile(File intervalsFile) {
+        this.intervalsFile = intervalsFile;
+    }
+
+    public IntervalSet getIntervals() {
+        return intervals;
+    }
+
+    public void setIntervals(IntervalSet intervals) {
+        this.intervals = intervals;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public void setOutput(File output) {
+        this.output = output;
+    }
+
+}
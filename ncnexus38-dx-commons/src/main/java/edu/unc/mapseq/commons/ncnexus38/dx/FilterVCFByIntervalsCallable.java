@@ -0,0 +1,348 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.util.TabixUtils;
+
+/*
+ * Single pass over the vcf for any number of interval sets. Lines are scanned in place in a reusable byte buffer and each
+ * output keeps a cursor into its sorted interval arrays, so nothing is allocated per record unless it is kept for a
+ * bgzip/tabix output. Plain outputs take a vcf that isn't coordinate sorted, the cursor falls back to a search when a position
+ * goes backwards. bgzip/tabix outputs are written next to the plain ones when the workflow runs with bgzipVCF, they need sorted
+ * input since tabix can't index anything else.
+ */
+public class FilterVCFByIntervalsCallable implements Callable<List<File>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilterVCFByIntervalsCallable.class);
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private File vcf;
+
+    private List<IntervalFilterOutput> outputs;
+
+    private Boolean bgzip = Boolean.FALSE;
+
+    public FilterVCFByIntervalsCallable() {
+        super();
+    }
+
+    public FilterVCFByIntervalsCallable(File vcf, List<IntervalFilterOutput> outputs) {
+        super();
+        this.vcf = vcf;
+        this.outputs = outputs;
+    }
+
+    @Override
+    public List<File> call() throws Exception {
+        logger.debug("ENTERING call()");
+
+        long start = System.currentTimeMillis();
+
+        int outputCount = outputs.size();
+        IntervalSet[] intervalSets = new IntervalSet[outputCount];
+        for (int i = 0; i < outputCount; ++i) {
+            intervalSets[i] = outputs.get(i).loadIntervalSet();
+        }
+
+        boolean writeBGZip = bgzip != null && bgzip;
+        OutputStream[] plainOutputs = new OutputStream[outputCount];
+        BlockCompressedOutputStream[] bgzipOutputs = new BlockCompressedOutputStream[outputCount];
+        TabixIndexCreator[] indexCreators = new TabixIndexCreator[outputCount];
+
+        int[] contigIndexes = new int[outputCount];
+        int[] cursors = new int[outputCount];
+        Arrays.fill(contigIndexes, -1);
+
+        byte[] contig = new byte[256];
+        int contigLength = -1;
+        String contigName = null;
+        int lastPosition = 0;
+        long records = 0;
+        long kept = 0;
+
+        try (InputStream in = open(vcf)) {
+            for (int i = 0; i < outputCount; ++i) {
+                File output = outputs.get(i).getOutput();
+                plainOutputs[i] = new BufferedOutputStream(new FileOutputStream(output), 256 * 1024);
+                if (writeBGZip) {
+                    bgzipOutputs[i] = new BlockCompressedOutputStream(getBGZipFile(output));
+                    indexCreators[i] = new TabixIndexCreator(TabixFormat.VCF);
+                }
+            }
+
+            LineScanner scanner = new LineScanner(in);
+            while (scanner.next()) {
+                byte[] buffer = scanner.buffer;
+                int lineStart = scanner.lineStart;
+                int lineEnd = scanner.lineEnd;
+
+                if (lineEnd == lineStart) {
+                    continue;
+                }
+
+                if (buffer[lineStart] == '#') {
+                    for (int i = 0; i < outputCount; ++i) {
+                        write(plainOutputs[i], buffer, lineStart, lineEnd);
+                        if (writeBGZip) {
+                            write(bgzipOutputs[i], buffer, lineStart, lineEnd);
+                        }
+                    }
+                    continue;
+                }
+
+                // CHROM POS ID REF
+                int tab1 = indexOf(buffer, lineStart, lineEnd);
+                int tab2 = tab1 < 0 ? -1 : indexOf(buffer, tab1 + 1, lineEnd);
+                int tab3 = tab2 < 0 ? -1 : indexOf(buffer, tab2 + 1, lineEnd);
+                int refEnd = tab3 < 0 ? -1 : indexOf(buffer, tab3 + 1, lineEnd);
+                if (refEnd < 0) {
+                    refEnd = lineEnd;
+                }
+                int position = tab2 < 0 ? -1 : parsePosition(buffer, tab1 + 1, tab2);
+                if (tab3 < 0 || position < 0) {
+                    logger.warn("skipping malformed line: {}", new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+                    continue;
+                }
+                int end = position + Math.max(refEnd - tab3 - 1, 1) - 1;
+                ++records;
+
+                int length = tab1 - lineStart;
+                if (length != contigLength || !regionEquals(contig, buffer, lineStart, length)) {
+                    if (contig.length < length) {
+                        contig = new byte[length * 2];
+                    }
+                    System.arraycopy(buffer, lineStart, contig, 0, length);
+                    contigLength = length;
+                    contigName = null;
+                    lastPosition = 0;
+                    for (int i = 0; i < outputCount; ++i) {
+                        contigIndexes[i] = intervalSets[i].getContigIndex(buffer, lineStart, length);
+                        cursors[i] = 0;
+                    }
+                }
+
+                if (writeBGZip && position < lastPosition) {
+                    throw new IOException(String.format("%s is not coordinate sorted at %s:%d, can't write tabix indexed outputs",
+                            vcf.getAbsolutePath(), new String(contig, 0, contigLength, StandardCharsets.US_ASCII), position));
+                }
+
+                for (int i = 0; i < outputCount; ++i) {
+                    int contigIndex = contigIndexes[i];
+                    if (contigIndex < 0) {
+                        continue;
+                    }
+                    IntervalSet intervalSet = intervalSets[i];
+                    int size = intervalSet.size(contigIndex);
+                    int cursor = cursors[i];
+                    if (position < lastPosition) {
+                        // not coordinate sorted, fall back to a search for this record
+                        cursor = intervalSet.search(contigIndex, position);
+                    }
+                    while (cursor < size && intervalSet.getEnd(contigIndex, cursor) < position) {
+                        ++cursor;
+                    }
+                    cursors[i] = cursor;
+                    if (cursor == size || intervalSet.getStart(contigIndex, cursor) > end) {
+                        continue;
+                    }
+
+                    write(plainOutputs[i], buffer, lineStart, lineEnd);
+                    if (writeBGZip) {
+                        if (contigName == null) {
+                            contigName = new String(contig, 0, contigLength, StandardCharsets.US_ASCII);
+                        }
+                        long filePointer = bgzipOutputs[i].getFilePointer();
+                        write(bgzipOutputs[i], buffer, lineStart, lineEnd);
+                        indexCreators[i].addFeature(new SimpleFeature(contigName, position, end), filePointer);
+                    }
+                    ++kept;
+                }
+                lastPosition = position;
+            }
+
+            if (writeBGZip) {
+                for (int i = 0; i < outputCount; ++i) {
+                    Index index = indexCreators[i].finalizeIndex(bgzipOutputs[i].getFilePointer());
+                    bgzipOutputs[i].close();
+                    index.write(new File(getBGZipFile(outputs.get(i).getOutput()).getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION));
+                }
+            }
+
+        } finally {
+            for (int i = 0; i < outputCount; ++i) {
+                CloserUtil.close(plainOutputs[i]);
+                CloserUtil.close(bgzipOutputs[i]);
+            }
+        }
+
+        List<File> ret = new ArrayList<File>();
+        outputs.forEach(a -> ret.add(a.getOutput()));
+        logger.info("filtered {} records from {} into {} outputs ({} kept) in {} ms", records, vcf.getAbsolutePath(), outputCount, kept,
+                System.currentTimeMillis() - start);
+        return ret;
+    }
+
+    public static File getBGZipFile(File output) {
+        return new File(output.getParentFile(), output.getName() + ".gz");
+    }
+
+    private static InputStream open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            // bgzf is a series of gzip members, which GZIPInputStream reads through
+            return new GZIPInputStream(in, 64 * 1024);
+        }
+        return in;
+    }
+
+    private static void write(OutputStream out, byte[] buffer, int start, int end) throws IOException {
+        out.write(buffer, start, end - start);
+        out.write('\n');
+    }
+
+    private static int indexOf(byte[] buffer, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (buffer[i] == '\t') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parsePosition(byte[] buffer, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean regionEquals(byte[] contig, byte[] buffer, int start, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (contig[i] != buffer[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * hands out lines as [lineStart, lineEnd) of a buffer that is only reallocated for a line longer than the buffer
+     */
+    private static class LineScanner {
+
+        private final InputStream in;
+
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int lineStart = 0;
+
+        private int lineEnd = 0;
+
+        private int next = 0;
+
+        private int limit = 0;
+
+        private boolean eof = false;
+
+        LineScanner(InputStream in) {
+            super();
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            int scan = next;
+            while (true) {
+                for (int i = scan; i < limit; ++i) {
+                    if (buffer[i] == '\n') {
+                        lineStart = next;
+                        lineEnd = i > next && buffer[i - 1] == '\r' ? i - 1 : i;
+                        next = i + 1;
+                        return true;
+                    }
+                }
+                if (eof) {
+                    if (next < limit) {
+                        lineStart = next;
+                        lineEnd = limit;
+                        next = limit;
+                        return true;
+                    }
+                    return false;
+                }
+
+                int pending = limit - next;
+                if (next > 0) {
+                    System.arraycopy(buffer, next, buffer, 0, pending);
+                } else if (pending == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                next = 0;
+                limit = pending;
+                scan = pending;
+
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            }
+        }
+
+    }
+
+    public File getVcf() {
+        return vcf;
+    }
+
+    public void setVcf(File vcf) {
+        this.vcf = vcf;
+    }
+
+    public List<IntervalFilterOutput> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(List<IntervalFilterOutput> outputs) {
+        this.outputs = outputs;
+    }
+
+    public Boolean getBgzip() {
+        return bgzip;
+    }
+
+    public void setBgzip(Boolean bgzip) {
+        this.bgzip = bgzip;
+    }
+
+}
@@ -0,0 +1,222 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.renci.common.exec.BashExecutor;
+import org.renci.common.exec.CommandInput;
+import org.renci.common.exec.CommandOutput;
+import org.renci.common.exec.Executor;
+import org.renci.common.exec.ExecutorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * icommands run through bash with ~/.mapseqrc, so $IRODS_HOME & the iinit session apply. At most maxSessions icommands run at
+ * once across all attempts, AVUs go through a single imeta session per call.
+ */
+public class ICommandsIRODSClient implements IRODSClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(ICommandsIRODSClient.class);
+
+    // imeta reports an AVU that is already there this way, re-adding one is expected
+    private static final String ALREADY_EXISTS = "CATALOG_ALREADY_HAS_ITEM_BY_THAT_NAME";
+
+    // iquest reports an empty result this way
+    private static final String NO_ROWS_FOUND = "CAT_NO_ROWS_FOUND";
+
+    private static final String SECTION_MARKER = "--- ncnexus38-dx ---";
+
+    private final Executor executor = BashExecutor.getInstance();
+
+    private Semaphore sessions;
+
+    private File mapseqrc = new File(System.getProperty("user.home"), ".mapseqrc");
+
+    private File workDir = new File(System.getProperty("java.io.tmpdir"));
+
+    private Integer maxSessions = 8;
+
+    public ICommandsIRODSClient() {
+        super();
+    }
+
+    @Override
+    public void createCollection(String collection) throws IRODSException {
+        execute(String.format("$IRODS_HOME/imkdir -p %s", collection));
+    }
+
+    @Override
+    public void register(File file, String dataObject, String resource) throws IRODSException {
+        String registrationCommand = String.format("$IRODS_HOME/ireg -f %s%s %s",
+                resource != null ? String.format("-R %s ", resource) : "", file.getAbsolutePath(), dataObject);
+        try {
+            execute(registrationCommand);
+        } catch (IRODSException e) {
+            logger.info("replacing registration of {}: {}", dataObject, e.getMessage());
+            execute(String.format("$IRODS_HOME/irm -U %s", dataObject));
+            execute(registrationCommand);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) throws IRODSException {
+        return run(String.format("$IRODS_HOME/ils %s", path)).getExitCode() == 0;
+    }
+
+    @Override
+    public CollectionState getCollectionState(String collection) throws IRODSException {
+        // one bash session runs the four queries, their outputs are told apart by a marker line
+        String[][] queries = new String[][] { { "%s", "select COLL_NAME where COLL_NAME = '%s'" },
+                { "%s\t%s\t%s\t%s", "select DATA_NAME, DATA_SIZE, DATA_CHECKSUM, DATA_PATH where COLL_NAME = '%s'" },
+                { "%s\t%s\t%s\t%s",
+                        "select DATA_NAME, META_DATA_ATTR_NAME, META_DATA_ATTR_VALUE, META_DATA_ATTR_UNITS where COLL_NAME = '%s'" },
+                { "%s\t%s\t%s", "select META_COLL_ATTR_NAME, META_COLL_ATTR_VALUE, META_COLL_ATTR_UNITS where COLL_NAME = '%s'" } };
+        StringBuilder command = new StringBuilder();
+        for (String[] query : queries) {
+            command.append(String.format("$IRODS_HOME/iquest --no-page \"%s\" \"%s\"; echo \"%s\"%n", query[0],
+                    String.format(query[1], collection), SECTION_MARKER));
+        }
+        CommandOutput commandOutput = run(command.toString());
+
+        List<String> errors = new ArrayList<String>();
+        for (String line : commandOutput.getStderr().toString().split("\n")) {
+            if (line.contains("ERROR") && !line.contains(NO_ROWS_FOUND)) {
+                errors.add(line.trim());
+            }
+        }
+        if (commandOutput.getExitCode() != 0 || !errors.isEmpty()) {
+            throw new IRODSException(String.format("iquest failed for %s, exit code %d: %s", collection, commandOutput.getExitCode(),
+                    String.join("; ", errors)));
+        }
+
+        List<List<String[]>> sections = new ArrayList<List<String[]>>();
+        List<String[]> section = new ArrayList<String[]>();
+        for (String line : commandOutput.getStdout().toString().split("\n")) {
+            if (line.equals(SECTION_MARKER)) {
+                sections.add(section);
+                section = new ArrayList<String[]>();
+            } else if (!line.isEmpty() && !line.contains(NO_ROWS_FOUND)) {
+                section.add(line.split("\t", -1));
+            }
+        }
+        if (sections.size() != queries.length) {
+            throw new IRODSException(String.format("unexpected iquest output for %s", collection));
+        }
+        if (sections.get(0).isEmpty()) {
+            return null;
+        }
+
+        CollectionState ret = new CollectionState(collection);
+        for (String[] columns : sections.get(1)) {
+            // a data object with several replicas shows up once per replica
+            if (columns.length == 4 && !ret.getDataObjects().containsKey(columns[0])) {
+                ret.getDataObjects().put(columns[0], new DataObjectState(columns[0], Long.valueOf(columns[1]),
+                        columns[2].isEmpty() ? null : columns[2], columns[3]));
+            }
+        }
+        for (String[] columns : sections.get(2)) {
+            DataObjectState dataObject = columns.length == 4 ? ret.getDataObject(columns[0]) : null;
+            if (dataObject != null) {
+                dataObject.getAvus().add(AVU.forDataObject(String.format("%s/%s", collection, columns[0]), columns[1], columns[2],
+                        columns[3].isEmpty() ? null : columns[3]));
+            }
+        }
+        for (String[] columns : sections.get(3)) {
+            if (columns.length == 3) {
+                ret.getAvus().add(AVU.forCollection(collection, columns[0], columns[1], columns[2].isEmpty() ? null : columns[2]));
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public void addAVUs(List<AVU> avus) throws IRODSException {
+        if (avus.isEmpty()) {
+            return;
+        }
+        IMetaBatch imetaBatch = new IMetaBatch();
+        avus.forEach(a -> imetaBatch.add(a));
+        CommandOutput commandOutput;
+        try {
+            commandOutput = run(imetaBatch.toCommand(workDir));
+        } catch (IOException e) {
+            throw new IRODSException(e);
+        }
+        // imeta keeps reading after a failed command, the errors only show up on stderr
+        List<String> errors = new ArrayList<String>();
+        for (String line : commandOutput.getStderr().toString().split("\n")) {
+            if (line.contains("ERROR") && !line.contains(ALREADY_EXISTS)) {
+                errors.add(line.trim());
+            }
+        }
+        if (commandOutput.getExitCode() != 0 || !errors.isEmpty()) {
+            throw new IRODSException(String.format("imeta failed for %d of %d AVUs, exit code %d: %s", errors.size(), avus.size(),
+                    commandOutput.getExitCode(), String.join("; ", errors)));
+        }
+    }
+
+    private void execute(String command) throws IRODSException {
+        CommandOutput commandOutput = run(command);
+        if (commandOutput.getExitCode() != 0) {
+            throw new IRODSException(String.format("%s exited with %d: %s", command, commandOutput.getExitCode(),
+                    commandOutput.getStderr().toString().trim()));
+        }
+    }
+
+    private CommandOutput run(String command) throws IRODSException {
+        CommandInput commandInput = new CommandInput();
+        commandInput.setExitImmediately(Boolean.FALSE);
+        commandInput.setCommand(command);
+        commandInput.setWorkDir(workDir);
+        Semaphore semaphore = getSessions();
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IRODSException(e);
+        }
+        try {
+            return executor.execute(commandInput, mapseqrc);
+        } catch (ExecutorException e) {
+            throw new IRODSException(command, e);
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private synchronized Semaphore getSessions() {
+        if (sessions == null) {
+            this.sessions = new Semaphore(Math.max(1, maxSessions), true);
+        }
+        return sessions;
+    }
+
+    public File getMapseqrc() {
+        return mapseqrc;
+    }
+
+    public void setMapseqrc(File mapseqrc) {
+        this.mapseqrc = mapseqrc;
+    }
+
+    public File getWorkDir() {
+        return workDir;
+    }
+
+    public void setWorkDir(File workDir) {
+        this.workDir = workDir;
+    }
+
+    public Integer getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(Integer maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+}
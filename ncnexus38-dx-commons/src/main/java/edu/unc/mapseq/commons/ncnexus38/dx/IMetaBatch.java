@@ -0,0 +1,78 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * AVUs to add in one imeta session. Without arguments imeta reads its commands from stdin, so every AVU of an attempt goes
+ * through one process, one connection & one login instead of a fork per imeta add.
+ */
+public class IMetaBatch {
+
+    private final List<String> commands = new ArrayList<String>();
+
+    public IMetaBatch() {
+        super();
+    }
+
+    public IMetaBatch addToCollection(String collection, String attribute, String value, String unit) {
+        commands.add(toCommand("-C", collection, attribute, value, unit));
+        return this;
+    }
+
+    public IMetaBatch addToDataObject(String dataObject, String attribute, String value, String unit) {
+        commands.add(toCommand("-d", dataObject, attribute, value, unit));
+        return this;
+    }
+
+    public IMetaBatch add(AVU avu) {
+        commands.add(toCommand(avu.getCollection() ? "-C" : "-d", avu.getPath(), avu.getAttribute(), avu.getValue(), avu.getUnit()));
+        return this;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    public List<String> getCommands() {
+        return commands;
+    }
+
+    /*
+     * writes the command stream to a file in workDir & returns the shell line feeding it to imeta
+     */
+    public String toCommand(File workDir) throws IOException {
+        File commandFile = new File(workDir, String.format("imeta-%s.txt", UUID.randomUUID().toString()));
+        List<String> lines = new ArrayList<String>(commands);
+        lines.add("quit");
+        Files.write(commandFile.toPath(), lines, StandardCharsets.UTF_8);
+        return String.format("$IRODS_HOME/imeta < %1$s; status=$?; rm -f %1$s; exit $status%n", commandFile.getAbsolutePath());
+    }
+
+    private static String toCommand(String type, String target, String attribute, String value, String unit) {
+        StringBuilder sb = new StringBuilder("add ").append(type);
+        for (String argument : new String[] { target, attribute, value, unit }) {
+            if (argument != null) {
+                sb.append(' ').append(quote(argument));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String argument) {
+        if (!argument.isEmpty() && argument.chars().noneMatch(c -> Character.isWhitespace(c) || c == '"' || c == '\'')) {
+            return argument;
+        }
+        return String.format("\"%s\"", argument.replace("\"", "\\\""));
+    }
+
+}
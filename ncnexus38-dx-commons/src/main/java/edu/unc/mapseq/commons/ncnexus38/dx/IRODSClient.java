@@ -0,0 +1,38 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.List;
+
+/*
+ * The iRODS calls made by registration & its checks. One client is shared by every attempt, implementations are thread safe.
+ */
+public interface IRODSClient {
+
+    /*
+     * creates the collection & any missing parents
+     */
+    void createCollection(String collection) throws IRODSException;
+
+    /*
+     * registers a file in place as dataObject on resource, null for the default one, an existing registration of dataObject is
+     * replaced
+     */
+    void register(File file, String dataObject, String resource) throws IRODSException;
+
+    default void register(File file, String dataObject) throws IRODSException {
+        register(file, dataObject, null);
+    }
+
+    boolean exists(String path) throws IRODSException;
+
+    /*
+     * the data objects & AVUs of a collection in one round trip, null when there is no such collection
+     */
+    CollectionState getCollectionState(String collection) throws IRODSException;
+
+    /*
+     * adds the AVUs in one go, an AVU that is already present is not an error
+     */
+    void addAVUs(List<AVU> avus) throws IRODSException;
+
+}
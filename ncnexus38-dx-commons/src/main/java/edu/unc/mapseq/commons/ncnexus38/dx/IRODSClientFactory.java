@@ -0,0 +1,87 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class IRODSClientFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(IRODSClientFactory.class);
+
+    private static IRODSClient fallback;
+
+    // icommands or local
+    private String type = "icommands";
+
+    private String localRootDirectory;
+
+    private Integer maxSessions = 8;
+
+    public IRODSClientFactory() {
+        super();
+    }
+
+    public IRODSClient create() {
+        logger.info("ENTERING create()");
+        if ("local".equalsIgnoreCase(type)) {
+            logger.info("using a local stand in for iRODS under {}", localRootDirectory);
+            return new LocalIRODSClient(new File(localRootDirectory));
+        }
+        ICommandsIRODSClient ret = new ICommandsIRODSClient();
+        ret.setMaxSessions(maxSessions);
+        return ret;
+    }
+
+    /*
+     * the client published by this bundle, or one shared icommands client when there is no OSGi framework around
+     */
+    public static IRODSClient lookup(Class<?> caller) {
+        Bundle bundle = FrameworkUtil.getBundle(caller);
+        BundleContext bundleContext = bundle != null ? bundle.getBundleContext() : null;
+        if (bundleContext != null) {
+            ServiceReference<IRODSClient> reference = bundleContext.getServiceReference(IRODSClient.class);
+            if (reference != null) {
+                IRODSClient ret = bundleContext.getService(reference);
+                if (ret != null) {
+                    return ret;
+                }
+            }
+        }
+        synchronized (IRODSClientFactory.class) {
+            if (fallback == null) {
+                fallback = new ICommandsIRODSClient();
+            }
+            return fallback;
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getLocalRootDirectory() {
+        return localRootDirectory;
+    }
+
+    public void setLocalRootDirectory(String localRootDirectory) {
+        this.localRootDirectory = localRootDirectory;
+    }
+
+    public Integer getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(Integer maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+}
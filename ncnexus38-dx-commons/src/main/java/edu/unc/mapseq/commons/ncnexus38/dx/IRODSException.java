@@ -0,0 +1,23 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+public class IRODSException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public IRODSException() {
+        super();
+    }
+
+    public IRODSException(String message) {
+        super(message);
+    }
+
+    public IRODSException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public IRODSException(Throwable cause) {
+        super(cause);
+    }
+
+}
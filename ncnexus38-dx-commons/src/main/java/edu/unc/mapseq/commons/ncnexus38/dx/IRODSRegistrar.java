@@ -0,0 +1,16 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+public interface IRODSRegistrar {
+
+    /*
+     * registers every file as its data object in parallel & waits for all of them, one result per file in the given order
+     */
+    List<RegistrationResult> register(IRODSClient client, Map<File, String> dataObjects) throws InterruptedException;
+
+    void addAVUs(IRODSClient client, List<AVU> avus) throws IRODSException;
+
+}
@@ -0,0 +1,295 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Every file is its own task. At most maxRegistrationsPerResource registrations (or the resourceLimits entry, resc=n,...) run
+ * against a resource at once across all attempts, files of largeFileThreshold bytes & up have a separate, smaller lane so a
+ * handful of BAMs never holds up the text files. A failed registration is retried maxAttempts times with exponential backoff,
+ * the slot is given back while waiting.
+ */
+public class IRODSRegistrarImpl implements IRODSRegistrar {
+
+    private static final Logger logger = LoggerFactory.getLogger(IRODSRegistrarImpl.class);
+
+    private static final String DEFAULT_RESOURCE = "default";
+
+    private static IRODSRegistrar fallback;
+
+    private final Map<String, Semaphore> lanes = new ConcurrentHashMap<String, Semaphore>();
+
+    private ExecutorService executorService;
+
+    // empty for the default resource of the zone
+    private String resource;
+
+    private Integer maxRegistrationsPerResource = 4;
+
+    private String resourceLimits;
+
+    private Integer maxLargeRegistrationsPerResource = 2;
+
+    private Long largeFileThreshold = 1024L * 1024L * 1024L;
+
+    private Integer maxAttempts = 4;
+
+    // ms
+    private Long initialBackoff = 2000L;
+
+    private Long maxBackoff = 60000L;
+
+    public IRODSRegistrarImpl() {
+        super();
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        getExecutorService();
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        synchronized (this) {
+            if (executorService != null) {
+                executorService.shutdownNow();
+                executorService = null;
+            }
+        }
+        lanes.clear();
+    }
+
+    @Override
+    public List<RegistrationResult> register(IRODSClient client, Map<File, String> dataObjects) throws InterruptedException {
+        logger.debug("ENTERING register(IRODSClient, Map<File, String>)");
+        List<RegistrationResult> ret = new ArrayList<RegistrationResult>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        ExecutorService es = getExecutorService();
+        for (Map.Entry<File, String> entry : dataObjects.entrySet()) {
+            RegistrationResult result = new RegistrationResult(entry.getKey(), entry.getValue(),
+                    StringUtils.isNotEmpty(resource) ? resource : null);
+            ret.add(result);
+            futures.add(es.submit(() -> register(client, result)));
+        }
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                logger.error(e.getMessage(), e);
+                RegistrationResult result = ret.get(i);
+                result.setStatus(RegistrationResult.Status.FAILED);
+                result.setMessage(String.valueOf(e.getCause()));
+            }
+        }
+        return ret;
+    }
+
+    private void register(IRODSClient client, RegistrationResult result) {
+        long start = System.currentTimeMillis();
+        Semaphore lane = getLane(result.getResource(), result.getFile().length() >= largeFileThreshold);
+        long backoff = initialBackoff;
+        try {
+            for (int attempt = 1;; ++attempt) {
+                result.setAttempts(attempt);
+                long waitStart = System.currentTimeMillis();
+                lane.acquire();
+                result.setWaitTime(result.getWaitTime() + System.currentTimeMillis() - waitStart);
+                try {
+                    client.register(result.getFile(), result.getDataObject(), result.getResource());
+                    result.setStatus(RegistrationResult.Status.REGISTERED);
+                    result.setMessage(null);
+                    return;
+                } catch (IRODSException e) {
+                    result.setMessage(e.getMessage());
+                } catch (RuntimeException e) {
+                    // e.g. from the BashExecutor behind the client, retried like any other failure
+                    logger.warn("registering {} failed", result.getDataObject(), e);
+                    result.setMessage(String.valueOf(e));
+                } finally {
+                    lane.release();
+                }
+                if (attempt >= maxAttempts) {
+                    result.setStatus(RegistrationResult.Status.FAILED);
+                    return;
+                }
+                logger.info("registration {} of {} failed, retrying in {} ms: {}", attempt, result.getDataObject(), backoff,
+                        result.getMessage());
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, maxBackoff);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setStatus(RegistrationResult.Status.FAILED);
+            result.setMessage("interrupted");
+        } finally {
+            result.setElapsedTime(System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public void addAVUs(IRODSClient client, List<AVU> avus) throws IRODSException {
+        logger.debug("ENTERING addAVUs(IRODSClient, List<AVU>)");
+        long backoff = initialBackoff;
+        for (int attempt = 1;; ++attempt) {
+            try {
+                client.addAVUs(avus);
+                return;
+            } catch (IRODSException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                logger.info("adding {} AVUs failed, retrying in {} ms: {}", avus.size(), backoff, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IRODSException(e);
+            }
+            backoff = Math.min(backoff * 2, maxBackoff);
+        }
+    }
+
+    private Semaphore getLane(String resource, boolean large) {
+        String name = resource != null ? resource : DEFAULT_RESOURCE;
+        return lanes.computeIfAbsent(large ? name + "/large" : name, a -> {
+            Integer limit = parseResourceLimits().getOrDefault(name, maxRegistrationsPerResource);
+            return new Semaphore(Math.max(1, large ? Math.min(limit, maxLargeRegistrationsPerResource) : limit), true);
+        });
+    }
+
+    private Map<String, Integer> parseResourceLimits() {
+        Map<String, Integer> ret = new HashMap<String, Integer>();
+        if (StringUtils.isBlank(resourceLimits)) {
+            return ret;
+        }
+        for (String limit : StringUtils.split(resourceLimits, ", ")) {
+            String[] pair = StringUtils.split(limit, "=");
+            if (pair.length != 2 || !StringUtils.isNumeric(pair[1])) {
+                logger.warn("ignoring resource limit: {}", limit);
+                continue;
+            }
+            ret.put(pair[0], Integer.valueOf(pair[1]));
+        }
+        return ret;
+    }
+
+    private synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            // tasks mostly wait on their lane, the lanes bound the work
+            AtomicInteger count = new AtomicInteger();
+            this.executorService = Executors.newCachedThreadPool(a -> {
+                Thread thread = new Thread(a, String.format("irods-registration-%d", count.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executorService;
+    }
+
+    /*
+     * the registrar published by this bundle, or one shared with the defaults when there is no OSGi framework around
+     */
+    public static IRODSRegistrar lookup(Class<?> caller) {
+        Bundle bundle = FrameworkUtil.getBundle(caller);
+        BundleContext bundleContext = bundle != null ? bundle.getBundleContext() : null;
+        if (bundleContext != null) {
+            ServiceReference<IRODSRegistrar> reference = bundleContext.getServiceReference(IRODSRegistrar.class);
+            if (reference != null) {
+                IRODSRegistrar ret = bundleContext.getService(reference);
+                if (ret != null) {
+                    return ret;
+                }
+            }
+        }
+        synchronized (IRODSRegistrarImpl.class) {
+            if (fallback == null) {
+                fallback = new IRODSRegistrarImpl();
+            }
+            return fallback;
+        }
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public void setResource(String resource) {
+        this.resource = resource;
+    }
+
+    public Integer getMaxRegistrationsPerResource() {
+        return maxRegistrationsPerResource;
+    }
+
+    public void setMaxRegistrationsPerResource(Integer maxRegistrationsPerResource) {
+        this.maxRegistrationsPerResource = maxRegistrationsPerResource;
+    }
+
+    public String getResourceLimits() {
+        return resourceLimits;
+    }
+
+    public void setResourceLimits(String resourceLimits) {
+        this.resourceLimits = resourceLimits;
+    }
+
+    public Integer getMaxLargeRegistrationsPerResource() {
+        return maxLargeRegistrationsPerResource;
+    }
+
+    public void setMaxLargeRegistrationsPerResource(Integer maxLargeRegistrationsPerResource) {
+        this.maxLargeRegistrationsPerResource = maxLargeRegistrationsPerResource;
+    }
+
+    public Long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+
+    public void setLargeFileThreshold(Long largeFileThreshold) {
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(Integer maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public void setInitialBackoff(Long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public Long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(Long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+}
@@ -0,0 +1,76 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+
+public class IntervalFilterOutput {
+
+    private String dxId;
+
+    private File intervalListFile;
+
+    private IntervalSet intervalSet;
+
+    private File output;
+
+    public IntervalFilterOutput() {
+        super();
+    }
+
+    public IntervalFilterOutput(String dxId, File intervalListFile, File output) {
+        super();
+        this.dxId = dxId;
+        this.intervalListFile = intervalListFile;
+        this.output = output;
+    }
+
+    public IntervalFilterOutput(String dxId, File intervalListFile, IntervalSet intervalSet, File output) {
+        this(dxId, intervalListFile, output);
+        this.intervalSet = intervalSet;
+    }
+
+    public IntervalSet loadIntervalSet() throws IOException {
+        if (intervalSet == null) {
+            intervalSet = IntervalSet.fromIntervalList(intervalListFile);
+        }
+        return intervalSet;
+    }
+
+    public String getDxId() {
+        return dxId;
+    }
+
+    public void setDxId(String dxId) {
+        this.dxId = dxId;
+    }
+
+    public File getIntervalListFile() {
+        return intervalListFile;
+    }
+
+    public void setIntervalListFile(File intervalListFile) {
+        this.intervalListFile = intervalListFile;
+    }
+
+    public IntervalSet getIntervalSet() {
+        return intervalSet;
+    }
+
+    public void setIntervalSet(IntervalSet intervalSet) {
+        this.intervalSet = intervalSet;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public void setOutput(File output) {
+        this.output = output;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IntervalFilterOutput [dxId=%s, intervalListFile=%s, output=%s]", dxId, intervalListFile, output);
+    }
+
+}
@@ -0,0 +1,200 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Sorted, merged, 1-based inclusive intervals, built once per filtering job. Starts and ends are two flat int arrays that
+ * contigs index into by offset, rather than an object per interval, so lookups stay a binary search over primitives.
+ */
+public class IntervalSet {
+
+    private final String[] contigs;
+
+    private final byte[][] contigBytes;
+
+    private final int[] contigOffsets;
+
+    private final int[] starts;
+
+    private final int[] ends;
+
+    public IntervalSet(Map<String, List<int[]>> intervals) {
+        super();
+        int contigCount = intervals.size();
+        this.contigs = new String[contigCount];
+        this.contigBytes = new byte[contigCount][];
+        this.contigOffsets = new int[contigCount + 1];
+
+        int total = 0;
+        for (List<int[]> contigIntervals : intervals.values()) {
+            total += contigIntervals.size();
+        }
+        this.starts = new int[total];
+        this.ends = new int[total];
+
+        int index = 0;
+        int offset = 0;
+        for (Map.Entry<String, List<int[]>> entry : intervals.entrySet()) {
+            List<int[]> sorted = new ArrayList<int[]>(entry.getValue());
+            sorted.sort((a, b) -> Integer.compare(a[0], b[0]));
+            contigs[index] = entry.getKey();
+            contigBytes[index] = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+            contigOffsets[index] = offset;
+            for (int[] interval : sorted) {
+                if (offset > contigOffsets[index] && interval[0] <= ends[offset - 1] + 1) {
+                    ends[offset - 1] = Math.max(ends[offset - 1], interval[1]);
+                } else {
+                    starts[offset] = interval[0];
+                    ends[offset] = interval[1];
+                    ++offset;
+                }
+            }
+            ++index;
+        }
+        contigOffsets[contigCount] = offset;
+    }
+
+    public static IntervalSet fromIntervalList(File intervalListFile) throws IOException {
+        Map<String, List<int[]>> intervals = new LinkedHashMap<String, List<int[]>>();
+        try (BufferedReader br = Files.newBufferedReader(intervalListFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("@") || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length < 3) {
+                    throw new IOException(String.format("malformed interval in %s: %s", intervalListFile.getName(), line));
+                }
+                intervals.computeIfAbsent(columns[0], a -> new ArrayList<int[]>())
+                        .add(new int[] { Integer.parseInt(columns[1]), Integer.parseInt(columns[2]) });
+            }
+        }
+        return new IntervalSet(intervals);
+    }
+
+    /*
+     * accepts contig:start-end, contig:position and tab separated contig/start/end lines. a tab separated start is kept as is
+     * so a 0-based bed start only widens the interval, consumers that need the exact intervals apply them again.
+     */
+    public static IntervalSet fromIntervalsFile(File intervalsFile) throws IOException {
+        Map<String, List<int[]>> intervals = new LinkedHashMap<String, List<int[]>>();
+        try (BufferedReader br = Files.newBufferedReader(intervalsFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("@")) {
+                    continue;
+                }
+                String contig;
+                int start;
+                int end;
+                if (line.contains("\t")) {
+                    String[] columns = line.split("\t");
+                    contig = columns[0];
+                    start = Integer.parseInt(columns[1]);
+                    end = columns.length > 2 ? Integer.parseInt(columns[2]) : start;
+                } else {
+                    int colon = line.lastIndexOf(':');
+                    if (colon < 0) {
+                        contig = line;
+                        start = 1;
+                        end = Integer.MAX_VALUE;
+                    } else {
+                        contig = line.substring(0, colon);
+                        String[] range = line.substring(colon + 1).replace(",", "").split("-");
+                        start = Integer.parseInt(range[0]);
+                        end = range.length > 1 ? Integer.parseInt(range[1]) : start;
+                    }
+                }
+                intervals.computeIfAbsent(contig, a -> new ArrayList<int[]>()).add(new int[] { Math.max(start, 1), end });
+            }
+        }
+        return new IntervalSet(intervals);
+    }
+
+    public int getContigCount() {
+        return contigs.length;
+    }
+
+    public String getContig(int contigIndex) {
+        return contigs[contigIndex];
+    }
+
+    public int getContigIndex(String contig) {
+        for (int i = 0; i < contigs.length; ++i) {
+            if (contigs[i].equals(contig)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getContigIndex(byte[] buffer, int offset, int length) {
+        for (int i = 0; i < contigBytes.length; ++i) {
+            byte[] name = contigBytes[i];
+            if (name.length != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && name[j] == buffer[offset + j]) {
+                ++j;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return contigOffsets[contigs.length];
+    }
+
+    public int size(int contigIndex) {
+        return contigOffsets[contigIndex + 1] - contigOffsets[contigIndex];
+    }
+
+    public int getStart(int contigIndex, int index) {
+        return starts[contigOffsets[contigIndex] + index];
+    }
+
+    public int getEnd(int contigIndex, int index) {
+        return ends[contigOffsets[contigIndex] + index];
+    }
+
+    /*
+     * index of the first interval on the contig that ends at or after position
+     */
+    public int search(int contigIndex, int position) {
+        int offset = contigOffsets[contigIndex];
+        int low = 0;
+        int high = size(contigIndex);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[offset + mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean overlaps(int contigIndex, int start, int end) {
+        if (contigIndex < 0) {
+            return false;
+        }
+        int index = search(contigIndex, start);
+        return index < size(contigIndex) && getStart(contigIndex, index) <= end;
+    }
+
+}
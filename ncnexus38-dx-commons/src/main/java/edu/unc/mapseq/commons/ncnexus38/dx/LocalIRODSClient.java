@@ -0,0 +1,191 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Stands in for a zone with a local directory: a collection is a directory under rootDirectory, a registered data object is a
+ * link to the file & the AVUs of a collection and its data objects are kept in a tab separated index file in that collection.
+ * For tests & benchmarks, nothing leaves the machine.
+ */
+public class LocalIRODSClient implements IRODSClient {
+
+    public static final String INDEX_FILE_NAME = ".avus";
+
+    private File rootDirectory;
+
+    public LocalIRODSClient() {
+        super();
+    }
+
+    public LocalIRODSClient(File rootDirectory) {
+        super();
+        this.rootDirectory = rootDirectory;
+    }
+
+    @Override
+    public void createCollection(String collection) throws IRODSException {
+        try {
+            Files.createDirectories(toPath(collection));
+        } catch (IOException e) {
+            throw new IRODSException(e);
+        }
+    }
+
+    @Override
+    public void register(File file, String dataObject, String resource) throws IRODSException {
+        if (!file.exists()) {
+            throw new IRODSException(String.format("no such file: %s", file.getAbsolutePath()));
+        }
+        Path target = toPath(dataObject);
+        if (!Files.isDirectory(target.getParent())) {
+            throw new IRODSException(String.format("no such collection: %s", target.getParent()));
+        }
+        try {
+            Files.deleteIfExists(target);
+            try {
+                Files.createSymbolicLink(target, file.getAbsoluteFile().toPath());
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IRODSException(e);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) throws IRODSException {
+        return Files.exists(toPath(path));
+    }
+
+    @Override
+    public synchronized void addAVUs(List<AVU> avus) throws IRODSException {
+        // grouped by the collection holding the index
+        Map<Path, List<AVU>> avusByCollection = new LinkedHashMap<Path, List<AVU>>();
+        for (AVU avu : avus) {
+            Path path = toPath(avu.getPath());
+            if (!Files.exists(path)) {
+                throw new IRODSException(String.format("no such %s: %s", avu.getCollection() ? "collection" : "data object", avu.getPath()));
+            }
+            avusByCollection.computeIfAbsent(avu.getCollection() ? path : path.getParent(), a -> new ArrayList<AVU>()).add(avu);
+        }
+        for (Map.Entry<Path, List<AVU>> entry : avusByCollection.entrySet()) {
+            Path index = entry.getKey().resolve(INDEX_FILE_NAME);
+            try {
+                Set<String> lines = new LinkedHashSet<String>();
+                if (Files.exists(index)) {
+                    lines.addAll(Files.readAllLines(index, StandardCharsets.UTF_8));
+                }
+                for (AVU avu : entry.getValue()) {
+                    lines.add(toLine(avu));
+                }
+                Path tmp = entry.getKey().resolve(INDEX_FILE_NAME + ".tmp");
+                Files.write(tmp, lines, StandardCharsets.UTF_8);
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new IRODSException(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized CollectionState getCollectionState(String collection) throws IRODSException {
+        Path directory = toPath(collection);
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        CollectionState ret = new CollectionState(collection);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (Files.isDirectory(path) || name.startsWith(INDEX_FILE_NAME)) {
+                    continue;
+                }
+                // the physical path of a copy is the copy itself
+                Path physicalPath = Files.isSymbolicLink(path) ? Files.readSymbolicLink(path) : path;
+                ret.getDataObjects().put(name, new DataObjectState(name, Files.size(path), null, physicalPath.toString()));
+            }
+        } catch (IOException e) {
+            throw new IRODSException(e);
+        }
+        Path index = directory.resolve(INDEX_FILE_NAME);
+        if (!Files.exists(index)) {
+            return ret;
+        }
+        try {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                String[] columns = line.split("\t", -1);
+                if (columns.length != 4) {
+                    continue;
+                }
+                String unit = columns[3].isEmpty() ? null : columns[3];
+                if (".".equals(columns[0])) {
+                    ret.getAvus().add(AVU.forCollection(collection, columns[1], columns[2], unit));
+                    continue;
+                }
+                DataObjectState dataObject = ret.getDataObject(columns[0]);
+                if (dataObject != null) {
+                    dataObject.getAvus()
+                            .add(AVU.forDataObject(String.format("%s/%s", collection, columns[0]), columns[1], columns[2], unit));
+                }
+            }
+        } catch (IOException e) {
+            throw new IRODSException(e);
+        }
+        return ret;
+    }
+
+    /*
+     * AVUs of a collection or data object as recorded in the index
+     */
+    public synchronized List<AVU> getAVUs(String path) throws IRODSException {
+        List<AVU> ret = new ArrayList<AVU>();
+        Path target = toPath(path);
+        boolean collection = Files.isDirectory(target);
+        Path index = (collection ? target : target.getParent()).resolve(INDEX_FILE_NAME);
+        if (!Files.exists(index)) {
+            return ret;
+        }
+        String name = collection ? "." : target.getFileName().toString();
+        try {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                String[] columns = line.split("\t", -1);
+                if (columns.length == 4 && columns[0].equals(name)) {
+                    ret.add(new AVU(path, collection, columns[1], columns[2], columns[3].isEmpty() ? null : columns[3]));
+                }
+            }
+        } catch (IOException e) {
+            throw new IRODSException(e);
+        }
+        return ret;
+    }
+
+    private String toLine(AVU avu) {
+        String name = avu.getCollection() ? "." : toPath(avu.getPath()).getFileName().toString();
+        return String.format("%s\t%s\t%s\t%s", name, avu.getAttribute(), avu.getValue(), avu.getUnit() != null ? avu.getUnit() : "");
+    }
+
+    private Path toPath(String path) {
+        return new File(rootDirectory, path).toPath().normalize();
+    }
+
+    public File getRootDirectory() {
+        return rootDirectory;
+    }
+
+    public void setRootDirectory(File rootDirectory) {
+        this.rootDirectory = rootDirectory;
+    }
+
+}
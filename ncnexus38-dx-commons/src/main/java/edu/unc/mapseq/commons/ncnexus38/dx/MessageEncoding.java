@@ -0,0 +1,64 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/*
+ * How a DX request is encoded. JSON goes in a TextMessage as it always has, the binary forms go in a BytesMessage with the
+ * content type set as the PROPERTY string property.
+ */
+public enum MessageEncoding {
+
+    JSON("application/json", new JsonFactory()),
+
+    SMILE("application/x-jackson-smile", new SmileFactory()),
+
+    CBOR("application/cbor", new CBORFactory());
+
+    public static final String PROPERTY = "contentType";
+
+    private final String contentType;
+
+    private final JsonFactory factory;
+
+    private MessageEncoding(String contentType, JsonFactory factory) {
+        this.contentType = contentType;
+        this.factory = factory;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /*
+     * shared, only for parsers & generators, an ObjectMapper needs its own from createFactory()
+     */
+    public JsonFactory getFactory() {
+        return factory;
+    }
+
+    public JsonFactory createFactory() {
+        return factory.copy();
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /*
+     * JSON when no content type is given, null when it is not one of ours
+     */
+    public static MessageEncoding fromContentType(String contentType) {
+        if (contentType == null || contentType.isEmpty()) {
+            return JSON;
+        }
+        for (MessageEncoding encoding : values()) {
+            if (encoding.getContentType().equalsIgnoreCase(contentType) || encoding.name().equalsIgnoreCase(contentType)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,133 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+
+import edu.unc.mapseq.dao.model.Attribute;
+import edu.unc.mapseq.dao.model.Sample;
+import edu.unc.mapseq.dao.model.WorkflowRun;
+import edu.unc.mapseq.workflow.WorkflowException;
+
+public class NCNEXUS38DXWorkflowUtil {
+
+    private static final Pattern ENVIRONMENT_VARIABLE_PATTERN = Pattern.compile("\\$\\{?([A-Za-z_][A-Za-z0-9_]*)\\}?");
+
+    /*
+     * blueprint attributes like referenceSequence are written for the condor hosts ($NCNEXUS_REFERENCES_DIRECTORY/...), unset
+     * variables are left in place
+     */
+    public static String expandEnvironmentVariables(String value, Map<String, String> environment) {
+        if (value == null) {
+            return null;
+        }
+        Matcher matcher = ENVIRONMENT_VARIABLE_PATTERN.matcher(value);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String replacement = environment.get(matcher.group(1));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement != null ? replacement : matcher.group()));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    public static String getAttributeValue(WorkflowRun workflowRun, String name) {
+        Set<Attribute> attributeSet = workflowRun.getAttributes();
+        if (CollectionUtils.isNotEmpty(attributeSet)) {
+            for (Attribute attribute : attributeSet) {
+                if (name.equals(attribute.getName())) {
+                    return attribute.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    public static String getListVersion(WorkflowRun workflowRun) {
+        return getAttributeValue(workflowRun, "list_version");
+    }
+
+    /*
+     * the priority attribute is optional, a missing or unknown value is routine
+     */
+    public static WorkflowRunPriority getPriority(WorkflowRun workflowRun) {
+        String value = getAttributeValue(workflowRun, "priority");
+        if (StringUtils.isNotBlank(value)) {
+            for (WorkflowRunPriority priority : WorkflowRunPriority.values()) {
+                if (priority.name().equalsIgnoreCase(value.trim())) {
+                    return priority;
+                }
+            }
+        }
+        return WorkflowRunPriority.ROUTINE;
+    }
+
+    /*
+     * dx_id may be repeated and/or hold a comma separated list. The attribute set has no order, so repeated attributes are taken
+     * in the order they were stored (by id, unsaved ones last by value) & ids in the order they appear within each value.
+     */
+    public static List<String> getDXIds(WorkflowRun workflowRun) {
+        List<String> ret = new ArrayList<String>();
+        Set<Attribute> attributeSet = workflowRun.getAttributes();
+        if (CollectionUtils.isNotEmpty(attributeSet)) {
+            List<Attribute> attributes = attributeSet.stream()
+                    .filter(a -> "dx_id".equals(a.getName()) && StringUtils.isNotEmpty(a.getValue()))
+                    .sorted(Comparator.comparing(Attribute::getId, Comparator.nullsLast(Comparator.naturalOrder()))
+                            .thenComparing(Attribute::getValue))
+                    .collect(Collectors.toList());
+            for (Attribute attribute : attributes) {
+                for (String dxId : attribute.getValue().split("[,\\s]+")) {
+                    if (StringUtils.isNotEmpty(dxId) && !ret.contains(dxId)) {
+                        ret.add(dxId);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    public static String getSubjectName(Set<Sample> sampleSet) throws WorkflowException {
+
+        Set<String> subjectNameSet = new HashSet<String>();
+        for (Sample sample : sampleSet) {
+            if ("Undetermined".equals(sample.getBarcode())) {
+                continue;
+            }
+            Set<Attribute> sampleAttributes = sample.getAttributes();
+            Optional<Attribute> foundAttribute = sampleAttributes.stream().filter(a -> "subjectName".equals(a.getName())).findFirst();
+            if (foundAttribute.isPresent()) {
+                subjectNameSet.add(foundAttribute.get().getValue());
+            }
+        }
+
+        Set<String> synchronizedSubjectNameSet = Collections.synchronizedSet(subjectNameSet);
+
+        if (synchronizedSubjectNameSet.isEmpty()) {
+            throw new WorkflowException("subjectNameSet is empty");
+        }
+
+        if (synchronizedSubjectNameSet.size() > 1) {
+            throw new WorkflowException("multiple subjectName values across samples");
+        }
+
+        String subjectName = synchronizedSubjectNameSet.iterator().next();
+
+        if (StringUtils.isEmpty(subjectName)) {
+            throw new WorkflowException("empty subjectName");
+        }
+
+        return subjectName;
+    }
+
+}
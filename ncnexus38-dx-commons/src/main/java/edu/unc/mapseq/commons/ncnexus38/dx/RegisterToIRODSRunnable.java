@@ -1,16 +1,17 @@
 package edu.unc.mapseq.commons.ncnexus38.dx;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -21,32 +22,22 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
-import org.renci.common.exec.BashExecutor;
-import org.renci.common.exec.CommandInput;
-import org.renci.common.exec.CommandOutput;
-import org.renci.common.exec.Executor;
-import org.renci.common.exec.ExecutorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
-import edu.unc.mapseq.dao.model.Attribute;
-import edu.unc.mapseq.dao.model.Job;
 import edu.unc.mapseq.dao.model.MimeType;
 import edu.unc.mapseq.dao.model.Sample;
 import edu.unc.mapseq.dao.model.Workflow;
 import edu.unc.mapseq.dao.model.WorkflowRun;
 import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
-import edu.unc.mapseq.module.core.Zip;
 import edu.unc.mapseq.module.sequencing.converter.SAMToolsDepthToGATKDOCFormatConverter;
-import edu.unc.mapseq.module.sequencing.filter.FilterVariant;
-import edu.unc.mapseq.module.sequencing.picard.PicardSortSAM;
 import edu.unc.mapseq.module.sequencing.picard2.PicardCollectHsMetrics;
-import edu.unc.mapseq.module.sequencing.picard2.PicardViewSAM;
 import edu.unc.mapseq.workflow.WorkflowBeanService;
 import edu.unc.mapseq.workflow.WorkflowException;
 import edu.unc.mapseq.workflow.sequencing.IRODSBean;
 import edu.unc.mapseq.workflow.sequencing.SequencingWorkflowUtil;
+import htsjdk.tribble.util.TabixUtils;
 
 public class RegisterToIRODSRunnable implements Runnable {
 
@@ -56,6 +47,14 @@ public class RegisterToIRODSRunnable implements Runnable {
 
     private WorkflowRunAttempt workflowRunAttempt;
 
+    private IRODSClient irodsClient;
+
+    private IRODSRegistrar irodsRegistrar;
+
+    private final List<RegistrationResult> results = new ArrayList<RegistrationResult>();
+
+    private Exception exception;
+
     public RegisterToIRODSRunnable() {
         super();
     }
@@ -69,6 +68,8 @@ public class RegisterToIRODSRunnable implements Runnable {
     @Override
     public void run() {
         logger.debug("ENTERING run()");
+        results.clear();
+        this.exception = null;
 
         try {
 
@@ -82,58 +83,18 @@ public class RegisterToIRODSRunnable implements Runnable {
                 return;
             }
 
-            String listVersion = null;
-            String dxId = null;
+            String listVersion = NCNEXUS38DXWorkflowUtil.getListVersion(workflowRun);
+            List<String> dxIds = NCNEXUS38DXWorkflowUtil.getDXIds(workflowRun);
 
-            Set<Attribute> attributeSet = workflowRun.getAttributes();
-            if (CollectionUtils.isNotEmpty(attributeSet)) {
-                Iterator<Attribute> attributeIter = attributeSet.iterator();
-                while (attributeIter.hasNext()) {
-                    Attribute attribute = attributeIter.next();
-                    if ("list_version".equals(attribute.getName())) {
-                        listVersion = attribute.getValue();
-                    }
-                    if ("dx_id".equals(attribute.getName())) {
-                        dxId = attribute.getValue();
-                    }
-                }
-            }
-
-            if (listVersion == null && dxId == null) {
+            if (listVersion == null && CollectionUtils.isEmpty(dxIds)) {
                 logger.warn("Both listVersion and dx were null");
                 return;
             }
 
             logger.info("listVersion = {}", listVersion);
-            logger.info("dx = {}", dxId);
-
-            Set<String> subjectNameSet = new HashSet<String>();
-            for (Sample sample : sampleSet) {
-                if ("Undetermined".equals(sample.getBarcode())) {
-                    continue;
-                }
-                Set<Attribute> sampleAttributes = sample.getAttributes();
-                Optional<Attribute> foundAttribute = sampleAttributes.stream().filter(a -> "subjectName".equals(a.getName())).findFirst();
-                if (foundAttribute.isPresent()) {
-                    subjectNameSet.add(foundAttribute.get().getValue());
-                }
-            }
-
-            Set<String> synchronizedSubjectNameSet = Collections.synchronizedSet(subjectNameSet);
+            logger.info("dxIds = {}", dxIds);
 
-            if (synchronizedSubjectNameSet.isEmpty()) {
-                throw new WorkflowException("subjectNameSet is empty");
-            }
-
-            if (synchronizedSubjectNameSet.size() > 1) {
-                throw new WorkflowException("multiple subjectName values across samples");
-            }
-
-            String subjectName = synchronizedSubjectNameSet.iterator().next();
-
-            if (StringUtils.isEmpty(subjectName)) {
-                throw new WorkflowException("empty subjectName");
-            }
+            String subjectName = NCNEXUS38DXWorkflowUtil.getSubjectName(sampleSet);
 
             BundleContext bundleContext = FrameworkUtil.getBundle(getClass()).getBundleContext();
             Bundle bundle = bundleContext.getBundle();
@@ -168,167 +129,198 @@ public class RegisterToIRODSRunnable implements Runnable {
             }
 
             File subjectMergeDirectory = new File(String.format("%s/%s/%s", subjectMergeHome, subjectName, listVersion));
-            File tmpDir = new File(subjectMergeDirectory, "tmp");
-            if (!tmpDir.exists()) {
-                tmpDir.mkdirs();
-            }
 
             String irodsDirectory = String.format("/MedGenZone/%s/sequencing/ncnexus38/subjectMerge/%s/%s", workflow.getSystem().getValue(),
                     subjectName, listVersion);
 
-            List<CommandInput> commandInputList = new LinkedList<CommandInput>();
+            IRODSClient client = irodsClient != null ? irodsClient : IRODSClientFactory.lookup(getClass());
 
-            CommandOutput commandOutput = null;
+            // one look at what is there already, only the difference to it is applied
+            CollectionState state = client.getCollectionState(irodsDirectory);
+            if (state == null) {
+                client.createCollection(irodsDirectory);
+                state = new CollectionState(irodsDirectory);
+            }
+            Set<AVU> existingAVUs = new HashSet<AVU>(state.getAvus());
 
-            CommandInput commandInput = new CommandInput();
-            commandInput.setExitImmediately(Boolean.FALSE);
-            StringBuilder sb = new StringBuilder();
-            sb.append(String.format("$IRODS_HOME/imkdir -p %s%n", irodsDirectory));
-            sb.append(String.format("$IRODS_HOME/imeta add -C %s Project NCNEXUS38%n", irodsDirectory));
-            sb.append(String.format("$IRODS_HOME/imeta add -C %s ParticipantId %s NCNEXUS38%n", irodsDirectory, subjectName));
-            commandInput.setCommand(sb.toString());
-            commandInput.setWorkDir(tmpDir);
-            commandInputList.add(commandInput);
+            // every AVU of the attempt is applied in one go once the files are registered
+            List<AVU> avus = new ArrayList<AVU>();
+            avus.add(AVU.forCollection(irodsDirectory, "Project", "NCNEXUS38", null));
+            avus.add(AVU.forCollection(irodsDirectory, "ParticipantId", subjectName, "NCNEXUS38"));
 
             List<IRODSBean> files2RegisterToIRODS = new ArrayList<IRODSBean>();
 
-            List<ImmutablePair<String, String>> attributeList = Arrays.asList(
-                    new ImmutablePair<String, String>("ParticipantId", subjectName), new ImmutablePair<String, String>("DxID", dxId),
-                    new ImmutablePair<String, String>("DxVersion", listVersion),
-                    new ImmutablePair<String, String>("MaPSeqWorkflowVersion", version),
-                    new ImmutablePair<String, String>("MaPSeqWorkflowName", workflow.getName()),
-                    new ImmutablePair<String, String>("MaPSeqSystem", workflow.getSystem().getValue()));
+            List<ImmutablePair<String, String>> attributeList = new ArrayList<>(
+                    Arrays.asList(new ImmutablePair<String, String>("ParticipantId", subjectName),
+                            new ImmutablePair<String, String>("DxVersion", listVersion),
+                            new ImmutablePair<String, String>("MaPSeqWorkflowVersion", version),
+                            new ImmutablePair<String, String>("MaPSeqWorkflowName", workflow.getName()),
+                            new ImmutablePair<String, String>("MaPSeqSystem", workflow.getSystem().getValue())));
 
-            List<ImmutablePair<String, String>> attributeListWithJob = new ArrayList<>(attributeList);
+            // version scoped outputs are shared by every dx in the run
+            List<ImmutablePair<String, String>> sharedAttributeList = new ArrayList<>(attributeList);
+            dxIds.forEach(a -> sharedAttributeList.add(new ImmutablePair<String, String>("DxID", a)));
+
+            List<ImmutablePair<String, String>> attributeListWithJob = new ArrayList<>(sharedAttributeList);
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobName", PicardCollectHsMetrics.class.getSimpleName()));
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqReferenceSequenceFile", referenceSequence));
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.TEXT_PLAIN.toString()));
             File file = new File(subjectMergeDirectory, String.format("%s.merged.rg.deduped.hs.coverage", subjectName));
             files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
 
-            attributeListWithJob = new ArrayList<>(attributeList);
+            attributeListWithJob = new ArrayList<>(sharedAttributeList);
             attributeListWithJob
                     .add(new ImmutablePair<String, String>("MaPSeqJobName", SAMToolsDepthToGATKDOCFormatConverter.class.getSimpleName()));
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.TEXT_PLAIN.toString()));
             file = new File(subjectMergeDirectory, String.format("%s.merged.rg.deduped.depth.v%s.txt", subjectName, listVersion));
             files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
 
-            attributeListWithJob = new ArrayList<>(attributeList);
+            attributeListWithJob = new ArrayList<>(sharedAttributeList);
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobName", PicardCollectHsMetrics.class.getSimpleName()));
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqReferenceSequenceFile", referenceSequence));
             attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.TEXT_PLAIN.toString()));
             file = new File(subjectMergeDirectory, String.format("%s.merged.rg.deduped.hs.metrics", subjectName));
             files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
 
-            attributeListWithJob = new ArrayList<>(attributeList);
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobName", PicardSortSAM.class.getSimpleName()));
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_BAM.toString()));
-            file = new File(subjectMergeDirectory,
-                    String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.sorted.bam", subjectName, dxId, listVersion));
-            Job job = SequencingWorkflowUtil.findJob(mapseqDAOBeanService, workflowRunAttempt.getId(), PicardViewSAM.class.getName(), file);
-            if (job != null) {
-                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobId", job.getId().toString()));
-            } else {
-                logger.warn(String.format("Couldn't find job for: %d, %s", workflowRunAttempt.getId(), PicardViewSAM.class.getName()));
-            }
-            files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
-
-            attributeListWithJob = new ArrayList<>(attributeList);
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobName", PicardSortSAM.class.getSimpleName()));
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_BAM_INDEX.toString()));
-            file = new File(subjectMergeDirectory,
-                    String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.sorted.bai", subjectName, dxId, listVersion));
-            job = SequencingWorkflowUtil.findJob(mapseqDAOBeanService, workflowRunAttempt.getId(), PicardSortSAM.class.getName(), file);
-            if (job != null) {
-                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobId", job.getId().toString()));
-            } else {
-                logger.warn(String.format("Couldn't find job for: %d, %s", workflowRunAttempt.getId(), PicardSortSAM.class.getName()));
-            }
-            files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
+            for (String dxId : dxIds) {
+
+                List<ImmutablePair<String, String>> dxAttributeList = new ArrayList<>(attributeList);
+                dxAttributeList.add(new ImmutablePair<String, String>("DxID", dxId));
+
+                attributeListWithJob = new ArrayList<>(dxAttributeList);
+                attributeListWithJob
+                        .add(new ImmutablePair<String, String>("MaPSeqJobName", ExtractBAMRegionsCallable.class.getSimpleName()));
+                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_BAM.toString()));
+                file = new File(subjectMergeDirectory,
+                        String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.sorted.bam", subjectName, dxId, listVersion));
+                files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
+
+                attributeListWithJob = new ArrayList<>(dxAttributeList);
+                attributeListWithJob
+                        .add(new ImmutablePair<String, String>("MaPSeqJobName", ExtractBAMRegionsCallable.class.getSimpleName()));
+                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_BAM_INDEX.toString()));
+                file = new File(subjectMergeDirectory,
+                        String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.sorted.bai", subjectName, dxId, listVersion));
+                files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
+
+                attributeListWithJob = new ArrayList<>(dxAttributeList);
+                attributeListWithJob
+                        .add(new ImmutablePair<String, String>("MaPSeqJobName", ExtractBAMRegionsCallable.class.getSimpleName()));
+                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_ZIP.toString()));
+                file = new File(subjectMergeDirectory,
+                        String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.sorted.zip", subjectName, dxId, listVersion));
+                files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
+
+                attributeListWithJob = new ArrayList<>(dxAttributeList);
+                attributeListWithJob
+                        .add(new ImmutablePair<String, String>("MaPSeqJobName", FilterVCFByIntervalsCallable.class.getSimpleName()));
+                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.TEXT_VCF.toString()));
+                file = new File(subjectMergeDirectory,
+                        String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.vcf", subjectName, dxId, listVersion));
+                files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
+
+                // only written when the workflow runs with bgzipVCF
+                File bgzipFile = FilterVCFByIntervalsCallable.getBGZipFile(file);
+                if (bgzipFile.exists()) {
+                    attributeListWithJob = new ArrayList<>(dxAttributeList);
+                    attributeListWithJob
+                            .add(new ImmutablePair<String, String>("MaPSeqJobName", FilterVCFByIntervalsCallable.class.getSimpleName()));
+                    attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_GZIP.toString()));
+                    files2RegisterToIRODS.add(new IRODSBean(bgzipFile, attributeListWithJob));
+                    files2RegisterToIRODS.add(new IRODSBean(
+                            new File(subjectMergeDirectory, bgzipFile.getName() + TabixUtils.STANDARD_INDEX_EXTENSION), attributeListWithJob));
+                }
 
-            attributeListWithJob = new ArrayList<>(attributeList);
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobName", Zip.class.getSimpleName()));
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.APPLICATION_ZIP.toString()));
-            file = new File(subjectMergeDirectory,
-                    String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.sorted.zip", subjectName, dxId, listVersion));
-            job = SequencingWorkflowUtil.findJob(mapseqDAOBeanService, workflowRunAttempt.getId(), Zip.class.getName(), file);
-            if (job != null) {
-                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobId", job.getId().toString()));
-            } else {
-                logger.warn(String.format("Couldn't find job for: %d, %s", workflowRunAttempt.getId(), Zip.class.getName()));
             }
-            files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
 
-            attributeListWithJob = new ArrayList<>(attributeList);
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobName", FilterVariant.class.getSimpleName()));
-            attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqMimeType", MimeType.TEXT_VCF.toString()));
-            file = new File(subjectMergeDirectory,
-                    String.format("%s.merged.rg.deduped.filtered_by_dxid_%s_v%s.vcf", subjectName, dxId, listVersion));
-            job = SequencingWorkflowUtil.findJob(mapseqDAOBeanService, workflowRunAttempt.getId(), FilterVariant.class.getName(), file);
-            if (job != null) {
-                attributeListWithJob.add(new ImmutablePair<String, String>("MaPSeqJobId", job.getId().toString()));
-            } else {
-                logger.warn(String.format("Couldn't find job for: %d, %s", workflowRunAttempt.getId(), FilterVariant.class.getName()));
-            }
-            files2RegisterToIRODS.add(new IRODSBean(file, attributeListWithJob));
+            IRODSRegistrar registrar = irodsRegistrar != null ? irodsRegistrar : IRODSRegistrarImpl.lookup(getClass());
 
+            Map<File, String> dataObjects = new LinkedHashMap<File, String>();
+            Map<String, List<AVU>> avusByDataObject = new HashMap<String, List<AVU>>();
+            List<RegistrationResult> current = new ArrayList<RegistrationResult>();
             for (IRODSBean bean : files2RegisterToIRODS) {
-
                 File f = bean.getFile();
+                String dataObject = String.format("%s/%s", irodsDirectory, f.getName());
+                List<AVU> dataObjectAVUs = new ArrayList<AVU>();
+                bean.getAttributes()
+                        .forEach(a -> dataObjectAVUs.add(AVU.forDataObject(dataObject, a.getLeft(), a.getRight(), "NCNEXUS38DX")));
+                avusByDataObject.put(dataObject, dataObjectAVUs);
+
                 if (!f.exists()) {
                     logger.warn("file to register doesn't exist: {}", f.getAbsolutePath());
+                    RegistrationResult result = new RegistrationResult(f, dataObject, null);
+                    result.setStatus(RegistrationResult.Status.SKIPPED);
+                    result.setMessage("no such file");
+                    results.add(result);
                     continue;
                 }
 
-                commandInput = new CommandInput();
-                commandInput.setExitImmediately(Boolean.FALSE);
-
-                StringBuilder registerCommandSB = new StringBuilder();
-                String registrationCommand = String.format("$IRODS_HOME/ireg -f %s %s/%s", f.getAbsolutePath(), irodsDirectory,
-                        f.getName());
-                String deRegistrationCommand = String.format("$IRODS_HOME/irm -U %s/%s", irodsDirectory, f.getName());
-                registerCommandSB.append(registrationCommand).append("\n");
-                registerCommandSB.append(String.format("if [ $? != 0 ]; then %s; %s; fi%n", deRegistrationCommand, registrationCommand));
-                commandInput.setCommand(registerCommandSB.toString());
-                commandInput.setWorkDir(tmpDir);
-                commandInputList.add(commandInput);
-
-                commandInput = new CommandInput();
-                commandInput.setExitImmediately(Boolean.FALSE);
-                sb = new StringBuilder();
-                for (ImmutablePair<String, String> attribute : bean.getAttributes()) {
-                    sb.append(String.format("$IRODS_HOME/imeta add -d %s/%s %s %s NCNEXUS38DX%n", irodsDirectory, bean.getFile().getName(),
-                            attribute.getLeft(), attribute.getRight()));
+                DataObjectState dataObjectState = state.getDataObject(f.getName());
+                if (isCurrent(f, dataObjectState)) {
+                    RegistrationResult result = new RegistrationResult(f, dataObject, null);
+                    result.setStatus(RegistrationResult.Status.SKIPPED);
+                    result.setMessage("already registered");
+                    results.add(result);
+                    current.add(result);
+                    existingAVUs.addAll(dataObjectState.getAvus());
+                    continue;
                 }
-                commandInput.setCommand(sb.toString());
-                commandInput.setWorkDir(tmpDir);
-                commandInputList.add(commandInput);
-
+                // a stale registration is replaced & takes its AVUs with it, so they are all added again
+                dataObjects.put(f, dataObject);
             }
 
-            File mapseqrc = new File(System.getProperty("user.home"), ".mapseqrc");
-            Executor executor = BashExecutor.getInstance();
+            List<RegistrationResult> registered = registrar.register(client, dataObjects);
+            results.addAll(registered);
 
-            for (CommandInput ci : commandInputList) {
+            List<RegistrationResult> touched = new ArrayList<RegistrationResult>();
+            for (RegistrationResult result : registered) {
+                if (result.getStatus() == RegistrationResult.Status.REGISTERED) {
+                    avus.addAll(avusByDataObject.get(result.getDataObject()));
+                    touched.add(result);
+                }
+            }
+            for (RegistrationResult result : current) {
+                List<AVU> missing = avusByDataObject.get(result.getDataObject()).stream().filter(a -> !existingAVUs.contains(a))
+                        .collect(Collectors.toList());
+                if (!missing.isEmpty()) {
+                    avus.addAll(missing);
+                    touched.add(result);
+                }
+            }
+            avus.removeIf(a -> existingAVUs.contains(a));
+
+            logger.info("{} of {} files to register, {} AVUs to add", dataObjects.size(), files2RegisterToIRODS.size(), avus.size());
+            if (!avus.isEmpty()) {
                 try {
-                    commandOutput = executor.execute(ci, mapseqrc);
-                    if (commandOutput.getExitCode() != 0) {
-                        logger.info("commandOutput.getExitCode(): {}", commandOutput.getExitCode());
-                        logger.warn("command failed: {}", ci.getCommand());
-                    }
-                    logger.debug("commandOutput.getStdout(): {}", commandOutput.getStdout());
-                } catch (ExecutorException e) {
-                    if (commandOutput != null) {
-                        logger.warn("commandOutput.getStderr(): {}", commandOutput.getStderr());
+                    registrar.addAVUs(client, avus);
+                } catch (IRODSException e) {
+                    logger.warn(e.getMessage(), e);
+                    // without its AVUs a data object can't be found by the usual queries
+                    for (RegistrationResult result : touched) {
+                        result.setStatus(RegistrationResult.Status.FAILED);
+                        result.setMessage(String.format("AVUs not added: %s", e.getMessage()));
                     }
                 }
             }
 
+            for (RegistrationResult result : results) {
+                logger.info(result.toString());
+            }
+
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
+            this.exception = e;
         }
     }
 
+    private boolean isCurrent(File file, DataObjectState dataObjectState) throws IOException {
+        if (dataObjectState == null || dataObjectState.getSize() == null || dataObjectState.getSize() != file.length()) {
+            return false;
+        }
+        String physicalPath = dataObjectState.getPhysicalPath();
+        return file.getAbsolutePath().equals(physicalPath) || file.getCanonicalPath().equals(physicalPath);
+    }
+
     public MaPSeqDAOBeanService getMapseqDAOBeanService() {
         return mapseqDAOBeanService;
     }
@@ -337,6 +329,36 @@ public class RegisterToIRODSRunnable implements Runnable {
         this.mapseqDAOBeanService = mapseqDAOBeanService;
     }
 
+    public IRODSClient getIrodsClient() {
+        return irodsClient;
+    }
+
+    public void setIrodsClient(IRODSClient irodsClient) {
+        this.irodsClient = irodsClient;
+    }
+
+    public IRODSRegistrar getIrodsRegistrar() {
+        return irodsRegistrar;
+    }
+
+    public void setIrodsRegistrar(IRODSRegistrar irodsRegistrar) {
+        this.irodsRegistrar = irodsRegistrar;
+    }
+
+    /*
+     * one per file, complete once run() has returned
+     */
+    public List<RegistrationResult> getResults() {
+        return results;
+    }
+
+    /*
+     * what stopped run() before the files were registered, if anything
+     */
+    public Exception getException() {
+        return exception;
+    }
+
     public WorkflowRunAttempt getWorkflowRunAttempt() {
         return workflowRunAttempt;
     }
@@ -0,0 +1,12 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.IOException;
+
+public interface RegistrationOutbox {
+
+    /*
+     * records that the outputs of the attempt are to be registered to iRODS & returns, the task survives restarts
+     */
+    void submit(Long workflowRunAttemptId) throws IOException;
+
+}
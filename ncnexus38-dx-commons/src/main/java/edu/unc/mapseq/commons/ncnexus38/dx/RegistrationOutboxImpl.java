@@ -0,0 +1,487 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
+import edu.unc.mapseq.dao.MaPSeqDAOException;
+import edu.unc.mapseq.dao.model.Attribute;
+import edu.unc.mapseq.dao.model.WorkflowRun;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+
+/*
+ * Registration tasks kept as files in outboxDirectory, one per WorkflowRunAttempt: pending/<attemptId>.task waits for its next
+ * try, a worker claims it by moving it to running/<attemptId>.<node>.task, which succeeds on exactly one node, and moves it on
+ * to done/ or, once maxAttempts tries failed, to failed/ with the last error. A failed try goes back to pending/ with an
+ * exponential delay. On start the tasks this node was running are put back, as are those another node left in running/ for
+ * staleAfter hours; registration only applies what is missing, so running a task twice is harmless. The attempt is done
+ * before its outputs are registered, how registration went is kept in the registration_status attribute of the WorkflowRun:
+ * QUEUED, RETRYING, DONE or FAILED. Tasks in done/ and failed/ are only kept to look back on, they are pruned once they are
+ * older than doneRetention or failedRetention days.
+ */
+public class RegistrationOutboxImpl implements RegistrationOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistrationOutboxImpl.class);
+
+    private static final Pattern RUNNING_PATTERN = Pattern.compile("(\\d+)\\.(.+)\\.task");
+
+    private static final String PENDING = "pending";
+
+    private static final String RUNNING = "running";
+
+    private static final String DONE = "done";
+
+    private static final String FAILED = "failed";
+
+    private static final String REGISTRATION_STATUS = "registration_status";
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scanner;
+
+    private ExecutorService workers;
+
+    private MaPSeqDAOBeanService maPSeqDAOBeanService;
+
+    private IRODSClient irodsClient;
+
+    private IRODSRegistrar irodsRegistrar;
+
+    private String outboxDirectory;
+
+    private String nodeId;
+
+    private Integer workerCount = 2;
+
+    // seconds
+    private Long pollInterval = 30L;
+
+    private Integer maxAttempts = 8;
+
+    // seconds
+    private Long initialRetryDelay = 60L;
+
+    private Long maxRetryDelay = 3600L;
+
+    // hours
+    private Long staleAfter = 6L;
+
+    // days
+    private Long doneRetention = 14L;
+
+    private Long failedRetention = 90L;
+
+    public RegistrationOutboxImpl() {
+        super();
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        if (StringUtils.isBlank(nodeId)) {
+            this.nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        for (String state : new String[] { PENDING, RUNNING, DONE, FAILED }) {
+            Files.createDirectories(getDirectory(state));
+        }
+        requeue(true);
+        logger.info("draining registration outbox {} as {} with {} workers", outboxDirectory, nodeId, workerCount);
+
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount));
+        this.scanner = Executors.newSingleThreadScheduledExecutor();
+        scanner.scheduleWithFixedDelay(() -> scan(), 0L, pollInterval, TimeUnit.SECONDS);
+        scanner.scheduleWithFixedDelay(() -> prune(), 0L, 1L, TimeUnit.HOURS);
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        // running tasks are put back by the next start
+        if (scanner != null) {
+            scanner.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    @Override
+    public void submit(Long workflowRunAttemptId) throws IOException {
+        logger.debug("ENTERING submit(Long)");
+        Properties task = new Properties();
+        task.setProperty("workflowRunAttemptId", workflowRunAttemptId.toString());
+        task.setProperty("submitted", Long.toString(System.currentTimeMillis()));
+        task.setProperty("attempts", "0");
+        task.setProperty("nextAttempt", "0");
+        // a resubmitted attempt starts over
+        write(task, getDirectory(PENDING).resolve(String.format("%d.task", workflowRunAttemptId)));
+        logger.info("queued registration of WorkflowRunAttempt {}", workflowRunAttemptId);
+        try {
+            setRegistrationStatus(maPSeqDAOBeanService.getWorkflowRunAttemptDAO().findById(workflowRunAttemptId), "QUEUED");
+        } catch (MaPSeqDAOException e) {
+            logger.warn("failed to look up WorkflowRunAttempt {}", workflowRunAttemptId, e);
+        }
+        if (scanner != null) {
+            try {
+                scanner.execute(() -> scan());
+            } catch (RejectedExecutionException e) {
+                logger.warn("outbox is stopped, WorkflowRunAttempt {} is registered after the next start", workflowRunAttemptId);
+            }
+        }
+    }
+
+    protected void scan() {
+        requeue(false);
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getDirectory(PENDING), "*.task")) {
+            for (Path path : stream) {
+                Properties task = read(path);
+                if (task == null || Long.parseLong(task.getProperty("nextAttempt", "0")) > now) {
+                    continue;
+                }
+                Long workflowRunAttemptId = Long.valueOf(task.getProperty("workflowRunAttemptId"));
+                if (!inFlight.add(workflowRunAttemptId)) {
+                    continue;
+                }
+                Path running = getDirectory(RUNNING).resolve(String.format("%d.%s.task", workflowRunAttemptId, nodeId));
+                try {
+                    Files.move(path, running, StandardCopyOption.ATOMIC_MOVE);
+                    // staleness counts from the claim
+                    Files.setLastModifiedTime(running, FileTime.fromMillis(now));
+                } catch (NoSuchFileException e) {
+                    // claimed by another node
+                    inFlight.remove(workflowRunAttemptId);
+                    continue;
+                }
+                workers.submit(() -> {
+                    try {
+                        process(running, task);
+                    } finally {
+                        inFlight.remove(workflowRunAttemptId);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("failed to scan {}", outboxDirectory, e);
+        }
+    }
+
+    private void process(Path running, Properties task) {
+        Long workflowRunAttemptId = Long.valueOf(task.getProperty("workflowRunAttemptId"));
+        int attempts = Integer.parseInt(task.getProperty("attempts", "0")) + 1;
+        task.setProperty("attempts", Integer.toString(attempts));
+        task.setProperty("started", Long.toString(System.currentTimeMillis()));
+        logger.info("registering WorkflowRunAttempt {}, try {}", workflowRunAttemptId, attempts);
+
+        String error = null;
+        WorkflowRunAttempt attempt = null;
+        try {
+            attempt = maPSeqDAOBeanService.getWorkflowRunAttemptDAO().findById(workflowRunAttemptId);
+            if (attempt == null) {
+                error = "no such WorkflowRunAttempt";
+                attempts = maxAttempts;
+            } else {
+                RegisterToIRODSRunnable runnable = createRegistration(attempt);
+                runnable.run();
+                if (runnable.getException() != null) {
+                    error = runnable.getException().getMessage();
+                } else {
+                    task.setProperty("results", runnable.getResults().stream()
+                            .collect(Collectors.groupingBy(a -> a.getStatus(), Collectors.counting())).toString());
+                    String failed = runnable.getResults().stream().filter(a -> !a.isSuccessful())
+                            .map(a -> String.format("%s (%s)", a.getDataObject(), a.getMessage())).collect(Collectors.joining(", "));
+                    error = failed.isEmpty() ? null : String.format("failed to register %s", failed);
+                }
+            }
+        } catch (MaPSeqDAOException | RuntimeException e) {
+            logger.warn("failed to register WorkflowRunAttempt {}", workflowRunAttemptId, e);
+            error = String.valueOf(e.getMessage());
+        }
+
+        long now = System.currentTimeMillis();
+        task.setProperty("finished", Long.toString(now));
+        String target;
+        if (error == null) {
+            task.remove("lastError");
+            target = DONE;
+            logger.info("registered WorkflowRunAttempt {}: {}", workflowRunAttemptId, task.getProperty("results"));
+        } else if (attempts >= maxAttempts) {
+            task.setProperty("lastError", error);
+            target = FAILED;
+            logger.error("gave up registering WorkflowRunAttempt {} after {} tries: {}", workflowRunAttemptId, attempts, error);
+        } else {
+            long delay = Math.min(initialRetryDelay << Math.min(attempts - 1, 20), maxRetryDelay);
+            task.setProperty("lastError", error);
+            task.setProperty("nextAttempt", Long.toString(now + delay * 1000L));
+            target = PENDING;
+            logger.warn("registering WorkflowRunAttempt {} failed, retrying in {} s: {}", workflowRunAttemptId, delay, error);
+        }
+        setRegistrationStatus(attempt, PENDING.equals(target) ? "RETRYING" : target.toUpperCase());
+
+        try {
+            Path targetFile = getDirectory(target).resolve(String.format("%d.task", workflowRunAttemptId));
+            if (PENDING.equals(target) && Files.exists(targetFile)) {
+                // resubmitted while running, the new task wins
+                Files.deleteIfExists(running);
+                return;
+            }
+            write(task, targetFile);
+            Files.deleteIfExists(running);
+        } catch (IOException e) {
+            logger.error("failed to record registration of WorkflowRunAttempt {}", workflowRunAttemptId, e);
+        }
+    }
+
+    /*
+     * one try, its outcome is read from the results & exception once run() returned
+     */
+    protected RegisterToIRODSRunnable createRegistration(WorkflowRunAttempt attempt) {
+        RegisterToIRODSRunnable ret = new RegisterToIRODSRunnable(maPSeqDAOBeanService, attempt);
+        ret.setIrodsClient(irodsClient);
+        ret.setIrodsRegistrar(irodsRegistrar);
+        return ret;
+    }
+
+    private void setRegistrationStatus(WorkflowRunAttempt attempt, String status) {
+        if (attempt == null || attempt.getWorkflowRun() == null) {
+            return;
+        }
+        WorkflowRun workflowRun = attempt.getWorkflowRun();
+        try {
+            Attribute attribute = workflowRun.getAttributes().stream().filter(a -> REGISTRATION_STATUS.equals(a.getName())).findFirst()
+                    .orElse(null);
+            if (attribute != null) {
+                attribute.setValue(status);
+                maPSeqDAOBeanService.getAttributeDAO().save(attribute);
+            } else {
+                attribute = new Attribute(REGISTRATION_STATUS, status);
+                attribute.setId(maPSeqDAOBeanService.getAttributeDAO().save(attribute));
+                workflowRun.getAttributes().add(attribute);
+                maPSeqDAOBeanService.getWorkflowRunDAO().save(workflowRun);
+            }
+        } catch (MaPSeqDAOException | RuntimeException e) {
+            logger.warn("failed to set {} of WorkflowRun {} to {}", REGISTRATION_STATUS, workflowRun.getId(), status, e);
+        }
+    }
+
+    /*
+     * puts running tasks back to pending, on start those of this node, otherwise only the ones left stale
+     */
+    private void requeue(boolean starting) {
+        long staleBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(staleAfter);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getDirectory(RUNNING), "*.task")) {
+            for (Path path : stream) {
+                Matcher matcher = RUNNING_PATTERN.matcher(path.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                Long workflowRunAttemptId = Long.valueOf(matcher.group(1));
+                boolean own = nodeId.equals(matcher.group(2));
+                if (own && !starting) {
+                    continue;
+                }
+                if (!(own && starting) && Files.getLastModifiedTime(path).toMillis() > staleBefore) {
+                    continue;
+                }
+                Path pending = getDirectory(PENDING).resolve(String.format("%d.task", workflowRunAttemptId));
+                if (Files.exists(pending)) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                try {
+                    Files.move(path, pending, StandardCopyOption.ATOMIC_MOVE);
+                    logger.info("requeued registration of WorkflowRunAttempt {} left running by {}", workflowRunAttemptId,
+                            matcher.group(2));
+                } catch (NoSuchFileException e) {
+                    // another node got there first
+                }
+            }
+        } catch (IOException e) {
+            logger.error("failed to requeue running registrations in {}", outboxDirectory, e);
+        }
+    }
+
+    protected void prune() {
+        prune(DONE, doneRetention);
+        prune(FAILED, failedRetention);
+    }
+
+    private void prune(String state, Long retention) {
+        long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retention);
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getDirectory(state))) {
+            for (Path path : stream) {
+                try {
+                    if (Files.getLastModifiedTime(path).toMillis() < oldest && Files.deleteIfExists(path)) {
+                        ++count;
+                    }
+                } catch (NoSuchFileException e) {
+                    // pruned by another node
+                }
+            }
+        } catch (IOException e) {
+            logger.error("failed to prune {}", getDirectory(state), e);
+        }
+        if (count > 0) {
+            logger.info("pruned {} registration tasks from {}", count, getDirectory(state));
+        }
+    }
+
+    private void write(Properties task, Path path) throws IOException {
+        Path tmpFile = path.resolveSibling(String.format("%s.%s.tmp", path.getFileName(), UUID.randomUUID()));
+        try {
+            try (OutputStream os = Files.newOutputStream(tmpFile)) {
+                task.store(os, null);
+            }
+            Files.move(tmpFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private Properties read(Path path) {
+        Properties ret = new Properties();
+        try (InputStream is = Files.newInputStream(path)) {
+            ret.load(is);
+            Long.valueOf(ret.getProperty("workflowRunAttemptId"));
+            return ret;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("unreadable registration task: {}", path);
+            return null;
+        }
+    }
+
+    private Path getDirectory(String state) {
+        return new File(outboxDirectory, state).toPath();
+    }
+
+    public MaPSeqDAOBeanService getMaPSeqDAOBeanService() {
+        return maPSeqDAOBeanService;
+    }
+
+    public void setMaPSeqDAOBeanService(MaPSeqDAOBeanService maPSeqDAOBeanService) {
+        this.maPSeqDAOBeanService = maPSeqDAOBeanService;
+    }
+
+    public IRODSClient getIrodsClient() {
+        return irodsClient;
+    }
+
+    public void setIrodsClient(IRODSClient irodsClient) {
+        this.irodsClient = irodsClient;
+    }
+
+    public IRODSRegistrar getIrodsRegistrar() {
+        return irodsRegistrar;
+    }
+
+    public void setIrodsRegistrar(IRODSRegistrar irodsRegistrar) {
+        this.irodsRegistrar = irodsRegistrar;
+    }
+
+    public String getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    public void setOutboxDirectory(String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Integer getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(Integer workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public Long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(Long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(Integer maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Long getInitialRetryDelay() {
+        return initialRetryDelay;
+    }
+
+    public void setInitialRetryDelay(Long initialRetryDelay) {
+        this.initialRetryDelay = initialRetryDelay;
+    }
+
+    public Long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public void setMaxRetryDelay(Long maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public Long getStaleAfter() {
+        return staleAfter;
+    }
+
+    public void setStaleAfter(Long staleAfter) {
+        this.staleAfter = staleAfter;
+    }
+
+    public Long getDoneRetention() {
+        return doneRetention;
+    }
+
+    public void setDoneRetention(Long doneRetention) {
+        this.doneRetention = doneRetention;
+    }
+
+    public Long getFailedRetention() {
+        return failedRetention;
+    }
+
+    public void setFailedRetention(Long failedRetention) {
+        this.failedRetention = failedRetention;
+    }
+
+}
@@ -0,0 +1,118 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+
+public class RegistrationResult {
+
+    public enum Status {
+        PENDING, REGISTERED, SKIPPED, FAILED;
+    }
+
+    private File file;
+
+    private String dataObject;
+
+    private String resource;
+
+    private Status status = Status.PENDING;
+
+    private Integer attempts = 0;
+
+    // ms spent waiting for a registration slot of the resource
+    private Long waitTime = 0L;
+
+    // ms from submission to the last attempt, waits & backoff included
+    private Long elapsedTime = 0L;
+
+    private String message;
+
+    public RegistrationResult() {
+        super();
+    }
+
+    public RegistrationResult(File file, String dataObject, String resource) {
+        super();
+        this.file = file;
+        this.dataObject = dataObject;
+        this.resource = resource;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public String getDataObject() {
+        return dataObject;
+    }
+
+    public void setDataObject(String dataObject) {
+        this.dataObject = dataObject;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public void setResource(String resource) {
+        this.resource = resource;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /*
+     * registered or already there, anything else, a result left PENDING included, leaves the file unregistered
+     */
+    public boolean isSuccessful() {
+        return status == Status.REGISTERED || status == Status.SKIPPED;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Long getWaitTime() {
+        return waitTime;
+    }
+
+    public void setWaitTime(Long waitTime) {
+        this.waitTime = waitTime;
+    }
+
+    public Long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public void setElapsedTime(Long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "RegistrationResult [dataObject=%s, resource=%s, status=%s, attempts=%s, waitTime=%s, elapsedTime=%s, message=%s]",
+                dataObject, resource, status, attempts, waitTime, elapsedTime, message);
+    }
+
+}
@@ -0,0 +1,169 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+    // a file lock is held per jvm, attempts running side by side in this one also have to take turns
+    private static final ConcurrentMap<String, Object> ENTRY_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private File cacheDirectory;
+
+    public ResultCache() {
+        super();
+    }
+
+    public ResultCache(File cacheDirectory) {
+        super();
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public boolean isValid(Entry cacheEntry) {
+        String name = cacheEntry.getName();
+        String key = cacheEntry.getKey();
+        List<File> outputs = cacheEntry.getOutputs();
+
+        File entryFile = new File(cacheDirectory, String.format("%s.properties", name));
+        if (!entryFile.exists()) {
+            return false;
+        }
+
+        Properties entry = new Properties();
+        try (InputStream is = Files.newInputStream(entryFile.toPath())) {
+            entry.load(is);
+        } catch (IOException e) {
+            logger.warn("could not read cache entry: {}", entryFile.getAbsolutePath());
+            return false;
+        }
+
+        if (!key.equals(entry.getProperty("key"))) {
+            logger.info("{}: inputs changed", name);
+            return false;
+        }
+
+        for (int i = 0; i < outputs.size(); ++i) {
+            File output = outputs.get(i);
+            if (!output.exists() || output.length() == 0) {
+                logger.info("{}: output missing: {}", name, output.getAbsolutePath());
+                return false;
+            }
+            if (!output.getAbsolutePath().equals(entry.getProperty(String.format("output.%d.path", i)))
+                    || !Long.toString(output.length()).equals(entry.getProperty(String.format("output.%d.size", i)))
+                    || !Long.toString(output.lastModified()).equals(entry.getProperty(String.format("output.%d.lastModified", i)))) {
+                logger.info("{}: output modified since it was cached: {}", name, output.getAbsolutePath());
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public void record(Entry cacheEntry) throws IOException {
+        String name = cacheEntry.getName();
+        String key = cacheEntry.getKey();
+        List<File> outputs = cacheEntry.getOutputs();
+
+        for (File output : outputs) {
+            if (!output.exists() || output.length() == 0) {
+                logger.warn("{}: not caching, output missing or empty: {}", name, output.getAbsolutePath());
+                return;
+            }
+        }
+
+        if (!cacheDirectory.exists()) {
+            cacheDirectory.mkdirs();
+        }
+
+        // attempts of the same subject & list version share the cache directory, one of them writes an entry at a time
+        File lockFile = new File(cacheDirectory, String.format("%s.lock", name));
+        synchronized (ENTRY_LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), a -> new Object())) {
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+
+                Properties entry = new Properties();
+                entry.setProperty("key", key);
+                for (int i = 0; i < outputs.size(); ++i) {
+                    File output = outputs.get(i);
+                    entry.setProperty(String.format("output.%d.path", i), output.getAbsolutePath());
+                    entry.setProperty(String.format("output.%d.size", i), Long.toString(output.length()));
+                    entry.setProperty(String.format("output.%d.lastModified", i), Long.toString(output.lastModified()));
+                }
+
+                File entryFile = new File(cacheDirectory, String.format("%s.properties", name));
+                File tmpFile = File.createTempFile(String.format("%s.properties.", name), ".tmp", cacheDirectory);
+                try {
+                    try (OutputStream os = Files.newOutputStream(tmpFile.toPath())) {
+                        entry.store(os, name);
+                    }
+                    Files.move(tmpFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    tmpFile.delete();
+                }
+                logger.info("{}: cached {}", name, key);
+            }
+        }
+    }
+
+    public void invalidate(String name) {
+        File entryFile = new File(cacheDirectory, String.format("%s.properties", name));
+        if (entryFile.exists()) {
+            entryFile.delete();
+        }
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public static class Entry {
+
+        private final String name;
+
+        private final String key;
+
+        private final List<File> outputs;
+
+        public Entry(String name, String key, List<File> outputs) {
+            super();
+            this.name = name;
+            this.key = key;
+            this.outputs = outputs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<File> getOutputs() {
+            return outputs;
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+public class ResultCacheKeyBuilder {
+
+    // files above this size (bams, reference fasta) are fingerprinted by size, mtime, head & tail
+    private static final long FULL_CHECKSUM_THRESHOLD = 64L * 1024 * 1024;
+
+    private static final int SAMPLE_SIZE = 1024 * 1024;
+
+    private final MessageDigest digest;
+
+    public ResultCacheKeyBuilder() {
+        super();
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ResultCacheKeyBuilder value(String name, String value) {
+        update(name);
+        update(value != null ? value : "");
+        return this;
+    }
+
+    /*
+     * version of the bundle, or outside of osgi the jar, a module is loaded from. the module release pins the version of the
+     * tool it runs, so outputs made by an older module aren't reused
+     */
+    public ResultCacheKeyBuilder version(String name, Class<?> moduleClass) {
+        String version = null;
+        Bundle bundle = FrameworkUtil.getBundle(moduleClass);
+        if (bundle != null) {
+            version = bundle.getVersion().toString();
+        } else if (moduleClass.getPackage() != null) {
+            version = moduleClass.getPackage().getImplementationVersion();
+        }
+        update(name);
+        update(version != null ? version : moduleClass.getName());
+        return this;
+    }
+
+    public ResultCacheKeyBuilder file(String name, File file) throws IOException {
+        update(name);
+        update(file.getAbsolutePath());
+        update(Long.toString(file.length()));
+        update(Long.toString(file.lastModified()));
+        if (file.length() <= FULL_CHECKSUM_THRESHOLD) {
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream is = Files.newInputStream(file.toPath())) {
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        } else {
+            byte[] buffer = new byte[SAMPLE_SIZE];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.readFully(buffer);
+                digest.update(buffer);
+                raf.seek(file.length() - SAMPLE_SIZE);
+                raf.readFully(buffer);
+                digest.update(buffer);
+            }
+        }
+        return this;
+    }
+
+    /*
+     * companion files (a reference's .fai & .dict) may not exist where the executor runs, they're keyed as absent instead of
+     * failing the key
+     */
+    public ResultCacheKeyBuilder optionalFile(String name, File file) throws IOException {
+        if (file == null || !file.isFile() || !file.canRead()) {
+            update(name);
+            update(file != null ? file.getAbsolutePath() : "");
+            update("absent");
+            return this;
+        }
+        return file(name, file);
+    }
+
+    public String build() {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private void update(String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+}
@@ -0,0 +1,39 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class VersionAnnotationSet extends AnnotationSet {
+
+    private final File allIntervalsFile;
+
+    private final File exonsIntervalListFile;
+
+    private final File exonsBedFile;
+
+    public VersionAnnotationSet(String listVersion, File allIntervalsFile, File exonsIntervalListFile, File exonsBedFile) {
+        super(listVersion, Arrays.asList(allIntervalsFile, exonsIntervalListFile, exonsBedFile));
+        this.allIntervalsFile = allIntervalsFile;
+        this.exonsIntervalListFile = exonsIntervalListFile;
+        this.exonsBedFile = exonsBedFile;
+    }
+
+    public File getAllIntervalsFile() {
+        return allIntervalsFile;
+    }
+
+    public File getExonsIntervalListFile() {
+        return exonsIntervalListFile;
+    }
+
+    public File getExonsBedFile() {
+        return exonsBedFile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VersionAnnotationSet [listVersion=%s, allIntervalsFile=%s, exonsIntervalListFile=%s, exonsBedFile=%s]",
+                getListVersion(), allIntervalsFile, exonsIntervalListFile, exonsBedFile);
+    }
+
+}
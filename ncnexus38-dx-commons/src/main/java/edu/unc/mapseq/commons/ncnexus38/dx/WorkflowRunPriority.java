@@ -0,0 +1,11 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+public enum WorkflowRunPriority {
+
+    STAT,
+
+    ROUTINE,
+
+    BACKFILL;
+
+}
@@ -0,0 +1,81 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CondorDAGTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testFind() throws Exception {
+        File submitDirectory = tmpFolder.newFolder("condor-dag");
+        assertNull(CondorDAG.find(null));
+        assertNull(CondorDAG.find(new File(submitDirectory, "missing")));
+        assertNull(CondorDAG.find(submitDirectory));
+
+        File dagFile = new File(submitDirectory, "NCNEXUS38DX.dag");
+        Files.write(dagFile.toPath(), Arrays.asList("JOB a a.sub"), StandardCharsets.UTF_8);
+        // DAGMan's own files next to it aren't dags
+        Files.write(new File(submitDirectory, "NCNEXUS38DX.dag.dagman.out").toPath(), new byte[0]);
+        Files.write(new File(submitDirectory, "NCNEXUS38DX.dag.rescue001").toPath(), new byte[0]);
+        assertEquals(dagFile, CondorDAG.find(submitDirectory).getDagFile());
+    }
+
+    @Test
+    public void testGetState() throws Exception {
+        File submitDirectory = tmpFolder.newFolder("condor-dag");
+        File dagFile = new File(submitDirectory, "NCNEXUS38DX.dag");
+        Files.write(dagFile.toPath(), Arrays.asList("JOB a a.sub"), StandardCharsets.UTF_8);
+        CondorDAG dag = new CondorDAG(dagFile);
+
+        // nothing reached condor
+        assertEquals(CondorDAG.State.NOT_SUBMITTED, dag.getState(6, TimeUnit.HOURS));
+
+        // DAGMan holds the lock & keeps writing
+        File dagmanOutFile = new File(submitDirectory, "NCNEXUS38DX.dag.dagman.out");
+        File lockFile = new File(submitDirectory, "NCNEXUS38DX.dag.lock");
+        Files.write(dagmanOutFile.toPath(), Arrays.asList("10/17/26 08:00:00 Running DAG"), StandardCharsets.UTF_8);
+        Files.write(lockFile.toPath(), Arrays.asList("1234"), StandardCharsets.UTF_8);
+        assertEquals(CondorDAG.State.RUNNING, dag.getState(6, TimeUnit.HOURS));
+        assertEquals(dagmanOutFile.lastModified(), dag.getLastActivity());
+
+        // a lock left by a DAGMan that died without exiting
+        assertTrue(dagmanOutFile.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(7)));
+        assertEquals(CondorDAG.State.INCOMPLETE, dag.getState(6, TimeUnit.HOURS));
+        assertEquals(CondorDAG.State.RUNNING, dag.getState(8, TimeUnit.HOURS));
+
+        // gone, the last exit status decides
+        lockFile.delete();
+        Files.write(dagmanOutFile.toPath(),
+                Arrays.asList("10/17/26 08:00:00 Running DAG",
+                        "10/17/26 09:00:00 **** condor_scheduniv_exec.12.0 (condor_DAGMAN) pid 1234 EXITING WITH STATUS 1"),
+                StandardCharsets.UTF_8);
+        assertEquals(CondorDAG.State.INCOMPLETE, dag.getState(6, TimeUnit.HOURS));
+
+        // the rescue dag ran after it
+        Files.write(dagmanOutFile.toPath(),
+                Arrays.asList("10/17/26 09:30:00 Running rescue DAG 1",
+                        "10/17/26 10:00:00 **** condor_scheduniv_exec.13.0 (condor_DAGMAN) pid 1240 EXITING WITH STATUS 0"),
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(CondorDAG.State.SUCCEEDED, dag.getState(6, TimeUnit.HOURS));
+
+        // DAGMan went away without a word
+        Files.write(dagmanOutFile.toPath(), Arrays.asList("10/17/26 11:00:00 Running DAG"), StandardCharsets.UTF_8);
+        assertEquals(CondorDAG.State.INCOMPLETE, dag.getState(6, TimeUnit.HOURS));
+    }
+
+}
@@ -0,0 +1,50 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DepthStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testQuery() throws IOException {
+        File tmpDir = tmpFolder.newFolder("depth-store");
+        File depthFile = new File(tmpDir, "test.depth.txt");
+        File storeFile = new File(tmpDir, "test.depth.bin");
+
+        List<String> lines = new ArrayList<String>();
+        for (String contig : Arrays.asList("chr2", "chr1")) {
+            for (int position = 1; position <= 100000; position += 2) {
+                lines.add(String.format("%s\t%d\t%d", contig, position, position % 97));
+            }
+        }
+        Files.write(depthFile.toPath(), lines, StandardCharsets.UTF_8);
+
+        DepthStoreWriter.convert(depthFile, storeFile);
+        assertTrue(storeFile.length() < depthFile.length());
+
+        List<String> found = new ArrayList<String>();
+        try (DepthStoreReader reader = new DepthStoreReader(storeFile)) {
+            assertEquals(Arrays.asList("chr2", "chr1"), reader.getContigs());
+            reader.query("chr1", 65530, 65540, (contig, position, depths) -> found.add(String.format("%s:%d=%d", contig, position, depths[0])));
+            reader.query("chr3", 1, 100, (contig, position, depths) -> found.add(contig));
+        }
+
+        assertEquals(Arrays.asList("chr1:65531=56", "chr1:65533=58", "chr1:65535=60", "chr1:65537=62", "chr1:65539=64"), found);
+    }
+
+}
@@ -0,0 +1,152 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+public class ExtractBAMRegionsCallableTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testExtract() throws Exception {
+        File tmpDir = tmpFolder.newFolder("extract-bam-regions");
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1", 10000),
+                new SAMSequenceRecord("chr2", 10000), new SAMSequenceRecord("chrUn_KI270302v1", 2274))));
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        // written unsorted, the writer sorts them
+        File bam = new File(tmpDir, "NCX_00004.merged.rg.deduped.bam");
+        try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, false, bam)) {
+            writer.addAlignment(createRecord(header, "chr2", "chr2_55", 55, 5));
+            writer.addAlignment(createRecord(header, "chr1", "before", 100, 50));
+            writer.addAlignment(createRecord(header, "chr1", "end_on_edge", 101, 50));
+            writer.addAlignment(createRecord(header, "chr1", "start_on_edge", 200, 10));
+            writer.addAlignment(createRecord(header, "chr1", "after", 201, 10));
+            writer.addAlignment(createRecord(header, "chr1", "spanning", 180, 150));
+            writer.addAlignment(createRecord(header, "chr1", "second_panel", 390, 20));
+            writer.addAlignment(createRecord(header, "chrUn_KI270302v1", "unplaced_contig", 160, 10));
+
+            SAMRecord mate = createRecord(header, "chr1", "pair", 160, 10);
+            mate.setReadPairedFlag(true);
+            mate.setFirstOfPairFlag(true);
+            mate.setMateUnmappedFlag(true);
+            mate.setMateReferenceName("chr1");
+            mate.setMateAlignmentStart(160);
+            writer.addAlignment(mate);
+            // unmapped, placed at its mate
+            SAMRecord placed = createRecord(header, "chr1", "pair", 160, 10);
+            placed.setReadPairedFlag(true);
+            placed.setSecondOfPairFlag(true);
+            placed.setReadUnmappedFlag(true);
+            placed.setCigarString("*");
+            placed.setMappingQuality(0);
+            placed.setMateReferenceName("chr1");
+            placed.setMateAlignmentStart(160);
+            writer.addAlignment(placed);
+
+            SAMRecord unplaced = createRecord(header, "chr1", "unplaced", 1, 10);
+            unplaced.setReadUnmappedFlag(true);
+            unplaced.setReferenceName(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME);
+            unplaced.setAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+            unplaced.setCigarString("*");
+            unplaced.setMappingQuality(0);
+            writer.addAlignment(unplaced);
+        }
+        File bai = new File(tmpDir, "NCX_00004.merged.rg.deduped.bai");
+
+        File dx1IntervalList = new File(tmpDir, "dx1.interval_list");
+        Files.write(dx1IntervalList.toPath(), Arrays.asList("@HD\tVN:1.5", "chr1\t150\t200\t+\tA", "chr3\t1\t100\t+\tnot_in_bam"),
+                StandardCharsets.UTF_8);
+        File dx2IntervalList = new File(tmpDir, "dx2.interval_list");
+        Files.write(dx2IntervalList.toPath(), Arrays.asList("@HD\tVN:1.5", "chr2\t50\t60\t+\tC", "chr1\t300\t400\t+\tB"),
+                StandardCharsets.UTF_8);
+
+        File dx1Output = new File(tmpDir, "NCX_00004.filtered_by_dxid_1_v48.sorted.bam");
+        File dx2Output = new File(tmpDir, "NCX_00004.filtered_by_dxid_2_v48.sorted.bam");
+        List<File> outputs = new ExtractBAMRegionsCallable(bam, bai, Arrays.asList(new IntervalFilterOutput("1", dx1IntervalList, dx1Output),
+                new IntervalFilterOutput("2", dx2IntervalList, dx2Output))).call();
+        assertEquals(Arrays.asList(dx1Output, dx2Output), outputs);
+
+        assertEquals(Arrays.asList("end_on_edge", "pair", "pair", "spanning", "start_on_edge"), readNames(dx1Output));
+        assertEquals(Arrays.asList("spanning", "second_panel", "chr2_55"), readNames(dx2Output));
+
+        for (File output : outputs) {
+            File outputIndex = new File(tmpDir, output.getName().replaceAll("\\.bam$", ".bai"));
+            assertTrue(outputIndex.exists());
+            assertTrue(new File(tmpDir, output.getName().replaceAll("\\.bam$", ".zip")).exists());
+            try (SamReader reader = SamReaderFactory.makeDefault().open(SamInputResource.of(output).index(outputIndex))) {
+                assertTrue(reader.hasIndex());
+            }
+        }
+
+        // the index is usable for a region query
+        List<String> found = new ArrayList<String>();
+        try (SamReader reader = SamReaderFactory.makeDefault()
+                .open(SamInputResource.of(dx2Output).index(new File(tmpDir, "NCX_00004.filtered_by_dxid_2_v48.sorted.bai")));
+                SAMRecordIterator iter = reader.queryOverlapping("chr2", 1, 10000)) {
+            iter.forEachRemaining(a -> found.add(a.getReadName()));
+        }
+        assertEquals(Arrays.asList("chr2_55"), found);
+    }
+
+    private static List<String> readNames(File bam) throws IOException {
+        List<String> ret = new ArrayList<String>();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+            assertEquals(SAMFileHeader.SortOrder.coordinate, reader.getFileHeader().getSortOrder());
+            int lastReferenceIndex = -1;
+            int lastStart = 0;
+            for (SAMRecord record : reader) {
+                // coordinate order
+                assertTrue(record.getReferenceIndex() > lastReferenceIndex
+                        || (record.getReferenceIndex() == lastReferenceIndex && record.getAlignmentStart() >= lastStart));
+                lastReferenceIndex = record.getReferenceIndex();
+                lastStart = record.getAlignmentStart();
+                ret.add(record.getReadName());
+            }
+        }
+        return ret;
+    }
+
+    private static SAMRecord createRecord(SAMFileHeader header, String contig, String name, int start, int length) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(name);
+        record.setReferenceName(contig);
+        record.setAlignmentStart(start);
+        record.setCigarString(String.format("%dM", length));
+        byte[] bases = new byte[length];
+        byte[] qualities = new byte[length];
+        Arrays.fill(bases, (byte) 'A');
+        Arrays.fill(qualities, (byte) 30);
+        record.setReadBases(bases);
+        record.setBaseQualities(qualities);
+        record.setMappingQuality(60);
+        return record;
+    }
+
+}
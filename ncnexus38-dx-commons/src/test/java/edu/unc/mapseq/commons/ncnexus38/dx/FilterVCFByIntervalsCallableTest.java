@@ -0,0 +1,145 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import htsjdk.tribble.readers.TabixReader;
+import htsjdk.tribble.util.TabixUtils;
+
+public class FilterVCFByIntervalsCallableTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static final String HEADER = "##fileformat=VCFv4.2\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+
+    @Test
+    public void testLineScanner() throws Exception {
+        File tmpDir = tmpFolder.newFolder("filter-vcf");
+
+        // longer than the scanner's buffer, it has to grow & carry the partial line over
+        StringBuilder info = new StringBuilder("DP=10;ANN=");
+        while (info.length() < 3 * 1024 * 1024) {
+            info.append("A|missense_variant|MODERATE|");
+        }
+        String longLine = String.format("chr1\t1500\t.\tA\tG\t50\tPASS\t%s", info);
+
+        // crlf line ends & no newline after the last line
+        File vcf = new File(tmpDir, "NCX_00004.vcf");
+        write(vcf, HEADER + "chr1\t100\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t145\t.\tACGTAC\tA\t50\tPASS\tDP=10\n"
+                + "chr1\t200\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t201\t.\tA\tG\t50\tPASS\tDP=10\n" + longLine + "\n"
+                + "chr1\tnot_a_position\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr2\t15\t.\tA\tG\t50\tPASS\tDP=10\r\n"
+                + "chr3\t5\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr2\t20\t.\tA\tG\t50\tPASS\tDP=10");
+
+        List<IntervalFilterOutput> outputs = createOutputs(tmpDir);
+        new FilterVCFByIntervalsCallable(vcf, outputs).call();
+
+        assertEquals(HEADER + "chr1\t145\t.\tACGTAC\tA\t50\tPASS\tDP=10\n" + "chr1\t200\t.\tA\tG\t50\tPASS\tDP=10\n"
+                + "chr2\t15\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr2\t20\t.\tA\tG\t50\tPASS\tDP=10\n", read(outputs.get(0).getOutput()));
+        assertEquals(HEADER + longLine + "\n", read(outputs.get(1).getOutput()));
+        assertFalse(FilterVCFByIntervalsCallable.getBGZipFile(outputs.get(0).getOutput()).exists());
+    }
+
+    @Test
+    public void testUnsorted() throws Exception {
+        File tmpDir = tmpFolder.newFolder("filter-vcf");
+        File vcf = new File(tmpDir, "NCX_00004.vcf");
+        write(vcf, HEADER + "chr1\t200\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t100\t.\tA\tG\t50\tPASS\tDP=10\n"
+                + "chr2\t15\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t1200\t.\tA\tG\t50\tPASS\tDP=10\n"
+                + "chr1\t160\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t150\t.\tA\tG\t50\tPASS\tDP=10\n");
+
+        // positions going backwards fall back to a search, records are kept in input order
+        List<IntervalFilterOutput> outputs = createOutputs(tmpDir);
+        new FilterVCFByIntervalsCallable(vcf, outputs).call();
+        assertEquals(HEADER + "chr1\t200\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr2\t15\t.\tA\tG\t50\tPASS\tDP=10\n"
+                + "chr1\t160\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t150\t.\tA\tG\t50\tPASS\tDP=10\n", read(outputs.get(0).getOutput()));
+        assertEquals(HEADER + "chr1\t1200\t.\tA\tG\t50\tPASS\tDP=10\n", read(outputs.get(1).getOutput()));
+
+        // tabix can't index it
+        FilterVCFByIntervalsCallable callable = new FilterVCFByIntervalsCallable(vcf, createOutputs(tmpDir));
+        callable.setBgzip(Boolean.TRUE);
+        try {
+            callable.call();
+            assertTrue(false);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not coordinate sorted"));
+        }
+    }
+
+    @Test
+    public void testBGZip() throws Exception {
+        File tmpDir = tmpFolder.newFolder("filter-vcf");
+        File vcf = new File(tmpDir, "NCX_00004.vcf");
+        write(vcf, HEADER + "chr1\t100\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t145\t.\tACGTAC\tA\t50\tPASS\tDP=10\n"
+                + "chr1\t180\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr1\t1500\t.\tA\tG\t50\tPASS\tDP=10\n"
+                + "chr2\t15\t.\tA\tG\t50\tPASS\tDP=10\n" + "chr2\t20\t.\tA\tG\t50\tPASS\tDP=10\n");
+
+        List<IntervalFilterOutput> outputs = createOutputs(tmpDir);
+        FilterVCFByIntervalsCallable callable = new FilterVCFByIntervalsCallable(vcf, outputs);
+        callable.setBgzip(Boolean.TRUE);
+        callable.call();
+
+        for (IntervalFilterOutput output : outputs) {
+            File bgzipFile = FilterVCFByIntervalsCallable.getBGZipFile(output.getOutput());
+            assertTrue(new File(bgzipFile.getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION).exists());
+            // same content as the plain output
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(bgzipFile.toPath()))) {
+                assertEquals(read(output.getOutput()), IOUtils.toString(in, StandardCharsets.UTF_8));
+            }
+        }
+
+        TabixReader reader = new TabixReader(FilterVCFByIntervalsCallable.getBGZipFile(outputs.get(0).getOutput()).getAbsolutePath());
+        try {
+            assertEquals(Arrays.asList("chr1\t145\t.\tACGTAC\tA\t50\tPASS\tDP=10", "chr1\t180\t.\tA\tG\t50\tPASS\tDP=10"),
+                    query(reader, "chr1", 140, 210));
+            assertEquals(Arrays.asList("chr2\t20\t.\tA\tG\t50\tPASS\tDP=10"), query(reader, "chr2", 18, 100));
+            assertEquals(Arrays.asList(), query(reader, "chr1", 1000, 2000));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> query(TabixReader reader, String contig, int start, int end) throws IOException {
+        List<String> ret = new ArrayList<String>();
+        TabixReader.Iterator iter = reader.query(contig, start, end);
+        String line;
+        while (iter != null && (line = iter.next()) != null) {
+            ret.add(line);
+        }
+        return ret;
+    }
+
+    private static List<IntervalFilterOutput> createOutputs(File tmpDir) throws IOException {
+        File dx1IntervalList = new File(tmpDir, "dx1.interval_list");
+        write(dx1IntervalList, "@HD\tVN:1.5\nchr1\t150\t200\t+\tA\nchr2\t10\t20\t+\tB\n");
+        File dx2IntervalList = new File(tmpDir, "dx2.interval_list");
+        write(dx2IntervalList, "@HD\tVN:1.5\nchr1\t1000\t2000\t+\tC\n");
+        return Arrays.asList(new IntervalFilterOutput("1", dx1IntervalList, new File(tmpDir, "NCX_00004.filtered_by_dxid_1_v48.vcf")),
+                new IntervalFilterOutput("2", dx2IntervalList, new File(tmpDir, "NCX_00004.filtered_by_dxid_2_v48.vcf")));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,57 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IMetaBatchTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testOneSession() throws IOException, InterruptedException {
+        // a fake $IRODS_HOME whose imeta records each invocation & what it was fed
+        File irodsHome = tmpFolder.newFolder("irods-home");
+        File imeta = new File(irodsHome, "imeta");
+        Files.write(imeta.toPath(), Arrays.asList("#!/bin/bash", "echo $# >> \"$(dirname \"$0\")/invocations\"",
+                "cat >> \"$(dirname \"$0\")/received\""), StandardCharsets.UTF_8);
+        imeta.setExecutable(true);
+        File workDir = tmpFolder.newFolder("imeta-batch");
+
+        IMetaBatch imetaBatch = new IMetaBatch();
+        String collection = "/MedGenZone/prod/sequencing/ncnexus38/subjectMerge/NCX_00004/48";
+        imetaBatch.addToCollection(collection, "Project", "NCNEXUS38", null);
+        imetaBatch.addToCollection(collection, "ParticipantId", "NCX_00004", "NCNEXUS38");
+        for (int i = 0; i < 10; ++i) {
+            imetaBatch.addToDataObject(String.format("%s/file%d.vcf", collection, i), "DxID", Integer.toString(i), "NCNEXUS38DX");
+        }
+        imetaBatch.addToDataObject(collection + "/file0.vcf", "MaPSeqMimeType", "text plain", "NCNEXUS38DX");
+        assertEquals(13, imetaBatch.size());
+
+        ProcessBuilder processBuilder = new ProcessBuilder("/bin/bash", "-c", imetaBatch.toCommand(workDir)).directory(workDir);
+        processBuilder.environment().put("IRODS_HOME", irodsHome.getAbsolutePath());
+        assertEquals(0, processBuilder.start().waitFor());
+
+        assertEquals(Arrays.asList("0"), Files.readAllLines(new File(irodsHome, "invocations").toPath(), StandardCharsets.UTF_8));
+        List<String> expected = new ArrayList<String>(imetaBatch.getCommands());
+        expected.add("quit");
+        List<String> received = Files.readAllLines(new File(irodsHome, "received").toPath(), StandardCharsets.UTF_8);
+        assertEquals(expected, received);
+        assertEquals(String.format("add -C %s Project NCNEXUS38", collection), received.get(0));
+        assertEquals(String.format("add -d %s/file0.vcf MaPSeqMimeType \"text plain\" NCNEXUS38DX", collection), received.get(12));
+        assertTrue(workDir.list().length == 0);
+    }
+
+}
@@ -0,0 +1,72 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IRODSRegistrarImplTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testUnexpectedFailure() throws Exception {
+        File subjectMergeDirectory = tmpFolder.newFolder("subjectMerge");
+        String collection = "/MedGenZone/prod/sequencing/ncnexus38/subjectMerge/NCX_00004/48";
+        Map<File, String> dataObjects = new LinkedHashMap<File, String>();
+        for (String name : Arrays.asList("NCX_00004.merged.rg.deduped.hs.metrics", "NCX_00004.bash.vcf", "NCX_00004.linkage.vcf")) {
+            File file = new File(subjectMergeDirectory, name);
+            Files.write(file.toPath(), Arrays.asList(name), StandardCharsets.UTF_8);
+            dataObjects.put(file, String.format("%s/%s", collection, name));
+        }
+
+        IRODSClient client = new LocalIRODSClient(tmpFolder.newFolder("zone")) {
+
+            @Override
+            public void register(File file, String dataObject, String resource) throws IRODSException {
+                if (file.getName().contains("bash")) {
+                    throw new IllegalStateException("icommand exited without output");
+                }
+                if (file.getName().contains("linkage")) {
+                    throw new LinkageError("jargon went missing");
+                }
+                super.register(file, dataObject, resource);
+            }
+
+        };
+        client.createCollection(collection);
+
+        IRODSRegistrarImpl registrar = new IRODSRegistrarImpl();
+        registrar.setMaxAttempts(2);
+        registrar.setInitialBackoff(1L);
+        List<RegistrationResult> results = registrar.register(client, dataObjects);
+        registrar.stop();
+
+        assertEquals(RegistrationResult.Status.REGISTERED, results.get(0).getStatus());
+        assertTrue(results.get(0).isSuccessful());
+
+        // runtime exceptions are retried like any other failure
+        assertEquals(RegistrationResult.Status.FAILED, results.get(1).getStatus());
+        assertEquals(Integer.valueOf(2), results.get(1).getAttempts());
+        assertTrue(results.get(1).getMessage().contains("icommand exited without output"));
+
+        // whatever escapes the task still fails its file rather than leaving it pending
+        assertEquals(RegistrationResult.Status.FAILED, results.get(2).getStatus());
+        assertTrue(results.get(2).getMessage().contains("jargon went missing"));
+        assertFalse(results.get(2).isSuccessful());
+        assertFalse(client.exists(dataObjects.get(results.get(2).getFile())));
+    }
+
+}
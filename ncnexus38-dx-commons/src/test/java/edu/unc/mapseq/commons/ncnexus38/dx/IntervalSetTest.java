@@ -0,0 +1,71 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntervalSetTest {
+
+    @Test
+    public void testOverlaps() {
+        Random random = new Random(48L);
+        Map<String, List<int[]>> intervals = new LinkedHashMap<String, List<int[]>>();
+        for (String contig : Arrays.asList("chr1", "chr2", "chrUn_KI270302v1")) {
+            List<int[]> contigIntervals = new ArrayList<int[]>();
+            for (int i = 0; i < 200; ++i) {
+                int start = 1 + random.nextInt(100000);
+                contigIntervals.add(new int[] { start, start + random.nextInt(500) });
+            }
+            intervals.put(contig, contigIntervals);
+        }
+        IntervalSet intervalSet = new IntervalSet(intervals);
+
+        // merged & sorted
+        for (int contigIndex = 0; contigIndex < intervalSet.getContigCount(); ++contigIndex) {
+            for (int i = 1; i < intervalSet.size(contigIndex); ++i) {
+                assertTrue(intervalSet.getStart(contigIndex, i) > intervalSet.getEnd(contigIndex, i - 1) + 1);
+            }
+        }
+
+        for (int i = 0; i < 100000; ++i) {
+            String contig = Arrays.asList("chr1", "chr2", "chrUn_KI270302v1").get(random.nextInt(3));
+            int start = 1 + random.nextInt(101000);
+            int end = start + random.nextInt(150);
+            boolean expected = false;
+            for (int[] interval : intervals.get(contig)) {
+                if (interval[0] <= end && interval[1] >= start) {
+                    expected = true;
+                    break;
+                }
+            }
+            assertEquals(String.format("%s:%d-%d", contig, start, end), expected,
+                    intervalSet.overlaps(intervalSet.getContigIndex(contig), start, end));
+        }
+
+        // edges are inclusive
+        int start = intervalSet.getStart(0, 0);
+        int end = intervalSet.getEnd(0, 0);
+        assertTrue(intervalSet.overlaps(0, start - 10, start));
+        assertTrue(intervalSet.overlaps(0, end, end + 10));
+        assertFalse(intervalSet.overlaps(0, end + 1, Math.min(end + 1, intervalSet.getStart(0, 1) - 1)));
+
+        // contigs missing from the set never overlap
+        assertEquals(-1, intervalSet.getContigIndex("chr3"));
+        assertFalse(intervalSet.overlaps(intervalSet.getContigIndex("chr3"), 1, Integer.MAX_VALUE));
+
+        byte[] line = "xxchrUn_KI270302v1\t160".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(intervalSet.getContigIndex("chrUn_KI270302v1"), intervalSet.getContigIndex(line, 2, "chrUn_KI270302v1".length()));
+        assertEquals(-1, intervalSet.getContigIndex(line, 2, 4));
+    }
+
+}
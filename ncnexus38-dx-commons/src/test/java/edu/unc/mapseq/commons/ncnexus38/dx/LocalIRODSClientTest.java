@@ -0,0 +1,62 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalIRODSClientTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testRegister() throws Exception {
+        File zone = tmpFolder.newFolder("local-irods");
+        File file = new File(tmpFolder.newFolder("subject-merge"), "NCX_00004.merged.rg.deduped.hs.metrics");
+        Files.write(file.toPath(), Arrays.asList("metrics"), StandardCharsets.UTF_8);
+
+        IRODSClient client = new LocalIRODSClient(zone);
+        String collection = "/MedGenZone/prod/sequencing/ncnexus38/subjectMerge/NCX_00004/48";
+        String dataObject = String.format("%s/%s", collection, file.getName());
+        assertFalse(client.exists(dataObject));
+
+        client.createCollection(collection);
+        client.register(file, dataObject);
+        // registering again replaces, an AVU added twice is kept once
+        client.register(file, dataObject);
+        client.addAVUs(Arrays.asList(AVU.forCollection(collection, "ParticipantId", "NCX_00004", "NCNEXUS38"),
+                AVU.forDataObject(dataObject, "DxVersion", "48", "NCNEXUS38DX"), AVU.forDataObject(dataObject, "DxVersion", "48", "NCNEXUS38DX"),
+                AVU.forDataObject(dataObject, "MaPSeqMimeType", "TEXT_PLAIN", "NCNEXUS38DX")));
+
+        assertTrue(client.exists(dataObject));
+        assertEquals(1, ((LocalIRODSClient) client).getAVUs(collection).size());
+        assertEquals(2, ((LocalIRODSClient) client).getAVUs(dataObject).size());
+        assertEquals("48", ((LocalIRODSClient) client).getAVUs(dataObject).get(0).getValue());
+
+        CollectionState state = client.getCollectionState(collection);
+        assertEquals(1, state.getAvus().size());
+        assertEquals(1, state.getDataObjects().size());
+        assertEquals(file.getAbsolutePath(), state.getDataObject(file.getName()).getPhysicalPath());
+        assertEquals(Long.valueOf(file.length()), state.getDataObject(file.getName()).getSize());
+        assertTrue(state.getDataObject(file.getName()).getAvus().contains(AVU.forDataObject(dataObject, "DxVersion", "48", "NCNEXUS38DX")));
+        assertNull(client.getCollectionState(String.format("%s/49", collection)));
+
+        try {
+            client.register(new File(file.getParentFile(), "missing.vcf"), String.format("%s/missing.vcf", collection));
+            assertTrue(false);
+        } catch (IRODSException e) {
+            assertFalse(client.exists(String.format("%s/missing.vcf", collection)));
+        }
+    }
+
+}
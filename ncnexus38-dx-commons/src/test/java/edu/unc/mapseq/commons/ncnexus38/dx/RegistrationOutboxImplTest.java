@@ -0,0 +1,437 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.unc.mapseq.dao.AttributeDAO;
+import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
+import edu.unc.mapseq.dao.WorkflowRunAttemptDAO;
+import edu.unc.mapseq.dao.WorkflowRunDAO;
+import edu.unc.mapseq.dao.model.Attribute;
+import edu.unc.mapseq.dao.model.WorkflowRun;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+
+public class RegistrationOutboxImplTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final Map<Long, WorkflowRunAttempt> attempts = new ConcurrentHashMap<Long, WorkflowRunAttempt>();
+
+    private final Map<Long, Integer> registrations = new ConcurrentHashMap<Long, Integer>();
+
+    private final Set<Long> failing = ConcurrentHashMap.newKeySet();
+
+    private final Map<Long, CountDownLatch> blocked = new ConcurrentHashMap<Long, CountDownLatch>();
+
+    private File subjectMergeDirectory;
+
+    private LocalIRODSClient irodsClient;
+
+    private MaPSeqDAOBeanService maPSeqDAOBeanService;
+
+    @Test
+    public void testProcess() throws Exception {
+        File outboxDirectory = setUp();
+        addAttempt(1L);
+        addAttempt(2L);
+        failing.add(2L);
+        // 3 is gone from the database
+
+        RegistrationOutboxImpl outbox = createOutbox(outboxDirectory, "node-a");
+        outbox.setMaxAttempts(2);
+        outbox.setInitialRetryDelay(3600L);
+        outbox.start();
+        outbox.submit(1L);
+        outbox.submit(2L);
+        outbox.submit(3L);
+        waitFor(() -> exists(outboxDirectory, "done/1.task") && exists(outboxDirectory, "failed/3.task")
+                && "1".equals(readTask(outboxDirectory, "pending/2.task").getProperty("attempts")));
+
+        // registered & done with
+        assertTrue(irodsClient.exists(getDataObject(1L)));
+        assertEquals("{REGISTERED=1}", readTask(outboxDirectory, "done/1.task").getProperty("results"));
+        assertEquals("DONE", getRegistrationStatus(1L));
+
+        // waits for its next try
+        Properties task = readTask(outboxDirectory, "pending/2.task");
+        assertTrue(task.getProperty("lastError").contains("resource is down"));
+        assertTrue(Long.parseLong(task.getProperty("nextAttempt")) > System.currentTimeMillis());
+        assertEquals("RETRYING", getRegistrationStatus(2L));
+        assertFalse(irodsClient.exists(getDataObject(2L)));
+
+        // nothing to retry there
+        assertEquals("no such WorkflowRunAttempt", readTask(outboxDirectory, "failed/3.task").getProperty("lastError"));
+
+        // not before its delay passed
+        outbox.scan();
+        assertEquals(Integer.valueOf(1), registrations.get(2L));
+        task.setProperty("nextAttempt", "0");
+        writeTask(outboxDirectory, "pending/2.task", task);
+        scanUntil(outbox, () -> exists(outboxDirectory, "failed/2.task"));
+        assertEquals("2", readTask(outboxDirectory, "failed/2.task").getProperty("attempts"));
+        assertEquals("FAILED", getRegistrationStatus(2L));
+        assertEquals(Integer.valueOf(2), registrations.get(2L));
+
+        outbox.stop();
+        assertEquals(0, list(outboxDirectory, "pending").length);
+        assertEquals(0, list(outboxDirectory, "running").length);
+    }
+
+    @Test
+    public void testClaim() throws Exception {
+        File outboxDirectory = setUp();
+        RegistrationOutboxImpl a = createOutbox(outboxDirectory, "node-a");
+        RegistrationOutboxImpl b = createOutbox(outboxDirectory, "node-b");
+        for (long workflowRunAttemptId = 1; workflowRunAttemptId <= 40; ++workflowRunAttemptId) {
+            addAttempt(workflowRunAttemptId);
+            // queued while neither node drains the outbox
+            a.submit(workflowRunAttemptId);
+        }
+
+        // both nodes scan the same pending tasks, the move to running/ hands each to exactly one of them
+        a.start();
+        b.start();
+        waitFor(() -> list(outboxDirectory, "done").length == 40);
+        a.stop();
+        b.stop();
+
+        for (long workflowRunAttemptId = 1; workflowRunAttemptId <= 40; ++workflowRunAttemptId) {
+            assertEquals(Integer.valueOf(1), registrations.get(workflowRunAttemptId));
+            assertTrue(irodsClient.exists(getDataObject(workflowRunAttemptId)));
+        }
+        assertEquals(0, list(outboxDirectory, "pending").length);
+        assertEquals(0, list(outboxDirectory, "running").length);
+    }
+
+    @Test
+    public void testRequeue() throws Exception {
+        File outboxDirectory = setUp();
+        for (long workflowRunAttemptId = 4; workflowRunAttemptId <= 7; ++workflowRunAttemptId) {
+            addAttempt(workflowRunAttemptId);
+        }
+
+        // left running by this node before it went down
+        writeTask(outboxDirectory, "running/4.node-a.task", createTask(4L, 1));
+        // running on another node
+        writeTask(outboxDirectory, "running/5.node-b.task", createTask(5L, 1));
+        // left running by another node that went away
+        writeTask(outboxDirectory, "running/6.node-b.task", createTask(6L, 1));
+        setLastModified(outboxDirectory, "running/6.node-b.task", TimeUnit.HOURS.toMillis(7));
+        // same, but resubmitted since
+        writeTask(outboxDirectory, "running/7.node-b.task", createTask(7L, 3));
+        setLastModified(outboxDirectory, "running/7.node-b.task", TimeUnit.HOURS.toMillis(7));
+        writeTask(outboxDirectory, "pending/7.task", createTask(7L, 0));
+
+        RegistrationOutboxImpl outbox = createOutbox(outboxDirectory, "node-a");
+        outbox.start();
+        waitFor(() -> exists(outboxDirectory, "done/4.task") && exists(outboxDirectory, "done/6.task")
+                && exists(outboxDirectory, "done/7.task"));
+        outbox.stop();
+
+        assertEquals(Integer.valueOf(1), registrations.get(4L));
+        assertEquals(Integer.valueOf(1), registrations.get(6L));
+        assertEquals(Integer.valueOf(1), registrations.get(7L));
+        // the resubmitted task was the one that ran
+        assertEquals("1", readTask(outboxDirectory, "done/7.task").getProperty("attempts"));
+
+        // another node's live task is left alone
+        assertNull(registrations.get(5L));
+        assertEquals(Arrays.asList("5.node-b.task"), Arrays.asList(list(outboxDirectory, "running")));
+    }
+
+    @Test
+    public void testResubmitWhileRunning() throws Exception {
+        File outboxDirectory = setUp();
+        addAttempt(8L);
+        failing.add(8L);
+        CountDownLatch latch = new CountDownLatch(1);
+        blocked.put(8L, latch);
+
+        RegistrationOutboxImpl a = createOutbox(outboxDirectory, "node-a");
+        a.start();
+        a.submit(8L);
+        waitFor(() -> registrations.containsKey(8L));
+        assertTrue(exists(outboxDirectory, "running/8.node-a.task"));
+
+        // resubmitted from another node while node-a is at it, the new task isn't claimed while the old one runs
+        RegistrationOutboxImpl b = createOutbox(outboxDirectory, "node-b");
+        b.submit(8L);
+        a.scan();
+        assertTrue(exists(outboxDirectory, "pending/8.task"));
+        assertEquals(Integer.valueOf(1), registrations.get(8L));
+
+        // the failed try doesn't overwrite the resubmitted task
+        latch.countDown();
+        waitFor(() -> !exists(outboxDirectory, "running/8.node-a.task"));
+        Properties task = readTask(outboxDirectory, "pending/8.task");
+        assertEquals("0", task.getProperty("attempts"));
+        assertNull(task.getProperty("lastError"));
+
+        failing.remove(8L);
+        scanUntil(a, () -> exists(outboxDirectory, "done/8.task"));
+        a.stop();
+        assertEquals(Integer.valueOf(2), registrations.get(8L));
+        assertEquals("1", readTask(outboxDirectory, "done/8.task").getProperty("attempts"));
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        File outboxDirectory = setUp();
+        writeTask(outboxDirectory, "done/1.task", createTask(1L, 1));
+        setLastModified(outboxDirectory, "done/1.task", TimeUnit.DAYS.toMillis(15));
+        writeTask(outboxDirectory, "done/2.task", createTask(2L, 1));
+        // left by a write that didn't get to its move
+        writeTask(outboxDirectory, "done/9.task.0f8fad5b.tmp", createTask(9L, 1));
+        setLastModified(outboxDirectory, "done/9.task.0f8fad5b.tmp", TimeUnit.DAYS.toMillis(15));
+        writeTask(outboxDirectory, "failed/3.task", createTask(3L, 8));
+        setLastModified(outboxDirectory, "failed/3.task", TimeUnit.DAYS.toMillis(15));
+        writeTask(outboxDirectory, "failed/4.task", createTask(4L, 8));
+        setLastModified(outboxDirectory, "failed/4.task", TimeUnit.DAYS.toMillis(91));
+        // not done with, however old
+        writeTask(outboxDirectory, "pending/5.task", createTask(5L, 7));
+        setLastModified(outboxDirectory, "pending/5.task", TimeUnit.DAYS.toMillis(100));
+        writeTask(outboxDirectory, "running/6.node-b.task", createTask(6L, 1));
+        setLastModified(outboxDirectory, "running/6.node-b.task", TimeUnit.DAYS.toMillis(100));
+
+        RegistrationOutboxImpl outbox = createOutbox(outboxDirectory, "node-a");
+        outbox.prune();
+
+        assertEquals(Arrays.asList("2.task"), Arrays.asList(list(outboxDirectory, "done")));
+        assertEquals(Arrays.asList("3.task"), Arrays.asList(list(outboxDirectory, "failed")));
+        assertTrue(exists(outboxDirectory, "pending/5.task"));
+        assertTrue(exists(outboxDirectory, "running/6.node-b.task"));
+
+        // shorter retentions
+        setLastModified(outboxDirectory, "done/2.task", TimeUnit.HOURS.toMillis(1));
+        outbox.setDoneRetention(0L);
+        outbox.setFailedRetention(7L);
+        outbox.prune();
+        assertEquals(0, list(outboxDirectory, "done").length);
+        assertEquals(0, list(outboxDirectory, "failed").length);
+    }
+
+    private File setUp() throws IOException {
+        File tmpDir = tmpFolder.newFolder("registration-outbox");
+        this.subjectMergeDirectory = new File(tmpDir, "subjectMerge");
+        subjectMergeDirectory.mkdirs();
+        this.irodsClient = new LocalIRODSClient(new File(tmpDir, "zone"));
+        this.maPSeqDAOBeanService = createMaPSeqDAOBeanService();
+        File ret = new File(tmpDir, "outbox");
+        for (String state : Arrays.asList("pending", "running", "done", "failed")) {
+            Files.createDirectories(new File(ret, state).toPath());
+        }
+        return ret;
+    }
+
+    private RegistrationOutboxImpl createOutbox(File outboxDirectory, String nodeId) {
+        RegistrationOutboxImpl ret = new RegistrationOutboxImpl() {
+
+            @Override
+            protected RegisterToIRODSRunnable createRegistration(WorkflowRunAttempt attempt) {
+                RegisterToIRODSRunnable registration = new RegisterToIRODSRunnable(getMaPSeqDAOBeanService(), attempt) {
+
+                    @Override
+                    public void run() {
+                        register(this);
+                    }
+
+                };
+                registration.setIrodsClient(getIrodsClient());
+                return registration;
+            }
+
+        };
+        ret.setMaPSeqDAOBeanService(maPSeqDAOBeanService);
+        ret.setIrodsClient(irodsClient);
+        ret.setOutboxDirectory(outboxDirectory.getAbsolutePath());
+        ret.setNodeId(nodeId);
+        // the tests scan when they need to
+        ret.setPollInterval(3600L);
+        ret.setInitialRetryDelay(0L);
+        return ret;
+    }
+
+    /*
+     * stands in for RegisterToIRODSRunnable, which needs the MaPSeq bundles: one file per attempt is registered to the local zone
+     */
+    private void register(RegisterToIRODSRunnable runnable) {
+        Long workflowRunAttemptId = runnable.getWorkflowRunAttempt().getId();
+        registrations.merge(workflowRunAttemptId, 1, Integer::sum);
+        runnable.getResults().clear();
+
+        CountDownLatch latch = blocked.get(workflowRunAttemptId);
+        if (latch != null) {
+            try {
+                latch.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        File file = getFile(workflowRunAttemptId);
+        String dataObject = getDataObject(workflowRunAttemptId);
+        RegistrationResult result = new RegistrationResult(file, dataObject, null);
+        try {
+            if (failing.contains(workflowRunAttemptId)) {
+                throw new IRODSException("resource is down");
+            }
+            runnable.getIrodsClient().createCollection(dataObject.substring(0, dataObject.lastIndexOf('/')));
+            runnable.getIrodsClient().register(file, dataObject);
+            result.setStatus(RegistrationResult.Status.REGISTERED);
+        } catch (IRODSException e) {
+            result.setStatus(RegistrationResult.Status.FAILED);
+            result.setMessage(e.getMessage());
+        }
+        runnable.getResults().add(result);
+    }
+
+    private MaPSeqDAOBeanService createMaPSeqDAOBeanService() {
+        AtomicLong ids = new AtomicLong();
+        WorkflowRunAttemptDAO workflowRunAttemptDAO = createProxy(WorkflowRunAttemptDAO.class, (proxy, method, args) -> {
+            if ("findById".equals(method.getName())) {
+                return attempts.get(args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        AttributeDAO attributeDAO = createProxy(AttributeDAO.class, (proxy, method, args) -> {
+            if ("save".equals(method.getName())) {
+                return ids.incrementAndGet();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        WorkflowRunDAO workflowRunDAO = createProxy(WorkflowRunDAO.class, (proxy, method, args) -> {
+            if ("save".equals(method.getName())) {
+                return ((WorkflowRun) args[0]).getId();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        return createProxy(MaPSeqDAOBeanService.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getWorkflowRunAttemptDAO":
+                    return workflowRunAttemptDAO;
+                case "getAttributeDAO":
+                    return attributeDAO;
+                case "getWorkflowRunDAO":
+                    return workflowRunDAO;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private void addAttempt(Long workflowRunAttemptId) throws IOException {
+        WorkflowRun workflowRun = new WorkflowRun();
+        workflowRun.setId(workflowRunAttemptId);
+        workflowRun.setAttributes(ConcurrentHashMap.newKeySet());
+        WorkflowRunAttempt attempt = new WorkflowRunAttempt();
+        attempt.setId(workflowRunAttemptId);
+        attempt.setWorkflowRun(workflowRun);
+        attempts.put(workflowRunAttemptId, attempt);
+        Files.write(getFile(workflowRunAttemptId).toPath(), Arrays.asList("metrics"), StandardCharsets.UTF_8);
+    }
+
+    private String getRegistrationStatus(Long workflowRunAttemptId) {
+        return attempts.get(workflowRunAttemptId).getWorkflowRun().getAttributes().stream()
+                .filter(a -> "registration_status".equals(a.getName())).map(Attribute::getValue).findFirst().orElse(null);
+    }
+
+    private File getFile(Long workflowRunAttemptId) {
+        return new File(subjectMergeDirectory, String.format("NCX_%05d.merged.rg.deduped.hs.metrics", workflowRunAttemptId));
+    }
+
+    private String getDataObject(Long workflowRunAttemptId) {
+        return String.format("/MedGenZone/prod/sequencing/ncnexus38/subjectMerge/NCX_%05d/48/%s", workflowRunAttemptId,
+                getFile(workflowRunAttemptId).getName());
+    }
+
+    private static Properties createTask(Long workflowRunAttemptId, int attempts) {
+        Properties ret = new Properties();
+        ret.setProperty("workflowRunAttemptId", workflowRunAttemptId.toString());
+        ret.setProperty("submitted", Long.toString(System.currentTimeMillis()));
+        ret.setProperty("attempts", Integer.toString(attempts));
+        ret.setProperty("nextAttempt", "0");
+        return ret;
+    }
+
+    private static void writeTask(File outboxDirectory, String name, Properties task) throws IOException {
+        try (OutputStream os = Files.newOutputStream(new File(outboxDirectory, name).toPath())) {
+            task.store(os, null);
+        }
+    }
+
+    private static Properties readTask(File outboxDirectory, String name) {
+        Properties ret = new Properties();
+        try (InputStream is = Files.newInputStream(new File(outboxDirectory, name).toPath())) {
+            ret.load(is);
+        } catch (IOException e) {
+            // not there (yet)
+        }
+        return ret;
+    }
+
+    private static void setLastModified(File outboxDirectory, String name, long age) throws IOException {
+        Path path = new File(outboxDirectory, name).toPath();
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - age));
+    }
+
+    private static boolean exists(File outboxDirectory, String name) {
+        return new File(outboxDirectory, name).exists();
+    }
+
+    private static String[] list(File outboxDirectory, String state) {
+        String[] ret = new File(outboxDirectory, state).list();
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.sleep(20L);
+        }
+    }
+
+    /*
+     * a worker lets go of its task only after the task file moved on, a scan right after that may still skip it
+     */
+    private static void scanUntil(RegistrationOutboxImpl outbox, BooleanSupplier condition) throws InterruptedException {
+        waitFor(() -> {
+            outbox.scan();
+            return condition.getAsBoolean();
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(RegistrationOutboxImplTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+}
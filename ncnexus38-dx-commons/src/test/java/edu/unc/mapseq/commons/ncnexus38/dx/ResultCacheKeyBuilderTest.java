@@ -0,0 +1,74 @@
+package edu.unc.mapseq.commons.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultCacheKeyBuilderTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testMissingCompanionFile() throws IOException {
+        File tmpDir = tmpFolder.newFolder("result-cache-key");
+        File referenceSequence = new File(tmpDir, "BUILD.38.fa");
+        Files.write(referenceSequence.toPath(), Arrays.asList(">chr1", "ACGT"), StandardCharsets.UTF_8);
+        File referenceSequenceIndex = new File(tmpDir, "BUILD.38.fa.fai");
+        File referenceSequenceDictionary = new File(tmpDir, "BUILD.38.dict");
+
+        // neither companion exists, the key is still made & is stable
+        String absent = new ResultCacheKeyBuilder().value("referenceSequence", referenceSequence.getAbsolutePath())
+                .optionalFile("referenceSequenceIndex", referenceSequenceIndex)
+                .optionalFile("referenceSequenceDictionary", referenceSequenceDictionary).build();
+        assertEquals(absent,
+                new ResultCacheKeyBuilder().value("referenceSequence", referenceSequence.getAbsolutePath())
+                        .optionalFile("referenceSequenceIndex", referenceSequenceIndex)
+                        .optionalFile("referenceSequenceDictionary", referenceSequenceDictionary).build());
+
+        // the index showing up changes the key, so does its content
+        Files.write(referenceSequenceIndex.toPath(), Arrays.asList("chr1\t4\t6\t4\t5"), StandardCharsets.UTF_8);
+        String present = new ResultCacheKeyBuilder().value("referenceSequence", referenceSequence.getAbsolutePath())
+                .optionalFile("referenceSequenceIndex", referenceSequenceIndex)
+                .optionalFile("referenceSequenceDictionary", referenceSequenceDictionary).build();
+        assertNotEquals(absent, present);
+
+        Files.write(referenceSequenceIndex.toPath(), Arrays.asList("chr1\t5\t6\t5\t6"), StandardCharsets.UTF_8);
+        assertNotEquals(present,
+                new ResultCacheKeyBuilder().value("referenceSequence", referenceSequence.getAbsolutePath())
+                        .optionalFile("referenceSequenceIndex", referenceSequenceIndex)
+                        .optionalFile("referenceSequenceDictionary", referenceSequenceDictionary).build());
+
+        // a missing file read as required still fails
+        try {
+            new ResultCacheKeyBuilder().file("referenceSequenceDictionary", referenceSequenceDictionary);
+            assertTrue(false);
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testExpandEnvironmentVariables() {
+        String referenceSequence = "$NCNEXUS_REFERENCES_DIRECTORY/BUILD.38/BUILD.38.fa";
+        assertEquals("/projects/references/BUILD.38/BUILD.38.fa", NCNEXUS38DXWorkflowUtil.expandEnvironmentVariables(referenceSequence,
+                Collections.singletonMap("NCNEXUS_REFERENCES_DIRECTORY", "/projects/references")));
+        assertEquals("/projects/references/BUILD.38/BUILD.38.fa", NCNEXUS38DXWorkflowUtil.expandEnvironmentVariables(
+                "${NCNEXUS_REFERENCES_DIRECTORY}/BUILD.38/BUILD.38.fa",
+                Collections.singletonMap("NCNEXUS_REFERENCES_DIRECTORY", "/projects/references")));
+        // not set in the karaf jvm, left as is
+        assertEquals(referenceSequence,
+                NCNEXUS38DXWorkflowUtil.expandEnvironmentVariables(referenceSequence, Collections.<String, String> emptyMap()));
+    }
+
+}
@@ -0,0 +1,217 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.ClusterLoad;
+import edu.unc.mapseq.commons.ncnexus38.dx.ClusterLoadProbe;
+import edu.unc.mapseq.commons.ncnexus38.dx.ConcurrencyStatus;
+
+/*
+ * AIMD on the number of attempts in flight. While condor keeps up (idle jobs don't pile up or wait long) and writes to
+ * subjectMergeHome stay fast the limit grows by increaseStep per sample, as long as it is actually used. Once either backs
+ * up the limit is cut by decreaseFactor. A failed sample leaves the limit where it is.
+ */
+public class AdaptiveConcurrencyController implements ConcurrencyStatus {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyController.class);
+
+    private ClusterLoadProbe probe;
+
+    private volatile double limit = -1;
+
+    private volatile int inFlight;
+
+    private volatile ClusterLoad lastLoad;
+
+    private long lastSample;
+
+    private Integer minLimit = 5;
+
+    private Integer maxLimit = 100;
+
+    private Integer initialLimit = 20;
+
+    private Integer increaseStep = 2;
+
+    private Double decreaseFactor = 0.75;
+
+    private Integer minIdleJobs = 50;
+
+    private Double maxIdleRatio = 1.0;
+
+    // minutes
+    private Long maxQueueWait = 30L;
+
+    // milliseconds
+    private Long maxStorageLatency = 2000L;
+
+    // seconds
+    private Long sampleInterval = 60L;
+
+    public AdaptiveConcurrencyController() {
+        super();
+    }
+
+    /*
+     * called on every dequeue, the probe only runs once per sampleInterval
+     */
+    public synchronized void update(int currentInFlight) {
+        this.inFlight = currentInFlight;
+        if (limit < 0) {
+            this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastSample < TimeUnit.SECONDS.toMillis(sampleInterval)) {
+            return;
+        }
+        this.lastSample = now;
+
+        ClusterLoad load;
+        try {
+            load = probe.sample();
+        } catch (IOException e) {
+            logger.warn("failed to sample cluster load, keeping limit at {}: {}", getLimit(), e.getMessage());
+            return;
+        }
+        this.lastLoad = load;
+
+        double previous = limit;
+        String reason = getCongestion(load);
+        if (reason != null) {
+            this.limit = Math.max(minLimit, limit * decreaseFactor);
+        } else if (currentInFlight >= getLimit()) {
+            // only grow a limit that is being used, an idle executor says nothing about capacity
+            this.limit = Math.min(maxLimit, limit + increaseStep);
+        }
+        this.limit = Math.min(maxLimit, limit);
+
+        if ((int) previous != getLimit()) {
+            logger.info("concurrency limit {} -> {} ({}), inFlight: {}, {}", (int) previous, getLimit(), reason != null ? reason : "headroom",
+                    currentInFlight, load);
+        } else {
+            logger.debug("concurrency limit {}, inFlight: {}, {}", getLimit(), currentInFlight, load);
+        }
+    }
+
+    private String getCongestion(ClusterLoad load) {
+        if (load.getIdleJobs() > Math.max(minIdleJobs, load.getRunningJobs() * maxIdleRatio)) {
+            return "idle jobs";
+        }
+        if (load.getIdleJobs() > 0 && load.getQueueWait() > TimeUnit.MINUTES.toMillis(maxQueueWait)) {
+            return "queue wait";
+        }
+        if (load.getStorageLatency() > maxStorageLatency) {
+            return "storage latency";
+        }
+        return null;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit < 0 ? Math.max(minLimit, Math.min(initialLimit, maxLimit)) : (int) limit;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public ClusterLoad getLastLoad() {
+        return lastLoad;
+    }
+
+    public ClusterLoadProbe getProbe() {
+        return probe;
+    }
+
+    public void setProbe(ClusterLoadProbe probe) {
+        this.probe = probe;
+    }
+
+    public Integer getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(Integer minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public Integer getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(Integer maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    public Integer getInitialLimit() {
+        return initialLimit;
+    }
+
+    public void setInitialLimit(Integer initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public Integer getIncreaseStep() {
+        return increaseStep;
+    }
+
+    public void setIncreaseStep(Integer increaseStep) {
+        this.increaseStep = increaseStep;
+    }
+
+    public Double getDecreaseFactor() {
+        return decreaseFactor;
+    }
+
+    public void setDecreaseFactor(Double decreaseFactor) {
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    public Integer getMinIdleJobs() {
+        return minIdleJobs;
+    }
+
+    public void setMinIdleJobs(Integer minIdleJobs) {
+        this.minIdleJobs = minIdleJobs;
+    }
+
+    public Double getMaxIdleRatio() {
+        return maxIdleRatio;
+    }
+
+    public void setMaxIdleRatio(Double maxIdleRatio) {
+        this.maxIdleRatio = maxIdleRatio;
+    }
+
+    public Long getMaxQueueWait() {
+        return maxQueueWait;
+    }
+
+    public void setMaxQueueWait(Long maxQueueWait) {
+        this.maxQueueWait = maxQueueWait;
+    }
+
+    public Long getMaxStorageLatency() {
+        return maxStorageLatency;
+    }
+
+    public void setMaxStorageLatency(Long maxStorageLatency) {
+        this.maxStorageLatency = maxStorageLatency;
+    }
+
+    public Long getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public void setSampleInterval(Long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+}
@@ -0,0 +1,210 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.ConcurrencyStatus;
+import edu.unc.mapseq.commons.ncnexus38.dx.NCNEXUS38DXWorkflowUtil;
+import edu.unc.mapseq.commons.ncnexus38.dx.WorkflowRunPriority;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+
+/*
+ * Decides which enqueued attempts are dequeued now. Higher priorities are admitted first, within a priority the fair share
+ * groups (requester or subject) take turns, and attempts that don't fit under the caps are left enqueued in the db.
+ */
+public class AdmissionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final Map<Long, InFlight> inFlight = new HashMap<Long, InFlight>();
+
+    private final Map<Long, String> groups = new HashMap<Long, String>();
+
+    private Integer maxInFlight = 100;
+
+    private Integer maxInFlightPerGroup = 10;
+
+    private Integer maxBackfillInFlight = 20;
+
+    private Integer statReserve = 10;
+
+    private ConcurrencyStatus concurrencyStatus;
+
+    public AdmissionController() {
+        super();
+    }
+
+    public synchronized List<WorkflowRunAttempt> admit(List<WorkflowRunAttempt> enqueued, Function<WorkflowRunAttempt, String> groupResolver) {
+        logger.debug("ENTERING admit(List<WorkflowRunAttempt>, Function<WorkflowRunAttempt, String>)");
+
+        List<WorkflowRunAttempt> ret = new ArrayList<WorkflowRunAttempt>();
+
+        // forget groups of attempts that are no longer enqueued
+        Set<Long> enqueuedIds = new HashSet<Long>();
+        enqueued.forEach(a -> enqueuedIds.add(a.getId()));
+        groups.keySet().retainAll(enqueuedIds);
+
+        Map<WorkflowRunPriority, List<WorkflowRunAttempt>> tiers = new LinkedHashMap<WorkflowRunPriority, List<WorkflowRunAttempt>>();
+        for (WorkflowRunPriority priority : WorkflowRunPriority.values()) {
+            tiers.put(priority, new ArrayList<WorkflowRunAttempt>());
+        }
+        for (WorkflowRunAttempt attempt : enqueued) {
+            if (!inFlight.containsKey(attempt.getId())) {
+                tiers.get(NCNEXUS38DXWorkflowUtil.getPriority(attempt.getWorkflowRun())).add(attempt);
+            }
+        }
+
+        for (WorkflowRunPriority priority : WorkflowRunPriority.values()) {
+            List<WorkflowRunAttempt> tier = tiers.get(priority);
+            if (tier.isEmpty()) {
+                continue;
+            }
+
+            // one queue per group in order of arrival, then round robin across the groups
+            Map<String, LinkedList<WorkflowRunAttempt>> groupQueues = new LinkedHashMap<String, LinkedList<WorkflowRunAttempt>>();
+            for (WorkflowRunAttempt attempt : tier) {
+                if (!hasCapacity(priority)) {
+                    break;
+                }
+                String group = groups.computeIfAbsent(attempt.getId(), a -> groupResolver.apply(attempt));
+                groupQueues.computeIfAbsent(group, a -> new LinkedList<WorkflowRunAttempt>()).add(attempt);
+            }
+
+            while (!groupQueues.isEmpty() && hasCapacity(priority)) {
+                Iterator<Map.Entry<String, LinkedList<WorkflowRunAttempt>>> iter = groupQueues.entrySet().iterator();
+                while (iter.hasNext() && hasCapacity(priority)) {
+                    Map.Entry<String, LinkedList<WorkflowRunAttempt>> entry = iter.next();
+                    if (countGroup(entry.getKey()) >= maxInFlightPerGroup) {
+                        iter.remove();
+                        continue;
+                    }
+                    WorkflowRunAttempt attempt = entry.getValue().removeFirst();
+                    inFlight.put(attempt.getId(), new InFlight(priority, entry.getKey()));
+                    groups.remove(attempt.getId());
+                    ret.add(attempt);
+                    if (entry.getValue().isEmpty()) {
+                        iter.remove();
+                    }
+                }
+            }
+        }
+
+        logger.info("admitted {} of {} enqueued attempts, {} in flight", ret.size(), enqueued.size(), inFlight.size());
+        return ret;
+    }
+
+    /*
+     * counts an attempt that was taken on outside of admit(), e.g. one picked up again by the recovery scan
+     */
+    public synchronized void register(WorkflowRunAttempt attempt, String group) {
+        inFlight.put(attempt.getId(), new InFlight(NCNEXUS38DXWorkflowUtil.getPriority(attempt.getWorkflowRun()), group));
+    }
+
+    public synchronized void release(Long workflowRunAttemptId) {
+        inFlight.remove(workflowRunAttemptId);
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private boolean hasCapacity(WorkflowRunPriority priority) {
+        int count = inFlight.size();
+        // the adaptive limit moves within maxInFlight
+        int max = concurrencyStatus != null ? Math.min(maxInFlight, concurrencyStatus.getLimit()) : maxInFlight;
+        if (priority == WorkflowRunPriority.STAT) {
+            return count < max;
+        }
+        if (priority == WorkflowRunPriority.BACKFILL && countPriority(WorkflowRunPriority.BACKFILL) >= maxBackfillInFlight) {
+            return false;
+        }
+        // leave room for stat requests that arrive while the executor is busy
+        return count < max - Math.min(statReserve, max / 2);
+    }
+
+    private int countPriority(WorkflowRunPriority priority) {
+        int count = 0;
+        for (InFlight value : inFlight.values()) {
+            if (value.priority == priority) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private int countGroup(String group) {
+        int count = 0;
+        for (InFlight value : inFlight.values()) {
+            if (value.group.equals(group)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static class InFlight {
+
+        private final WorkflowRunPriority priority;
+
+        private final String group;
+
+        InFlight(WorkflowRunPriority priority, String group) {
+            super();
+            this.priority = priority;
+            this.group = group;
+        }
+
+    }
+
+    public Integer getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(Integer maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Integer getMaxInFlightPerGroup() {
+        return maxInFlightPerGroup;
+    }
+
+    public void setMaxInFlightPerGroup(Integer maxInFlightPerGroup) {
+        this.maxInFlightPerGroup = maxInFlightPerGroup;
+    }
+
+    public Integer getMaxBackfillInFlight() {
+        return maxBackfillInFlight;
+    }
+
+    public void setMaxBackfillInFlight(Integer maxBackfillInFlight) {
+        this.maxBackfillInFlight = maxBackfillInFlight;
+    }
+
+    public ConcurrencyStatus getConcurrencyStatus() {
+        return concurrencyStatus;
+    }
+
+    public void setConcurrencyStatus(ConcurrencyStatus concurrencyStatus) {
+        this.concurrencyStatus = concurrencyStatus;
+    }
+
+    public Integer getStatReserve() {
+        return statReserve;
+    }
+
+    public void setStatReserve(Integer statReserve) {
+        this.statReserve = statReserve;
+    }
+
+}
@@ -0,0 +1,106 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.NCNEXUS38DXWorkflowUtil;
+import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
+import edu.unc.mapseq.dao.model.Sample;
+import edu.unc.mapseq.dao.model.WorkflowRun;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+import edu.unc.mapseq.workflow.sequencing.SequencingWorkflowUtil;
+
+/*
+ * Attempts for the same subject, dx ids & list version produce the same outputs in the same directory. Only one of them
+ * runs a DAG, the others follow it and take on its final status once it is done.
+ */
+public class AttemptCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttemptCoalescer.class);
+
+    private final Map<Long, String> keys = new HashMap<Long, String>();
+
+    private final Map<String, Long> canonicals = new HashMap<String, Long>();
+
+    private final Map<Long, List<WorkflowRunAttempt>> followers = new HashMap<Long, List<WorkflowRunAttempt>>();
+
+    public AttemptCoalescer() {
+        super();
+    }
+
+    /*
+     * null when the attempt can't be resolved to a subject, such an attempt is never coalesced
+     */
+    public synchronized String getKey(MaPSeqDAOBeanService maPSeqDAOBeanService, WorkflowRunAttempt attempt) {
+        if (keys.containsKey(attempt.getId())) {
+            return keys.get(attempt.getId());
+        }
+        String key = null;
+        WorkflowRun workflowRun = attempt.getWorkflowRun();
+        String listVersion = NCNEXUS38DXWorkflowUtil.getListVersion(workflowRun);
+        List<String> dxIds = NCNEXUS38DXWorkflowUtil.getDXIds(workflowRun);
+        if (listVersion != null && CollectionUtils.isNotEmpty(dxIds)) {
+            try {
+                Set<Sample> sampleSet = SequencingWorkflowUtil.getAggregatedSamples(maPSeqDAOBeanService, attempt);
+                Collections.sort(dxIds);
+                key = String.format("%s|%s|%s", NCNEXUS38DXWorkflowUtil.getSubjectName(sampleSet), String.join(",", dxIds), listVersion);
+            } catch (Exception e) {
+                logger.warn("no subject for WorkflowRunAttempt {}: {}", attempt.getId(), e.getMessage());
+            }
+        }
+        keys.put(attempt.getId(), key);
+        return key;
+    }
+
+    /*
+     * drops cached keys of attempts that are neither enqueued nor running anymore
+     */
+    public synchronized void retain(Collection<WorkflowRunAttempt> enqueued) {
+        List<Long> ids = new ArrayList<Long>(canonicals.values());
+        enqueued.forEach(a -> ids.add(a.getId()));
+        keys.keySet().retainAll(ids);
+    }
+
+    public synchronized Long getCanonical(String key) {
+        return key != null ? canonicals.get(key) : null;
+    }
+
+    public synchronized void start(String key, WorkflowRunAttempt attempt) {
+        if (key != null) {
+            canonicals.put(key, attempt.getId());
+        }
+    }
+
+    /*
+     * false when the canonical attempt is no longer running
+     */
+    public synchronized boolean follow(Long canonicalId, WorkflowRunAttempt attempt) {
+        if (!canonicals.containsValue(canonicalId)) {
+            return false;
+        }
+        followers.computeIfAbsent(canonicalId, a -> new ArrayList<WorkflowRunAttempt>()).add(attempt);
+        return true;
+    }
+
+    /*
+     * the canonical attempt is done, hands back the attempts that followed it
+     */
+    public synchronized List<WorkflowRunAttempt> finish(WorkflowRunAttempt attempt) {
+        String key = keys.remove(attempt.getId());
+        if (key != null) {
+            canonicals.remove(key, attempt.getId());
+        }
+        List<WorkflowRunAttempt> ret = followers.remove(attempt.getId());
+        return ret != null ? ret : Collections.emptyList();
+    }
+
+}
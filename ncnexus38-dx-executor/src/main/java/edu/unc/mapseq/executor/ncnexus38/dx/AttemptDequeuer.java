@@ -0,0 +1,165 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.dao.MaPSeqDAOException;
+import edu.unc.mapseq.dao.WorkflowRunAttemptDAO;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+
+/*
+ * Dequeues a whole batch of attempts at once: leases for all of them, a single query to drop the ones another node got to
+ * first, then the dequeued stamps are saved concurrently. A node that dies part way leaves either expiring leases or
+ * dequeued attempts without a DAG, both of which end up enqueued again through the recovery scan.
+ */
+public class AttemptDequeuer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttemptDequeuer.class);
+
+    private ExecutorService saveExecutor;
+
+    private AttemptLeaseManager leaseManager;
+
+    private Integer saveParallelism = 8;
+
+    public AttemptDequeuer() {
+        super();
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        this.saveExecutor = Executors.newFixedThreadPool(saveParallelism);
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        if (saveExecutor != null) {
+            saveExecutor.shutdownNow();
+        }
+    }
+
+    /*
+     * returns the attempts that were claimed & stamped, the others are left as they were
+     */
+    public List<WorkflowRunAttempt> dequeue(List<WorkflowRunAttempt> attempts, Long workflowId, String version,
+            WorkflowRunAttemptDAO workflowRunAttemptDAO) {
+        logger.debug("ENTERING dequeue(List<WorkflowRunAttempt>, Long, String, WorkflowRunAttemptDAO)");
+
+        List<WorkflowRunAttempt> ret = new ArrayList<WorkflowRunAttempt>();
+        if (attempts.isEmpty()) {
+            return ret;
+        }
+        long start = System.currentTimeMillis();
+
+        List<WorkflowRunAttempt> claimed = new ArrayList<WorkflowRunAttempt>();
+        if (leaseManager == null) {
+            claimed.addAll(attempts);
+        } else {
+            for (WorkflowRunAttempt attempt : attempts) {
+                if (leaseManager.claim(attempt.getId())) {
+                    claimed.add(attempt);
+                }
+            }
+            // the enqueued list may be stale, another node could have dequeued & released attempts before these claims
+            if (!claimed.isEmpty()) {
+                Set<Long> stillEnqueued = new HashSet<Long>();
+                try {
+                    workflowRunAttemptDAO.findEnqueued(workflowId).forEach(a -> stillEnqueued.add(a.getId()));
+                } catch (MaPSeqDAOException e) {
+                    logger.error("failed to reload enqueued WorkflowRunAttempts", e);
+                }
+                List<WorkflowRunAttempt> current = new ArrayList<WorkflowRunAttempt>();
+                for (WorkflowRunAttempt attempt : claimed) {
+                    if (stillEnqueued.contains(attempt.getId())) {
+                        current.add(attempt);
+                    } else {
+                        leaseManager.release(attempt.getId());
+                    }
+                }
+                claimed = current;
+            }
+        }
+
+        Date dequeued = new Date();
+        List<Callable<WorkflowRunAttempt>> saves = new ArrayList<Callable<WorkflowRunAttempt>>();
+        for (WorkflowRunAttempt attempt : claimed) {
+            saves.add(() -> {
+                attempt.setVersion(version);
+                attempt.setDequeued(dequeued);
+                try {
+                    workflowRunAttemptDAO.save(attempt);
+                    return attempt;
+                } catch (MaPSeqDAOException e) {
+                    logger.error("failed to dequeue WorkflowRunAttempt {}", attempt.getId(), e);
+                    attempt.setDequeued(null);
+                    if (leaseManager != null) {
+                        leaseManager.release(attempt.getId());
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            if (saveExecutor == null || saves.size() == 1) {
+                for (Callable<WorkflowRunAttempt> save : saves) {
+                    WorkflowRunAttempt attempt = save.call();
+                    if (attempt != null) {
+                        ret.add(attempt);
+                    }
+                }
+            } else {
+                for (Future<WorkflowRunAttempt> future : saveExecutor.invokeAll(saves)) {
+                    WorkflowRunAttempt attempt = future.get();
+                    if (attempt != null) {
+                        ret.add(attempt);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error(e.getMessage(), e.getCause());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+
+        if (leaseManager != null && ret.size() < claimed.size()) {
+            // anything that was saved but not handed back is enqueued again by the recovery scan once its lease is gone
+            Set<Long> returned = new HashSet<Long>();
+            ret.forEach(a -> returned.add(a.getId()));
+            claimed.stream().filter(a -> !returned.contains(a.getId())).forEach(a -> leaseManager.release(a.getId()));
+        }
+
+        logger.info("dequeued {} of {} WorkflowRunAttempts in {} ms", ret.size(), attempts.size(), System.currentTimeMillis() - start);
+        return ret;
+    }
+
+    public AttemptLeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+
+    public void setLeaseManager(AttemptLeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
+
+    public Integer getSaveParallelism() {
+        return saveParallelism;
+    }
+
+    public void setSaveParallelism(Integer saveParallelism) {
+        this.saveParallelism = saveParallelism;
+    }
+
+}
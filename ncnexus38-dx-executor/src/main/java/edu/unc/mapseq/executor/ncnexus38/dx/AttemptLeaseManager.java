@@ -0,0 +1,322 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Claims on WorkflowRunAttempts shared by the executors of several nodes through a directory on shared storage. A lease is
+ * <attemptId>.<generation>.lease holding the owning node, the highest generation is the current one. Claiming hard links a
+ * complete file to the next generation, which succeeds on exactly one node, and is only tried when there is no current
+ * generation or it has expired. Owners renew their leases by heartbeat, a lease that isn't renewed can be taken over by any
+ * node once it expires.
+ *
+ * No two node clocks are compared: a lease expires leaseDuration seconds after the mtime of its file, which the storage
+ * server stamps when the lease is written, and the current time is the mtime of a file just written to the same directory.
+ * So the nodes don't have to be in sync with each other, only the storage server's own clock has to move steadily. The lease
+ * file is opened before its mtime is read, NFS revalidates its attributes on open, so the client's attribute cache can't
+ * make a renewed lease look older than it is.
+ */
+public class AttemptLeaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttemptLeaseManager.class);
+
+    private static final Pattern LEASE_PATTERN = Pattern.compile("(\\d+)\\.(\\d+)\\.lease");
+
+    private final Map<Long, Integer> heldGenerations = new ConcurrentHashMap<Long, Integer>();
+
+    private final Map<Long, Runnable> lostListeners = new ConcurrentHashMap<Long, Runnable>();
+
+    private ScheduledExecutorService heartbeat;
+
+    private String leaseDirectory;
+
+    private String nodeId;
+
+    private Long leaseDuration = 300L;
+
+    public AttemptLeaseManager() {
+        super();
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        if (StringUtils.isBlank(nodeId)) {
+            this.nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        Files.createDirectories(getLeaseDirectory().toPath());
+        logger.info("leasing attempts in {} as {}", leaseDirectory, nodeId);
+
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor();
+        long interval = Math.max(leaseDuration / 3, 1);
+        heartbeat.scheduleWithFixedDelay(() -> renew(), interval, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        // held leases are left to expire, workflows still running in this jvm keep their attempts until then
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    public boolean claim(Long workflowRunAttemptId) {
+        if (heldGenerations.containsKey(workflowRunAttemptId)) {
+            return true;
+        }
+
+        File tmpFile = null;
+        try {
+            int generation = getCurrentGeneration(workflowRunAttemptId);
+            if (generation > 0) {
+                Lease lease = read(getLeaseFile(workflowRunAttemptId, generation));
+                if (lease == null || !lease.isExpired(getStorageTime())) {
+                    return false;
+                }
+                logger.info("taking over expired lease on WorkflowRunAttempt {} from {}", workflowRunAttemptId, lease.getNodeId());
+            }
+
+            tmpFile = write(workflowRunAttemptId);
+            Files.createLink(getLeaseFile(workflowRunAttemptId, generation + 1).toPath(), tmpFile.toPath());
+            heldGenerations.put(workflowRunAttemptId, generation + 1);
+
+            for (int i = generation; i > 0; --i) {
+                Files.deleteIfExists(getLeaseFile(workflowRunAttemptId, i).toPath());
+            }
+            logger.debug("claimed WorkflowRunAttempt {}", workflowRunAttemptId);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            logger.debug("WorkflowRunAttempt {} was claimed by another node", workflowRunAttemptId);
+            return false;
+        } catch (IOException e) {
+            logger.error("failed to claim WorkflowRunAttempt {}", workflowRunAttemptId, e);
+            return false;
+        } finally {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    public void release(Long workflowRunAttemptId) {
+        lostListeners.remove(workflowRunAttemptId);
+        Integer generation = heldGenerations.remove(workflowRunAttemptId);
+        if (generation == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(getLeaseFile(workflowRunAttemptId, generation).toPath());
+        } catch (IOException e) {
+            logger.warn("failed to release lease on WorkflowRunAttempt {}", workflowRunAttemptId, e);
+        }
+    }
+
+    public boolean isHeld(Long workflowRunAttemptId) {
+        return heldGenerations.containsKey(workflowRunAttemptId);
+    }
+
+    /*
+     * run by the heartbeat when a held lease turns out to be taken over, whatever this node does with the attempt has to stop
+     */
+    public void onLost(Long workflowRunAttemptId, Runnable listener) {
+        lostListeners.put(workflowRunAttemptId, listener);
+    }
+
+    /*
+     * attempts whose current lease expired, i.e. the owning node stopped renewing it
+     */
+    public List<Long> findExpired() {
+        List<Long> ret = new ArrayList<Long>();
+        long now;
+        try {
+            now = getStorageTime();
+        } catch (IOException e) {
+            logger.error("failed to read the time off {}", leaseDirectory, e);
+            return ret;
+        }
+        for (Map.Entry<Long, Integer> entry : getCurrentGenerations().entrySet()) {
+            if (heldGenerations.containsKey(entry.getKey())) {
+                continue;
+            }
+            Lease lease = read(getLeaseFile(entry.getKey(), entry.getValue()));
+            if (lease != null && lease.isExpired(now)) {
+                ret.add(entry.getKey());
+            }
+        }
+        return ret;
+    }
+
+    protected void renew() {
+        for (Map.Entry<Long, Integer> entry : heldGenerations.entrySet()) {
+            Long workflowRunAttemptId = entry.getKey();
+            File tmpFile = null;
+            try {
+                if (getCurrentGeneration(workflowRunAttemptId) != entry.getValue()) {
+                    // renewed too late, another node took the attempt over
+                    logger.error("lost lease on WorkflowRunAttempt {}", workflowRunAttemptId);
+                    heldGenerations.remove(workflowRunAttemptId);
+                    Runnable listener = lostListeners.remove(workflowRunAttemptId);
+                    if (listener != null) {
+                        listener.run();
+                    }
+                    continue;
+                }
+                tmpFile = write(workflowRunAttemptId);
+                Files.move(tmpFile.toPath(), getLeaseFile(workflowRunAttemptId, entry.getValue()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("failed to renew lease on WorkflowRunAttempt {}", workflowRunAttemptId, e);
+            } finally {
+                if (tmpFile != null) {
+                    tmpFile.delete();
+                }
+            }
+        }
+    }
+
+    private int getCurrentGeneration(Long workflowRunAttemptId) throws IOException {
+        int ret = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getLeaseDirectory().toPath(),
+                String.format("%d.*.lease", workflowRunAttemptId))) {
+            for (Path path : stream) {
+                Matcher matcher = LEASE_PATTERN.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    ret = Math.max(ret, Integer.parseInt(matcher.group(2)));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private Map<Long, Integer> getCurrentGenerations() {
+        Map<Long, Integer> ret = new TreeMap<Long, Integer>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getLeaseDirectory().toPath(), "*.lease")) {
+            for (Path path : stream) {
+                Matcher matcher = LEASE_PATTERN.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    ret.merge(Long.valueOf(matcher.group(1)), Integer.valueOf(matcher.group(2)), Math::max);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("failed to list leases in {}", leaseDirectory, e);
+        }
+        return ret;
+    }
+
+    private File write(Long workflowRunAttemptId) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("node", nodeId);
+        // only for people looking at the file, expiry is decided by the file's mtime
+        properties.setProperty("written", Long.toString(System.currentTimeMillis()));
+        File tmpFile = new File(getLeaseDirectory(), String.format("%d.%s.tmp", workflowRunAttemptId, UUID.randomUUID()));
+        try (OutputStream os = Files.newOutputStream(tmpFile.toPath())) {
+            properties.store(os, null);
+        }
+        return tmpFile;
+    }
+
+    private Lease read(File leaseFile) {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(leaseFile.toPath())) {
+            properties.load(is);
+            String node = properties.getProperty("node");
+            if (StringUtils.isEmpty(node)) {
+                throw new IllegalArgumentException("no node");
+            }
+            long written = Files.getLastModifiedTime(leaseFile.toPath()).toMillis();
+            return new Lease(node, written + leaseDuration * 1000L);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("unreadable lease: {}", leaseFile.getAbsolutePath());
+            return null;
+        }
+    }
+
+    /*
+     * the storage server's clock, i.e. the mtime it stamps on a file written to the lease directory
+     */
+    private long getStorageTime() throws IOException {
+        Path probe = Files.createTempFile(getLeaseDirectory().toPath(), "clock.", ".tmp");
+        try {
+            return Files.getLastModifiedTime(probe).toMillis();
+        } finally {
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    private File getLeaseFile(Long workflowRunAttemptId, int generation) {
+        return new File(getLeaseDirectory(), String.format("%d.%d.lease", workflowRunAttemptId, generation));
+    }
+
+    private static class Lease {
+
+        private final String nodeId;
+
+        private final long expires;
+
+        Lease(String nodeId, long expires) {
+            super();
+            this.nodeId = nodeId;
+            this.expires = expires;
+        }
+
+        String getNodeId() {
+            return nodeId;
+        }
+
+        boolean isExpired(long now) {
+            return expires < now;
+        }
+
+    }
+
+    public File getLeaseDirectory() {
+        return new File(leaseDirectory);
+    }
+
+    public void setLeaseDirectory(String leaseDirectory) {
+        this.leaseDirectory = leaseDirectory;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    public void setLeaseDuration(Long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+}
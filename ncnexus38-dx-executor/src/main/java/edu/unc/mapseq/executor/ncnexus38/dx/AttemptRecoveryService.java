@@ -0,0 +1,271 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.AnnotationRegistry;
+import edu.unc.mapseq.commons.ncnexus38.dx.CondorDAG;
+import edu.unc.mapseq.commons.ncnexus38.dx.RegistrationOutbox;
+import edu.unc.mapseq.dao.MaPSeqDAOException;
+import edu.unc.mapseq.dao.WorkflowRunAttemptDAO;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+import edu.unc.mapseq.dao.model.WorkflowRunAttemptStatusType;
+import edu.unc.mapseq.workflow.WorkflowBeanService;
+import edu.unc.mapseq.workflow.ncnexus38.dx.NCNEXUS38DXWorkflow;
+
+/*
+ * Picks up attempts that were dequeued but never finished because the executor that ran them went away. Such an attempt
+ * has no live lease, its DAG is followed from the submit directory: still running DAGs are waited on, incomplete ones are
+ * resubmitted so DAGMan runs the rescue dag, and once the DAG succeeded postRun() registers the outputs.
+ */
+public class AttemptRecoveryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttemptRecoveryService.class);
+
+    private static final long POLL_INTERVAL = 60L;
+
+    private ScheduledExecutorService scheduler;
+
+    private WorkflowBeanService workflowBeanService;
+
+    private String workflowName;
+
+    private AnnotationRegistry annotationRegistry;
+
+    private RegistrationOutbox registrationOutbox;
+
+    private AttemptLeaseManager leaseManager;
+
+    private AdmissionController admissionController;
+
+    private AttemptRunner attemptRunner = new AttemptRunner();
+
+    private Long recoveryPeriod = 30L;
+
+    private Long staleAfter = 6L;
+
+    public AttemptRecoveryService() {
+        super();
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        // leases left by the previous run of this node have to expire first
+        long delay = leaseManager.getLeaseDuration() + 60;
+        scheduler.scheduleWithFixedDelay(() -> scan(), delay, recoveryPeriod * 60, TimeUnit.SECONDS);
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    protected void scan() {
+        logger.debug("ENTERING scan()");
+
+        WorkflowRunAttemptDAO workflowRunAttemptDAO = workflowBeanService.getMaPSeqDAOBeanService().getWorkflowRunAttemptDAO();
+
+        try {
+            // every dequeued attempt is leased until it finishes, so only the expired leases can point at orphans
+            List<Long> expired = leaseManager.findExpired();
+            if (CollectionUtils.isEmpty(expired)) {
+                return;
+            }
+
+            int count = 0;
+            for (Long workflowRunAttemptId : expired) {
+                WorkflowRunAttempt attempt = workflowRunAttemptDAO.findById(workflowRunAttemptId);
+                if (attempt == null || attempt.getDequeued() == null || attempt.getFinished() != null
+                        || WorkflowRunAttemptStatusType.DONE.equals(attempt.getStatus())
+                        || WorkflowRunAttemptStatusType.FAILED.equals(attempt.getStatus())) {
+                    // left behind by an executor that went away after the attempt was done with
+                    if (leaseManager.claim(workflowRunAttemptId)) {
+                        leaseManager.release(workflowRunAttemptId);
+                    }
+                    continue;
+                }
+                // recovery waits on condor the same way a fresh attempt does, so it takes the same capacity
+                if (!attemptRunner.tryAcquire()) {
+                    logger.debug("no capacity left to recover WorkflowRunAttempt {}", attempt.getId());
+                    break;
+                }
+                // findExpired() skips this node's leases, claim() fails if another node renewed or took the lease meanwhile
+                if (!leaseManager.claim(attempt.getId())) {
+                    attemptRunner.release();
+                    continue;
+                }
+                if (admissionController != null) {
+                    admissionController.register(attempt, "recovery");
+                }
+                attemptRunner.submit(() -> recover(attempt));
+                ++count;
+            }
+            if (count > 0) {
+                logger.info("recovering {} orphaned WorkflowRunAttempts", count);
+            }
+
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    protected void recover(WorkflowRunAttempt attempt) {
+        logger.info("recovering WorkflowRunAttempt {}", attempt.getId());
+
+        WorkflowRunAttemptDAO workflowRunAttemptDAO = workflowBeanService.getMaPSeqDAOBeanService().getWorkflowRunAttemptDAO();
+
+        try {
+            CondorDAG dag = StringUtils.isNotEmpty(attempt.getSubmitDirectory())
+                    ? CondorDAG.find(new File(attempt.getSubmitDirectory())) : null;
+
+            if (dag == null || dag.getState(staleAfter, TimeUnit.HOURS) == CondorDAG.State.NOT_SUBMITTED) {
+                // nothing reached condor, back in the queue it goes, the result cache skips whatever did complete
+                logger.info("WorkflowRunAttempt {} has no submitted dag, enqueuing it again", attempt.getId());
+                attempt.setDequeued(null);
+                workflowRunAttemptDAO.save(attempt);
+                return;
+            }
+
+            long resubmitted = 0;
+            while (true) {
+                if (!leaseManager.isHeld(attempt.getId())) {
+                    logger.warn("lost lease on WorkflowRunAttempt {}, giving up recovery", attempt.getId());
+                    return;
+                }
+
+                CondorDAG.State state = dag.getState(staleAfter, TimeUnit.HOURS);
+                if (state == CondorDAG.State.SUCCEEDED) {
+                    break;
+                }
+
+                if (state == CondorDAG.State.INCOMPLETE) {
+                    // right after a resubmission the old dagman.out still shows the failed run
+                    boolean starting = resubmitted > 0 && dag.getLastActivity() < resubmitted
+                            && System.currentTimeMillis() - resubmitted < TimeUnit.HOURS.toMillis(staleAfter);
+                    if (!starting) {
+                        if (resubmitted > 0 || !dag.resubmit()) {
+                            logger.error("dag of WorkflowRunAttempt {} did not complete: {}", attempt.getId(), dag.getDagFile());
+                            attempt.setStatus(WorkflowRunAttemptStatusType.FAILED);
+                            attempt.setFinished(new Date());
+                            workflowRunAttemptDAO.save(attempt);
+                            return;
+                        }
+                        resubmitted = System.currentTimeMillis();
+                    }
+                }
+
+                Thread.sleep(TimeUnit.SECONDS.toMillis(POLL_INTERVAL));
+            }
+
+            NCNEXUS38DXWorkflow workflow = new NCNEXUS38DXWorkflow();
+            workflow.setWorkflowBeanService(workflowBeanService);
+            workflow.setWorkflowRunAttempt(attempt);
+            workflow.setAnnotationRegistry(annotationRegistry);
+            workflow.setRegistrationOutbox(registrationOutbox);
+            leaseManager.onLost(attempt.getId(), () -> workflow.cancel());
+            // only the outputs & cache entries are resolved again, the dag itself is not rebuilt
+            workflow.prepare();
+            workflow.postRun();
+
+            attempt.setStatus(WorkflowRunAttemptStatusType.DONE);
+            attempt.setFinished(new Date());
+            workflowRunAttemptDAO.save(attempt);
+            logger.info("recovered WorkflowRunAttempt {}", attempt.getId());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("failed to recover WorkflowRunAttempt {}", attempt.getId(), e);
+        } finally {
+            leaseManager.release(attempt.getId());
+            if (admissionController != null) {
+                admissionController.release(attempt.getId());
+            }
+        }
+    }
+
+    public WorkflowBeanService getWorkflowBeanService() {
+        return workflowBeanService;
+    }
+
+    public void setWorkflowBeanService(WorkflowBeanService workflowBeanService) {
+        this.workflowBeanService = workflowBeanService;
+    }
+
+    public String getWorkflowName() {
+        return workflowName;
+    }
+
+    public void setWorkflowName(String workflowName) {
+        this.workflowName = workflowName;
+    }
+
+    public AnnotationRegistry getAnnotationRegistry() {
+        return annotationRegistry;
+    }
+
+    public void setAnnotationRegistry(AnnotationRegistry annotationRegistry) {
+        this.annotationRegistry = annotationRegistry;
+    }
+
+    public RegistrationOutbox getRegistrationOutbox() {
+        return registrationOutbox;
+    }
+
+    public void setRegistrationOutbox(RegistrationOutbox registrationOutbox) {
+        this.registrationOutbox = registrationOutbox;
+    }
+
+    public AttemptLeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+
+    public void setLeaseManager(AttemptLeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    public AttemptRunner getAttemptRunner() {
+        return attemptRunner;
+    }
+
+    public void setAttemptRunner(AttemptRunner attemptRunner) {
+        this.attemptRunner = attemptRunner;
+    }
+
+    public Long getRecoveryPeriod() {
+        return recoveryPeriod;
+    }
+
+    public void setRecoveryPeriod(Long recoveryPeriod) {
+        this.recoveryPeriod = recoveryPeriod;
+    }
+
+    public Long getStaleAfter() {
+        return staleAfter;
+    }
+
+    public void setStaleAfter(Long staleAfter) {
+        this.staleAfter = staleAfter;
+    }
+
+}
@@ -0,0 +1,148 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.workflow.WorkflowTPE;
+
+/*
+ * Runs attempts for their whole lifetime, which is mostly spent waiting on condor. In pool mode that is the WorkflowTPE, so
+ * its pool size caps the DAGs in flight. In virtual mode every attempt gets its own virtual thread and a semaphore is what
+ * caps them, so thousands of waiting DAGs don't take thousands of pool slots. Virtual mode needs a java 21 jvm, on an older
+ * one the runner stays in pool mode rather than start a platform thread per attempt.
+ */
+public class AttemptRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttemptRunner.class);
+
+    public static final String MODE_POOL = "pool";
+
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private final WorkflowTPE threadPoolExecutor = new WorkflowTPE();
+
+    private ExecutorService virtualExecutor;
+
+    private Semaphore permits;
+
+    private String mode = MODE_POOL;
+
+    private Integer maxConcurrentAttempts = 1000;
+
+    public AttemptRunner() {
+        super();
+    }
+
+    public void start() throws Exception {
+        logger.info("ENTERING start()");
+        if (!isVirtual()) {
+            return;
+        }
+        this.virtualExecutor = createVirtualExecutor();
+        if (virtualExecutor == null) {
+            logger.error("virtual threads aren't available in this jvm, running attempts in pool mode, sized by corePoolSize/maxPoolSize");
+            this.mode = MODE_POOL;
+            return;
+        }
+        this.permits = new Semaphore(maxConcurrentAttempts);
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        threadPoolExecutor.shutdownNow();
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdownNow();
+            virtualExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    public void resize(int corePoolSize, int maxPoolSize) {
+        if (!isVirtual()) {
+            threadPoolExecutor.setCorePoolSize(corePoolSize);
+            threadPoolExecutor.setMaximumPoolSize(maxPoolSize);
+        }
+    }
+
+    /*
+     * has to succeed before an attempt is dequeued, a permit that isn't handed to submit() goes back through release()
+     */
+    public boolean tryAcquire() {
+        if (!isVirtual()) {
+            return true;
+        }
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        if (isVirtual()) {
+            permits.release();
+        }
+    }
+
+    public void submit(Runnable runnable) {
+        if (!isVirtual()) {
+            threadPoolExecutor.submit(runnable);
+            return;
+        }
+        try {
+            virtualExecutor.execute(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public String getStatus() {
+        if (!isVirtual()) {
+            return String.format("ActiveCount: %d, TaskCount: %d, CompletedTaskCount: %d", threadPoolExecutor.getActiveCount(),
+                    threadPoolExecutor.getTaskCount(), threadPoolExecutor.getCompletedTaskCount());
+        }
+        return String.format("Running: %d, Available: %d", maxConcurrentAttempts - permits.availablePermits(), permits.availablePermits());
+    }
+
+    private boolean isVirtual() {
+        return MODE_VIRTUAL.equalsIgnoreCase(mode);
+    }
+
+    private ExecutorService createVirtualExecutor() {
+        // built against java 8, so the java 21 factory is looked up at runtime
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService ret = (ExecutorService) method.invoke(null);
+            logger.info("running up to {} attempts on virtual threads", maxConcurrentAttempts);
+            return ret;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public Integer getMaxConcurrentAttempts() {
+        return maxConcurrentAttempts;
+    }
+
+    public void setMaxConcurrentAttempts(Integer maxConcurrentAttempts) {
+        this.maxConcurrentAttempts = maxConcurrentAttempts;
+    }
+
+}
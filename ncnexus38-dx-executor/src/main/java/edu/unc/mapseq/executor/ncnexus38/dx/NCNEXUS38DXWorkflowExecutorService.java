@@ -1,15 +1,22 @@
 package edu.unc.mapseq.executor.ncnexus38.dx;
 
-import java.util.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class NCNEXUS38DXWorkflowExecutorService {
+import edu.unc.mapseq.commons.ncnexus38.dx.DequeueSignal;
+
+public class NCNEXUS38DXWorkflowExecutorService implements DequeueSignal {
 
     private static final Logger logger = LoggerFactory.getLogger(NCNEXUS38DXWorkflowExecutorService.class);
 
-    private final Timer mainTimer = new Timer();
+    private final AtomicBoolean signalPending = new AtomicBoolean(false);
+
+    private ScheduledExecutorService scheduler;
 
     private NCNEXUS38DXWorkflowExecutorTask task;
 
@@ -21,14 +28,42 @@ public class NCNEXUS38DXWorkflowExecutorService {
 
     public void start() throws Exception {
         logger.info("ENTERING start()");
-        long delay = 1 * 60 * 1000; // 1 minute
-        mainTimer.scheduleAtFixedRate(task, delay, period * 60 * 1000);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        task.setDequeueSignal(this);
+        // the poll only reconciles attempts that were enqueued without a signal, e.g. from another node or by hand
+        long delay = 1 * 60; // 1 minute
+        scheduler.scheduleWithFixedDelay(() -> runTask(), delay, period * 60, TimeUnit.SECONDS);
     }
 
     public void stop() throws Exception {
         logger.info("ENTERING stop()");
-        mainTimer.purge();
-        mainTimer.cancel();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public void signal() {
+        logger.debug("ENTERING signal()");
+        if (scheduler == null || scheduler.isShutdown()) {
+            return;
+        }
+        // signals that arrive while a run is queued collapse into that run
+        if (signalPending.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                signalPending.set(false);
+                runTask();
+            });
+        }
+    }
+
+    private void runTask() {
+        try {
+            task.run();
+        } catch (Exception e) {
+            // an exception escaping a scheduled run would cancel the poll
+            logger.error(e.getMessage(), e);
+        }
     }
 
     public NCNEXUS38DXWorkflowExecutorTask getTask() {
@@ -1,37 +1,66 @@
 package edu.unc.mapseq.executor.ncnexus38.dx;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.unc.mapseq.commons.ncnexus38.dx.AnnotationRegistry;
+import edu.unc.mapseq.commons.ncnexus38.dx.DequeueSignal;
+import edu.unc.mapseq.commons.ncnexus38.dx.NCNEXUS38DXWorkflowUtil;
+import edu.unc.mapseq.commons.ncnexus38.dx.RegistrationOutbox;
+import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
 import edu.unc.mapseq.dao.MaPSeqDAOException;
 import edu.unc.mapseq.dao.WorkflowDAO;
 import edu.unc.mapseq.dao.WorkflowRunAttemptDAO;
+import edu.unc.mapseq.dao.model.Attribute;
+import edu.unc.mapseq.dao.model.Sample;
 import edu.unc.mapseq.dao.model.Workflow;
+import edu.unc.mapseq.dao.model.WorkflowRun;
 import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
 import edu.unc.mapseq.dao.model.WorkflowSystemType;
 import edu.unc.mapseq.workflow.WorkflowBeanService;
 import edu.unc.mapseq.workflow.WorkflowExecutor;
-import edu.unc.mapseq.workflow.WorkflowTPE;
 import edu.unc.mapseq.workflow.ncnexus38.dx.NCNEXUS38DXWorkflow;
+import edu.unc.mapseq.workflow.sequencing.SequencingWorkflowUtil;
 
-public class NCNEXUS38DXWorkflowExecutorTask extends TimerTask {
+public class NCNEXUS38DXWorkflowExecutorTask implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(NCNEXUS38DXWorkflowExecutorTask.class);
 
-    private final WorkflowTPE threadPoolExecutor = new WorkflowTPE();
-
     private WorkflowBeanService workflowBeanService;
 
     private String workflowName;
 
+    private AnnotationRegistry annotationRegistry;
+
+    private RegistrationOutbox registrationOutbox;
+
+    private AdmissionController admissionController;
+
+    private DequeueSignal dequeueSignal;
+
+    private AttemptLeaseManager leaseManager;
+
+    private AttemptRunner attemptRunner = new AttemptRunner();
+
+    private AdaptiveConcurrencyController concurrencyController;
+
+    private final AttemptCoalescer coalescer = new AttemptCoalescer();
+
+    private AttemptDequeuer attemptDequeuer = new AttemptDequeuer();
+
     public NCNEXUS38DXWorkflowExecutorTask() {
         super();
     }
@@ -40,11 +69,9 @@ public class NCNEXUS38DXWorkflowExecutorTask extends TimerTask {
     public void run() {
         logger.info("ENTERING run()");
 
-        threadPoolExecutor.setCorePoolSize(workflowBeanService.getCorePoolSize());
-        threadPoolExecutor.setMaximumPoolSize(workflowBeanService.getMaxPoolSize());
+        attemptRunner.resize(workflowBeanService.getCorePoolSize(), workflowBeanService.getMaxPoolSize());
 
-        logger.info(String.format("ActiveCount: %d, TaskCount: %d, CompletedTaskCount: %d", threadPoolExecutor.getActiveCount(),
-                threadPoolExecutor.getTaskCount(), threadPoolExecutor.getCompletedTaskCount()));
+        logger.info(attemptRunner.getStatus());
 
         WorkflowDAO workflowDAO = this.workflowBeanService.getMaPSeqDAOBeanService().getWorkflowDAO();
         WorkflowRunAttemptDAO workflowRunAttemptDAO = this.workflowBeanService.getMaPSeqDAOBeanService().getWorkflowRunAttemptDAO();
@@ -68,20 +95,106 @@ public class NCNEXUS38DXWorkflowExecutorTask extends TimerTask {
             Bundle bundle = bundleContext.getBundle();
             String version = bundle.getVersion().toString();
 
-            List<WorkflowRunAttempt> attempts = workflowRunAttemptDAO.findEnqueued(workflow.getId());
-            if (CollectionUtils.isNotEmpty(attempts)) {
-                logger.info("dequeuing {} WorkflowRunAttempt", attempts.size());
-                for (WorkflowRunAttempt attempt : attempts) {
+            List<WorkflowRunAttempt> enqueued = workflowRunAttemptDAO.findEnqueued(workflow.getId());
+            if (CollectionUtils.isNotEmpty(enqueued)) {
 
-                    NCNEXUS38DXWorkflow ncGenesDXWorkflow = new NCNEXUS38DXWorkflow();
-                    attempt.setVersion(version);
-                    attempt.setDequeued(new Date());
-                    workflowRunAttemptDAO.save(attempt);
+                // duplicates of a running attempt follow it right away, duplicates within the queue wait for the first of them
+                MaPSeqDAOBeanService maPSeqDAOBeanService = workflowBeanService.getMaPSeqDAOBeanService();
+                coalescer.retain(enqueued);
+                List<WorkflowRunAttempt> attempts = new ArrayList<WorkflowRunAttempt>();
+                Map<String, List<WorkflowRunAttempt>> duplicates = new HashMap<String, List<WorkflowRunAttempt>>();
+                Map<Long, Long> canonicalIds = new HashMap<Long, Long>();
+                for (WorkflowRunAttempt attempt : enqueued) {
+                    String key = coalescer.getKey(maPSeqDAOBeanService, attempt);
+                    Long canonicalId = coalescer.getCanonical(key);
+                    if (canonicalId != null) {
+                        canonicalIds.put(attempt.getId(), canonicalId);
+                    } else if (key != null && duplicates.containsKey(key)) {
+                        duplicates.get(key).add(attempt);
+                    } else {
+                        if (key != null) {
+                            duplicates.put(key, new ArrayList<WorkflowRunAttempt>());
+                        }
+                        attempts.add(attempt);
+                    }
+                }
+
+                // attempts that aren't admitted stay enqueued and are reconsidered on the next run
+                List<WorkflowRunAttempt> admitted = attempts;
+                if (admissionController != null) {
+                    if (concurrencyController != null) {
+                        concurrencyController.update(admissionController.getInFlightCount());
+                    }
+                    admitted = admissionController.admit(attempts, a -> getFairShareGroup(a));
+                }
+
+                List<WorkflowRunAttempt> batch = new ArrayList<WorkflowRunAttempt>();
+                for (WorkflowRunAttempt attempt : admitted) {
+                    if (attemptRunner.tryAcquire()) {
+                        batch.add(attempt);
+                    } else {
+                        logger.debug("no capacity left to run WorkflowRunAttempt {}", attempt.getId());
+                        if (admissionController != null) {
+                            admissionController.release(attempt.getId());
+                        }
+                    }
+                }
+
+                // executors on other nodes see the same enqueued attempts, only the one holding the lease runs it
+                logger.info("dequeuing {} WorkflowRunAttempt", batch.size());
+                List<WorkflowRunAttempt> dequeued = attemptDequeuer.dequeue(batch, workflow.getId(), version, workflowRunAttemptDAO);
+                Set<Long> dequeuedIds = new HashSet<Long>();
+                dequeued.forEach(a -> dequeuedIds.add(a.getId()));
+                for (WorkflowRunAttempt attempt : batch) {
+                    if (!dequeuedIds.contains(attempt.getId())) {
+                        attemptRunner.release();
+                        if (admissionController != null) {
+                            admissionController.release(attempt.getId());
+                        }
+                    }
+                }
+
+                List<WorkflowRunAttempt> followers = new ArrayList<WorkflowRunAttempt>();
+                for (WorkflowRunAttempt attempt : enqueued) {
+                    if (canonicalIds.containsKey(attempt.getId())) {
+                        followers.add(attempt);
+                    }
+                }
+                for (WorkflowRunAttempt attempt : dequeued) {
+                    String key = coalescer.getKey(maPSeqDAOBeanService, attempt);
+                    coalescer.start(key, attempt);
+                    if (key != null) {
+                        for (WorkflowRunAttempt duplicate : duplicates.get(key)) {
+                            canonicalIds.put(duplicate.getId(), attempt.getId());
+                            followers.add(duplicate);
+                        }
+                    }
+                }
+                if (!followers.isEmpty()) {
+                    follow(attemptDequeuer.dequeue(followers, workflow.getId(), version, workflowRunAttemptDAO), canonicalIds,
+                            workflowRunAttemptDAO);
+                }
 
+                for (WorkflowRunAttempt attempt : dequeued) {
+                    NCNEXUS38DXWorkflow ncGenesDXWorkflow = new NCNEXUS38DXWorkflow();
                     ncGenesDXWorkflow.setWorkflowBeanService(workflowBeanService);
                     ncGenesDXWorkflow.setWorkflowRunAttempt(attempt);
-                    threadPoolExecutor.submit(new WorkflowExecutor(ncGenesDXWorkflow));
-
+                    ncGenesDXWorkflow.setAnnotationRegistry(annotationRegistry);
+                    ncGenesDXWorkflow.setRegistrationOutbox(registrationOutbox);
+                    WorkflowExecutor workflowExecutor = new WorkflowExecutor(ncGenesDXWorkflow);
+                    attemptRunner.submit(() -> {
+                        RunningAttempt runningAttempt = new RunningAttempt(ncGenesDXWorkflow);
+                        if (leaseManager != null) {
+                            // the node that took the attempt over runs it from here on
+                            leaseManager.onLost(attempt.getId(), () -> runningAttempt.cancel());
+                        }
+                        try {
+                            workflowExecutor.run();
+                        } finally {
+                            runningAttempt.finish();
+                            release(attempt);
+                        }
+                    });
                 }
 
             }
@@ -92,6 +205,123 @@ public class NCNEXUS38DXWorkflowExecutorTask extends TimerTask {
 
     }
 
+    /*
+     * a duplicate is dequeued without a DAG of its own and keeps its lease, so neither another node nor the recovery scan
+     * picks it up, until the canonical attempt is done
+     */
+    private void follow(List<WorkflowRunAttempt> followers, Map<Long, Long> canonicalIds, WorkflowRunAttemptDAO workflowRunAttemptDAO) {
+        MaPSeqDAOBeanService maPSeqDAOBeanService = workflowBeanService.getMaPSeqDAOBeanService();
+        for (WorkflowRunAttempt attempt : followers) {
+            Long canonicalId = canonicalIds.get(attempt.getId());
+            try {
+                if (!coalescer.follow(canonicalId, attempt)) {
+                    // the canonical attempt finished in the meantime, back in the queue
+                    attempt.setDequeued(null);
+                    workflowRunAttemptDAO.save(attempt);
+                    if (leaseManager != null) {
+                        leaseManager.release(attempt.getId());
+                    }
+                    continue;
+                }
+
+                WorkflowRun workflowRun = attempt.getWorkflowRun();
+                Attribute attribute = new Attribute("satisfied_by_attempt", canonicalId.toString());
+                attribute.setId(maPSeqDAOBeanService.getAttributeDAO().save(attribute));
+                workflowRun.getAttributes().add(attribute);
+                maPSeqDAOBeanService.getWorkflowRunDAO().save(workflowRun);
+                logger.info("WorkflowRunAttempt {} is satisfied by WorkflowRunAttempt {}", attempt.getId(), canonicalId);
+            } catch (MaPSeqDAOException e) {
+                logger.error("failed to coalesce WorkflowRunAttempt {}", attempt.getId(), e);
+            }
+        }
+    }
+
+    private void release(WorkflowRunAttempt attempt) {
+        WorkflowRunAttemptDAO workflowRunAttemptDAO = workflowBeanService.getMaPSeqDAOBeanService().getWorkflowRunAttemptDAO();
+        List<WorkflowRunAttempt> followers = coalescer.finish(attempt);
+        if (CollectionUtils.isNotEmpty(followers)) {
+            WorkflowRunAttempt canonical = attempt;
+            try {
+                WorkflowRunAttempt current = workflowRunAttemptDAO.findById(attempt.getId());
+                if (current != null) {
+                    canonical = current;
+                }
+            } catch (MaPSeqDAOException e) {
+                logger.error("failed to reload WorkflowRunAttempt {}", attempt.getId(), e);
+            }
+            for (WorkflowRunAttempt follower : followers) {
+                follower.setStatus(canonical.getStatus());
+                follower.setFinished(new Date());
+                try {
+                    workflowRunAttemptDAO.save(follower);
+                } catch (MaPSeqDAOException e) {
+                    logger.error("failed to finish WorkflowRunAttempt {}", follower.getId(), e);
+                }
+                if (leaseManager != null) {
+                    leaseManager.release(follower.getId());
+                }
+            }
+        }
+
+        if (leaseManager != null) {
+            leaseManager.release(attempt.getId());
+        }
+        if (admissionController == null) {
+            return;
+        }
+        admissionController.release(attempt.getId());
+        // a slot opened up, look at the queue again without waiting for the poll
+        if (dequeueSignal != null) {
+            dequeueSignal.signal();
+        }
+    }
+
+    private String getFairShareGroup(WorkflowRunAttempt attempt) {
+        String requester = NCNEXUS38DXWorkflowUtil.getAttributeValue(attempt.getWorkflowRun(), "requester");
+        if (StringUtils.isNotBlank(requester)) {
+            return String.format("requester:%s", requester);
+        }
+        try {
+            Set<Sample> sampleSet = SequencingWorkflowUtil.getAggregatedSamples(workflowBeanService.getMaPSeqDAOBeanService(), attempt);
+            return String.format("subject:%s", NCNEXUS38DXWorkflowUtil.getSubjectName(sampleSet));
+        } catch (Exception e) {
+            logger.warn("no subject for WorkflowRunAttempt {}: {}", attempt.getId(), e.getMessage());
+            return String.format("attempt:%d", attempt.getId());
+        }
+    }
+
+    /*
+     * the thread running a WorkflowExecutor, interrupted out of waiting on its dag when the lease is lost. a pooled thread
+     * moves on to other attempts, so it is only interrupted until the executor returns
+     */
+    private static class RunningAttempt {
+
+        private final NCNEXUS38DXWorkflow workflow;
+
+        private final Thread thread = Thread.currentThread();
+
+        private boolean running = true;
+
+        RunningAttempt(NCNEXUS38DXWorkflow workflow) {
+            super();
+            this.workflow = workflow;
+        }
+
+        synchronized void cancel() {
+            workflow.cancel();
+            if (running) {
+                thread.interrupt();
+            }
+        }
+
+        synchronized void finish() {
+            this.running = false;
+            // clears an interrupt that came in after the executor returned
+            Thread.interrupted();
+        }
+
+    }
+
     public String getWorkflowName() {
         return workflowName;
     }
@@ -108,4 +338,68 @@ public class NCNEXUS38DXWorkflowExecutorTask extends TimerTask {
         this.workflowBeanService = workflowBeanService;
     }
 
+    public AnnotationRegistry getAnnotationRegistry() {
+        return annotationRegistry;
+    }
+
+    public void setAnnotationRegistry(AnnotationRegistry annotationRegistry) {
+        this.annotationRegistry = annotationRegistry;
+    }
+
+    public RegistrationOutbox getRegistrationOutbox() {
+        return registrationOutbox;
+    }
+
+    public void setRegistrationOutbox(RegistrationOutbox registrationOutbox) {
+        this.registrationOutbox = registrationOutbox;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    public DequeueSignal getDequeueSignal() {
+        return dequeueSignal;
+    }
+
+    public void setDequeueSignal(DequeueSignal dequeueSignal) {
+        this.dequeueSignal = dequeueSignal;
+    }
+
+    public AttemptRunner getAttemptRunner() {
+        return attemptRunner;
+    }
+
+    public void setAttemptRunner(AttemptRunner attemptRunner) {
+        this.attemptRunner = attemptRunner;
+    }
+
+    public AttemptDequeuer getAttemptDequeuer() {
+        return attemptDequeuer;
+    }
+
+    public void setAttemptDequeuer(AttemptDequeuer attemptDequeuer) {
+        this.attemptDequeuer = attemptDequeuer;
+    }
+
+    public AdaptiveConcurrencyController getConcurrencyController() {
+        return concurrencyController;
+    }
+
+    public void setConcurrencyController(AdaptiveConcurrencyController concurrencyController) {
+        this.concurrencyController = concurrencyController;
+    }
+
+    public AttemptLeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+
+    public void setLeaseManager(AttemptLeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
+
 }
@@ -0,0 +1,82 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import org.junit.Test;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.ClusterLoad;
+import edu.unc.mapseq.commons.ncnexus38.dx.ClusterLoadProbe;
+import edu.unc.mapseq.commons.ncnexus38.dx.CondorClusterLoadProbe;
+
+public class AdaptiveConcurrencyControllerTest {
+
+    @Test
+    public void testAIMD() {
+        LinkedList<ClusterLoad> loads = new LinkedList<ClusterLoad>();
+        ClusterLoadProbe probe = () -> {
+            if (loads.isEmpty()) {
+                throw new IOException("condor_q timed out");
+            }
+            return loads.removeFirst();
+        };
+
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController();
+        controller.setProbe(probe);
+        controller.setSampleInterval(0L);
+        controller.setInitialLimit(10);
+        controller.setMaxLimit(14);
+
+        // headroom, but an unused limit doesn't grow
+        loads.add(new ClusterLoad(0, 10, 0, 0, 5));
+        controller.update(3);
+        assertEquals(10, controller.getLimit());
+
+        loads.add(new ClusterLoad(0, 10, 0, 0, 5));
+        controller.update(10);
+        assertEquals(12, controller.getLimit());
+
+        loads.add(new ClusterLoad(0, 10, 0, 0, 5));
+        loads.add(new ClusterLoad(0, 10, 0, 0, 5));
+        controller.update(12);
+        controller.update(14);
+        assertEquals(14, controller.getLimit());
+
+        // idle jobs piling up
+        loads.add(new ClusterLoad(400, 100, 0, 60000, 5));
+        controller.update(14);
+        assertEquals(10, controller.getLimit());
+
+        // slow subjectMergeHome
+        loads.add(new ClusterLoad(0, 100, 0, 0, 10000));
+        controller.update(10);
+        assertEquals(7, controller.getLimit());
+
+        // a failed sample holds the limit
+        controller.update(7);
+        assertEquals(7, controller.getLimit());
+        assertEquals(10000, controller.getLastLoad().getStorageLatency());
+
+        for (int i = 0; i < 10; ++i) {
+            loads.add(new ClusterLoad(10, 100, 0, 7200000, -1));
+            controller.update(7);
+        }
+        assertEquals(5, controller.getLimit());
+    }
+
+    @Test
+    public void testParseCondorQ() {
+        long now = 1700000000000L;
+        ClusterLoad load = CondorClusterLoadProbe.parse("1 1699999400\n1 1699999800\n2 1699990000\n2 1699990000\n5 1699990000\n4 1699990000\n\n",
+                now);
+        assertEquals(2, load.getIdleJobs());
+        assertEquals(2, load.getRunningJobs());
+        assertEquals(1, load.getHeldJobs());
+        assertEquals(400000, load.getQueueWait());
+        assertTrue(load.getStorageLatency() < 0);
+    }
+
+}
@@ -0,0 +1,180 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import static edu.unc.mapseq.executor.ncnexus38.dx.LeaseTestSupport.createLeaseManager;
+import static edu.unc.mapseq.executor.ncnexus38.dx.LeaseTestSupport.expire;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AttemptLeaseManagerTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testClaim() throws Exception {
+        File leaseDirectory = tmpFolder.newFolder("attempt-leases");
+        AttemptLeaseManager a = createLeaseManager(leaseDirectory, "node-a", 300L);
+        AttemptLeaseManager b = createLeaseManager(leaseDirectory, "node-b", 300L);
+
+        assertTrue(a.claim(7L));
+        assertTrue(new File(leaseDirectory, "7.1.lease").exists());
+        // claiming a held lease again is a no-op, a live lease can't be taken by another node
+        assertTrue(a.claim(7L));
+        assertFalse(b.claim(7L));
+        assertTrue(a.isHeld(7L));
+        assertFalse(b.isHeld(7L));
+        assertEquals(Arrays.asList(), b.findExpired());
+
+        // renewing keeps the generation & leaves no tmp files behind
+        a.renew();
+        assertTrue(a.isHeld(7L));
+        assertEquals(Arrays.asList("7.1.lease"), Arrays.asList(leaseDirectory.list()));
+
+        a.release(7L);
+        assertFalse(a.isHeld(7L));
+        assertEquals(0, leaseDirectory.list().length);
+        assertTrue(b.claim(7L));
+        assertTrue(new File(leaseDirectory, "7.1.lease").exists());
+
+        // an unreadable lease is left alone
+        Files.write(new File(leaseDirectory, "8.1.lease").toPath(), "garbage".getBytes(StandardCharsets.UTF_8));
+        assertFalse(a.claim(8L));
+        assertEquals(Arrays.asList(), a.findExpired());
+    }
+
+    @Test
+    public void testClockSkew() throws Exception {
+        File leaseDirectory = tmpFolder.newFolder("attempt-leases");
+        AttemptLeaseManager b = createLeaseManager(leaseDirectory, "node-b", 300L);
+        long hour = TimeUnit.HOURS.toMillis(1);
+
+        // written just now by a node whose clock is an hour behind, only the mtime counts
+        Files.write(new File(leaseDirectory, "9.1.lease").toPath(),
+                Arrays.asList("node=node-a", String.format("written=%d", System.currentTimeMillis() - hour)),
+                StandardCharsets.UTF_8);
+        assertFalse(b.claim(9L));
+        assertEquals(Arrays.asList(), b.findExpired());
+
+        // & one whose clock is an hour ahead still expires once it isn't renewed
+        Files.write(new File(leaseDirectory, "10.1.lease").toPath(),
+                Arrays.asList("node=node-a", String.format("written=%d", System.currentTimeMillis() + hour)),
+                StandardCharsets.UTF_8);
+        expire(leaseDirectory, 10L, 1);
+        assertEquals(Arrays.asList(10L), b.findExpired());
+        assertTrue(b.claim(10L));
+
+        // the probes telling the time leave nothing behind
+        assertEquals(Arrays.asList("10.2.lease", "9.1.lease"), sorted(leaseDirectory.list()));
+    }
+
+    @Test
+    public void testConcurrentClaim() throws Exception {
+        File leaseDirectory = tmpFolder.newFolder("attempt-leases");
+
+        // nodes racing for the same generation, the hard link succeeds on exactly one
+        for (long workflowRunAttemptId = 1; workflowRunAttemptId <= 20; ++workflowRunAttemptId) {
+            Long id = workflowRunAttemptId;
+            CountDownLatch latch = new CountDownLatch(1);
+            ExecutorService es = Executors.newFixedThreadPool(8);
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; ++i) {
+                AttemptLeaseManager leaseManager = createLeaseManager(leaseDirectory, String.format("node-%d", i), 300L);
+                futures.add(es.submit((Callable<Boolean>) () -> {
+                    latch.await();
+                    return leaseManager.claim(id);
+                }));
+            }
+            latch.countDown();
+            int claimed = 0;
+            for (Future<Boolean> future : futures) {
+                if (future.get()) {
+                    ++claimed;
+                }
+            }
+            es.shutdown();
+            es.awaitTermination(10, TimeUnit.SECONDS);
+            assertEquals(1, claimed);
+            assertTrue(new File(leaseDirectory, String.format("%d.1.lease", id)).exists());
+        }
+
+        // only the lease files are left
+        assertEquals(20, leaseDirectory.list().length);
+    }
+
+    @Test
+    public void testTakeover() throws Exception {
+        File leaseDirectory = tmpFolder.newFolder("attempt-leases");
+        AttemptLeaseManager a = createLeaseManager(leaseDirectory, "node-a", 300L);
+        AttemptLeaseManager b = createLeaseManager(leaseDirectory, "node-b", 300L);
+
+        AtomicInteger lost = new AtomicInteger();
+        assertTrue(a.claim(11L));
+        assertTrue(a.claim(12L));
+        a.onLost(11L, () -> lost.incrementAndGet());
+        // node-a stopped renewing them
+        expire(leaseDirectory, 11L, 1);
+        expire(leaseDirectory, 12L, 1);
+
+        // a node doesn't report its own leases as expired
+        assertEquals(Arrays.asList(), a.findExpired());
+        assertEquals(Arrays.asList(11L, 12L), b.findExpired());
+
+        // taking over claims the next generation & removes the previous ones
+        assertTrue(b.claim(11L));
+        assertFalse(new File(leaseDirectory, "11.1.lease").exists());
+        assertTrue(new File(leaseDirectory, "11.2.lease").exists());
+        assertEquals(Arrays.asList(12L), b.findExpired());
+
+        // the previous owner learns of it on its next renewal
+        assertTrue(a.isHeld(11L));
+        a.renew();
+        assertEquals(1, lost.get());
+        assertFalse(a.isHeld(11L));
+        assertTrue(a.isHeld(12L));
+        assertFalse(a.claim(11L));
+
+        // releasing a lost lease doesn't touch the new owner's generation
+        a.release(11L);
+        assertTrue(new File(leaseDirectory, "11.2.lease").exists());
+        b.renew();
+        assertTrue(b.isHeld(11L));
+
+        // the next takeover goes on from the current generation
+        b.release(11L);
+        assertTrue(a.claim(11L));
+        assertTrue(new File(leaseDirectory, "11.1.lease").exists());
+        expire(leaseDirectory, 11L, 1);
+        assertTrue(b.claim(11L));
+        assertTrue(new File(leaseDirectory, "11.2.lease").exists());
+        a.renew();
+        assertEquals(1, lost.get());
+        assertFalse(a.isHeld(11L));
+    }
+
+    private static List<String> sorted(String[] names) {
+        List<String> ret = new ArrayList<String>(Arrays.asList(names));
+        Collections.sort(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,170 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import static edu.unc.mapseq.executor.ncnexus38.dx.LeaseTestSupport.createLeaseManager;
+import static edu.unc.mapseq.executor.ncnexus38.dx.LeaseTestSupport.expire;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
+import edu.unc.mapseq.dao.WorkflowRunAttemptDAO;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+import edu.unc.mapseq.dao.model.WorkflowRunAttemptStatusType;
+import edu.unc.mapseq.workflow.WorkflowBeanService;
+
+public class AttemptRecoveryServiceTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final Map<Long, WorkflowRunAttempt> attempts = new ConcurrentHashMap<Long, WorkflowRunAttempt>();
+
+    private final List<Long> saved = new ArrayList<Long>();
+
+    @Test
+    public void testScan() throws Exception {
+        File tmpDir = tmpFolder.newFolder("attempt-recovery");
+        File leaseDirectory = new File(tmpDir, "leases");
+        leaseDirectory.mkdirs();
+
+        // leases of a node that went away
+        AttemptLeaseManager gone = createLeaseManager(leaseDirectory, "node-a", 300L);
+        // finished before the node went away
+        addAttempt(1L, WorkflowRunAttemptStatusType.DONE, new Date(), null);
+        // dequeued, nothing written yet
+        addAttempt(2L, WorkflowRunAttemptStatusType.PENDING, null, null);
+        // dag written but never submitted
+        File submitDirectory = new File(tmpDir, "3");
+        submitDirectory.mkdirs();
+        Files.write(new File(submitDirectory, "NCNEXUS38DX.dag").toPath(), Arrays.asList("JOB a a.sub"), StandardCharsets.UTF_8);
+        addAttempt(3L, WorkflowRunAttemptStatusType.PENDING, null, submitDirectory);
+        // 4 is gone from the database
+        for (long workflowRunAttemptId = 1; workflowRunAttemptId <= 4; ++workflowRunAttemptId) {
+            assertTrue(gone.claim(workflowRunAttemptId));
+            expire(leaseDirectory, workflowRunAttemptId, 1);
+        }
+        // still leased by a live node
+        addAttempt(5L, WorkflowRunAttemptStatusType.PENDING, null, null);
+        assertTrue(createLeaseManager(leaseDirectory, "node-c", 300L).claim(5L));
+
+        AttemptLeaseManager leaseManager = createLeaseManager(leaseDirectory, "node-b", 300L);
+        AttemptRecoveryService recoveryService = createRecoveryService(leaseManager);
+        recoveryService.scan();
+
+        // finished & unknown attempts only lose their leases
+        assertEquals(WorkflowRunAttemptStatusType.DONE, attempts.get(1L).getStatus());
+        assertFalse(saved.contains(1L));
+
+        // the ones that never reached condor are back in the queue
+        assertNull(attempts.get(2L).getDequeued());
+        assertNull(attempts.get(3L).getDequeued());
+        assertEquals(Arrays.asList(2L, 3L), saved);
+
+        // the live lease is left alone
+        assertNotNull(attempts.get(5L).getDequeued());
+        assertEquals(Arrays.asList("5.1.lease"), Arrays.asList(leaseDirectory.list()));
+        assertEquals(Arrays.asList(), leaseManager.findExpired());
+    }
+
+    @Test
+    public void testLostLease() throws Exception {
+        File tmpDir = tmpFolder.newFolder("attempt-recovery");
+        File leaseDirectory = new File(tmpDir, "leases");
+        leaseDirectory.mkdirs();
+
+        // DAGMan is still at it
+        File submitDirectory = new File(tmpDir, "6");
+        submitDirectory.mkdirs();
+        Files.write(new File(submitDirectory, "NCNEXUS38DX.dag").toPath(), Arrays.asList("JOB a a.sub"), StandardCharsets.UTF_8);
+        Files.write(new File(submitDirectory, "NCNEXUS38DX.dag.dagman.out").toPath(), Arrays.asList("Running DAG"),
+                StandardCharsets.UTF_8);
+        Files.write(new File(submitDirectory, "NCNEXUS38DX.dag.lock").toPath(), Arrays.asList("1234"), StandardCharsets.UTF_8);
+        addAttempt(6L, WorkflowRunAttemptStatusType.PENDING, null, submitDirectory);
+
+        // another node took the attempt over, recovery stops waiting on the dag & doesn't touch the attempt
+        AttemptLeaseManager leaseManager = createLeaseManager(leaseDirectory, "node-b", 300L);
+        assertTrue(createLeaseManager(leaseDirectory, "node-c", 300L).claim(6L));
+        createRecoveryService(leaseManager).recover(attempts.get(6L));
+        assertNotNull(attempts.get(6L).getDequeued());
+        assertEquals(WorkflowRunAttemptStatusType.PENDING, attempts.get(6L).getStatus());
+        assertEquals(Arrays.asList(), saved);
+        assertTrue(new File(leaseDirectory, "6.1.lease").exists());
+    }
+
+    private void addAttempt(Long id, WorkflowRunAttemptStatusType status, Date finished, File submitDirectory) {
+        WorkflowRunAttempt attempt = new WorkflowRunAttempt();
+        attempt.setId(id);
+        attempt.setStatus(status);
+        attempt.setDequeued(new Date());
+        attempt.setFinished(finished);
+        if (submitDirectory != null) {
+            attempt.setSubmitDirectory(submitDirectory.getAbsolutePath());
+        }
+        attempts.put(id, attempt);
+    }
+
+    private AttemptRecoveryService createRecoveryService(AttemptLeaseManager leaseManager) {
+        WorkflowRunAttemptDAO workflowRunAttemptDAO = createProxy(WorkflowRunAttemptDAO.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findById":
+                    return attempts.get(args[0]);
+                case "save":
+                    WorkflowRunAttempt attempt = (WorkflowRunAttempt) args[0];
+                    saved.add(attempt.getId());
+                    return attempt.getId();
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        MaPSeqDAOBeanService maPSeqDAOBeanService = createProxy(MaPSeqDAOBeanService.class, (proxy, method, args) -> {
+            if ("getWorkflowRunAttemptDAO".equals(method.getName())) {
+                return workflowRunAttemptDAO;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        WorkflowBeanService workflowBeanService = createProxy(WorkflowBeanService.class, (proxy, method, args) -> {
+            if ("getMaPSeqDAOBeanService".equals(method.getName())) {
+                return maPSeqDAOBeanService;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        AttemptRecoveryService ret = new AttemptRecoveryService();
+        ret.setWorkflowBeanService(workflowBeanService);
+        ret.setLeaseManager(leaseManager);
+        // recovered on the scanning thread, so the outcome is there once scan() returns
+        ret.setAttemptRunner(new AttemptRunner() {
+
+            @Override
+            public void submit(Runnable runnable) {
+                runnable.run();
+            }
+
+        });
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(AttemptRecoveryServiceTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+}
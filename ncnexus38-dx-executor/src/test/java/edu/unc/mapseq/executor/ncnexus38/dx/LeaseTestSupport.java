@@ -0,0 +1,34 @@
+package edu.unc.mapseq.executor.ncnexus38.dx;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * lease managers & leases for the executor tests, all on the same lease directory like the nodes sharing storage
+ */
+final class LeaseTestSupport {
+
+    private LeaseTestSupport() {
+        super();
+    }
+
+    static AttemptLeaseManager createLeaseManager(File leaseDirectory, String nodeId, Long leaseDuration) {
+        // not started, the tests renew instead of the heartbeat
+        AttemptLeaseManager ret = new AttemptLeaseManager();
+        ret.setLeaseDirectory(leaseDirectory.getAbsolutePath());
+        ret.setNodeId(nodeId);
+        ret.setLeaseDuration(leaseDuration);
+        return ret;
+    }
+
+    /*
+     * as if the owner stopped renewing the lease well past any lease duration used in the tests
+     */
+    static void expire(File leaseDirectory, Long workflowRunAttemptId, int generation) {
+        File leaseFile = new File(leaseDirectory, String.format("%d.%d.lease", workflowRunAttemptId, generation));
+        assertTrue(leaseFile.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+    }
+
+}
@@ -0,0 +1,170 @@
+package edu.unc.mapseq.messaging.ncnexus38.dx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import edu.unc.mapseq.dao.MaPSeqDAOException;
+import edu.unc.mapseq.workflow.WorkflowException;
+import edu.unc.mapseq.workflow.model.WorkflowAttribute;
+import edu.unc.mapseq.workflow.model.WorkflowEntity;
+import edu.unc.mapseq.workflow.model.WorkflowMessage;
+
+/*
+ * Reads a bulk request, one message carrying many runs:
+ *
+ * {"priority": "BACKFILL", "list_version": "38",
+ *  "requests": [{"sampleId": 123, "workflowRunName": "NCX_00004-38-1", "dx_id": "1,2"}, ...]}
+ *
+ * String fields of a request become attributes of its WorkflowRun, top level string fields are defaults for every request
+ * that follows them. The requests are streamed and handed over as regular single run messages in batches, the document is
+ * never held as a tree. The factory decides the encoding, the same layout works in JSON, Smile & CBOR.
+ */
+public class BulkRequestReader {
+
+    public interface BatchConsumer {
+
+        void accept(List<WorkflowMessage> batch) throws WorkflowException, MaPSeqDAOException;
+
+    }
+
+    public static boolean isBulk(JsonFactory factory, byte[] payload) throws IOException {
+        try (JsonParser parser = factory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            // a single run message always has entities, a bulk one never does
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if ("requests".equals(name)) {
+                    return true;
+                }
+                if ("entities".equals(name)) {
+                    return false;
+                }
+                parser.nextToken();
+                parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    /*
+     * returns how many requests were read
+     */
+    public static int read(JsonFactory factory, byte[] payload, int batchSize, BatchConsumer consumer)
+            throws IOException, WorkflowException, MaPSeqDAOException {
+        int count = 0;
+        Map<String, String> defaults = new LinkedHashMap<String, String>();
+        List<WorkflowMessage> batch = new ArrayList<WorkflowMessage>(batchSize);
+
+        try (JsonParser parser = factory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("bulk request is not an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("requests".equals(name) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        batch.add(readRequest(parser, defaults));
+                        ++count;
+                        if (batch.size() >= batchSize) {
+                            consumer.accept(batch);
+                            batch = new ArrayList<WorkflowMessage>(batchSize);
+                        }
+                    }
+                } else if (token == JsonToken.VALUE_STRING || token == JsonToken.VALUE_NUMBER_INT) {
+                    defaults.put(name, parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+        return count;
+    }
+
+    private static WorkflowMessage readRequest(JsonParser parser, Map<String, String> defaults) throws IOException {
+        String sampleId = null;
+        String workflowRunName = null;
+        Map<String, String> attributes = new LinkedHashMap<String, String>(defaults);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY && "attributes".equals(name)) {
+                // [{"name": ..., "value": ...}] like the single run message
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String attributeName = null;
+                    String attributeValue = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("name".equals(field)) {
+                            attributeName = parser.getText();
+                        } else if ("value".equals(field)) {
+                            attributeValue = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (attributeName != null) {
+                        attributes.put(attributeName, attributeValue);
+                    }
+                }
+                continue;
+            }
+            if (token == JsonToken.START_ARRAY || token == JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if ("sampleId".equals(name)) {
+                sampleId = parser.getText();
+            } else if ("workflowRunName".equals(name)) {
+                workflowRunName = parser.getText();
+            } else {
+                attributes.put(name, parser.getText());
+            }
+        }
+
+        if (sampleId == null || workflowRunName == null) {
+            throw new IOException(String.format("bulk request entry lacks sampleId or workflowRunName: %s/%s", sampleId, workflowRunName));
+        }
+
+        WorkflowEntity sampleEntity = new WorkflowEntity();
+        sampleEntity.setEntityType("Sample");
+        try {
+            sampleEntity.setId(Long.valueOf(sampleId));
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("bulk request entry has a bad sampleId: %s", sampleId), e);
+        }
+
+        List<WorkflowAttribute> workflowAttributes = new ArrayList<WorkflowAttribute>();
+        attributes.forEach((a, b) -> workflowAttributes.add(new WorkflowAttribute(a, b)));
+        WorkflowEntity workflowRunEntity = new WorkflowEntity();
+        workflowRunEntity.setEntityType("WorkflowRun");
+        workflowRunEntity.setName(workflowRunName);
+        workflowRunEntity.setAttributes(workflowAttributes);
+
+        List<WorkflowEntity> entities = new ArrayList<WorkflowEntity>();
+        entities.add(sampleEntity);
+        entities.add(workflowRunEntity);
+        WorkflowMessage ret = new WorkflowMessage();
+        ret.setEntities(entities);
+        return ret;
+    }
+
+}
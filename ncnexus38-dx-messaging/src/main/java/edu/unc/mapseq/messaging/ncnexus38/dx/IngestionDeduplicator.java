@@ -0,0 +1,297 @@
+package edu.unc.mapseq.messaging.ncnexus38.dx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.workflow.model.WorkflowAttribute;
+import edu.unc.mapseq.workflow.model.WorkflowEntity;
+import edu.unc.mapseq.workflow.model.WorkflowMessage;
+
+/*
+ * Remembers which requests were already turned into a WorkflowRunAttempt. A request is identified by a hash of its
+ * entities, so a redelivered message and a resent order look the same. Recent keys are held in an LRU of maxEntries keys,
+ * which caps the window as much as the retention does: a key pushed out by newer ones is forgotten even within retention days.
+ * Every key is also appended to <logDirectory>/<nodeId>.log, the logs of all nodes are read back on start and keys older than
+ * the retention are forgotten. A node only ever writes & compacts its own log, so the node id has to be unique among the JVMs
+ * sharing logDirectory. The log stays open and is written by a single thread, consumers only queue their lines, so they don't
+ * wait on the shared filesystem.
+ */
+public class IngestionDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionDeduplicator.class);
+
+    private final Set<String> pending = new HashSet<String>();
+
+    private final Queue<String> unwritten = new ConcurrentLinkedQueue<String>();
+
+    private ExecutorService logWriterExecutor;
+
+    private BufferedWriter logWriter;
+
+    private Map<String, Long> ingested;
+
+    private String logDirectory;
+
+    private String nodeId;
+
+    // caps the dedup window along with the retention
+    private Integer maxEntries = 50000;
+
+    // days
+    private Long retention = 7L;
+
+    public IngestionDeduplicator() {
+        super();
+    }
+
+    public synchronized void start() throws Exception {
+        logger.info("ENTERING start()");
+        this.ingested = new LinkedHashMap<String, Long>(16, 0.75F, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+
+        };
+
+        if (StringUtils.isEmpty(logDirectory)) {
+            return;
+        }
+        if (StringUtils.isBlank(nodeId)) {
+            this.nodeId = InetAddress.getLocalHost().getHostName();
+        }
+        File directory = new File(logDirectory);
+        Files.createDirectories(directory.toPath());
+        File file = getLogFile();
+
+        long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retention);
+        File[] logFiles = directory.listFiles((a, b) -> b.endsWith(".log"));
+        // oldest first, so the most recent keys are the ones left in the LRU
+        Arrays.sort(logFiles, Comparator.comparingLong(File::lastModified));
+        for (File logFile : logFiles) {
+            if (!logFile.equals(file) && logFile.lastModified() < oldest) {
+                // nothing in there is within the retention
+                continue;
+            }
+            // the lines of this node's log that are still within the retention, the LRU may not hold them all
+            List<String> retained = new ArrayList<String>();
+            int lines = 0;
+            try (BufferedReader br = Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    ++lines;
+                    String[] columns = line.split("\t");
+                    // another node may be half way through writing its last line, a cut off time only makes the key older
+                    if (columns.length != 2 || !StringUtils.isNumeric(columns[1])) {
+                        continue;
+                    }
+                    long ingestedAt = Long.parseLong(columns[1]);
+                    if (ingestedAt >= oldest) {
+                        ingested.merge(columns[0], ingestedAt, Math::max);
+                        if (logFile.equals(file)) {
+                            retained.add(line);
+                        }
+                    }
+                }
+            }
+            if (logFile.equals(file) && lines > retained.size() * 2) {
+                compact(file, retained);
+            }
+        }
+        logger.info("loaded {} ingested request keys from {} logs in {}", ingested.size(), logFiles.length, logDirectory);
+
+        openLog(file);
+    }
+
+    private void openLog(File file) throws IOException {
+        this.logWriter = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        this.logWriterExecutor = Executors.newSingleThreadExecutor(a -> {
+            Thread thread = new Thread(a, "ingested-request-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void stop() throws Exception {
+        logger.info("ENTERING stop()");
+        ExecutorService executor;
+        synchronized (this) {
+            executor = logWriterExecutor;
+            this.logWriterExecutor = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("ingested request log writer didn't finish");
+        }
+        // lines queued after the last write
+        writeLog();
+        logWriter.close();
+    }
+
+    public String getKey(WorkflowMessage workflowMessage) {
+        List<String> entities = new ArrayList<String>();
+        for (WorkflowEntity entity : workflowMessage.getEntities()) {
+            List<String> attributes = new ArrayList<String>();
+            if (CollectionUtils.isNotEmpty(entity.getAttributes())) {
+                for (WorkflowAttribute attribute : entity.getAttributes()) {
+                    attributes.add(String.format("%s=%s", attribute.getName(), attribute.getValue()));
+                }
+            }
+            Collections.sort(attributes);
+            entities.add(String.format("%s|%s|%s|%s", entity.getEntityType(), entity.getId(), entity.getName(), String.join(",", attributes)));
+        }
+        Collections.sort(entities);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(String.join("\n", entities).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * false when the request was already ingested or is being ingested by another consumer right now
+     */
+    public synchronized boolean claim(String key) {
+        Long ingestedAt = ingested.get(key);
+        if (ingestedAt != null && ingestedAt >= System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retention)) {
+            return false;
+        }
+        return pending.add(key);
+    }
+
+    public void complete(String key) {
+        long now = System.currentTimeMillis();
+        ExecutorService executor;
+        synchronized (this) {
+            pending.remove(key);
+            ingested.put(key, now);
+            executor = logWriterExecutor;
+        }
+        if (executor == null) {
+            return;
+        }
+        unwritten.add(String.format("%s\t%d%n", key, now));
+        try {
+            executor.execute(() -> writeLog());
+        } catch (RejectedExecutionException e) {
+            logger.warn("ingested request log is closed, {} is only remembered in memory", key);
+        }
+    }
+
+    /*
+     * runs on the writer thread, or on stop() once it is done. lines queued while a write was in progress go out together
+     */
+    private void writeLog() {
+        if (unwritten.isEmpty()) {
+            return;
+        }
+        try {
+            String line;
+            while ((line = unwritten.poll()) != null) {
+                logWriter.write(line);
+            }
+            logWriter.flush();
+        } catch (IOException e) {
+            logger.warn("failed to log ingested requests", e);
+        }
+    }
+
+    public synchronized void abandon(String key) {
+        pending.remove(key);
+    }
+
+    /*
+     * only ever this node's log, before it is opened, so there is no writer to lose its appends to the replaced file
+     */
+    private void compact(File file, List<String> retained) throws IOException {
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : retained) {
+                bw.write(line);
+                bw.newLine();
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("compacted {} to {} keys", file, retained.size());
+    }
+
+    public File getLogFile() {
+        return new File(logDirectory, String.format("%s.log", nodeId));
+    }
+
+    public String getLogDirectory() {
+        return logDirectory;
+    }
+
+    public void setLogDirectory(String logDirectory) {
+        this.logDirectory = logDirectory;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Integer getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(Integer maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public Long getRetention() {
+        return retention;
+    }
+
+    public void setRetention(Long retention) {
+        this.retention = retention;
+    }
+
+}
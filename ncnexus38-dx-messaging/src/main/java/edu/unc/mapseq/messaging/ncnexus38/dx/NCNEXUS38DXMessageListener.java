@@ -1,8 +1,14 @@
 package edu.unc.mapseq.messaging.ncnexus38.dx;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.TextMessage;
@@ -13,8 +19,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
-import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
+import edu.unc.mapseq.commons.ncnexus38.dx.DequeueSignal;
+import edu.unc.mapseq.commons.ncnexus38.dx.MessageEncoding;
 import edu.unc.mapseq.dao.MaPSeqDAOException;
 import edu.unc.mapseq.dao.WorkflowDAO;
 import edu.unc.mapseq.dao.WorkflowRunAttemptDAO;
@@ -30,6 +38,24 @@ public class NCNEXUS38DXMessageListener extends AbstractSequencingMessageListene
 
     private static final Logger logger = LoggerFactory.getLogger(NCNEXUS38DXMessageListener.class);
 
+    // readers are immutable and thread safe, the consumers share one per encoding
+    private static final Map<MessageEncoding, ObjectReader> WORKFLOW_MESSAGE_READERS = new EnumMap<MessageEncoding, ObjectReader>(
+            MessageEncoding.class);
+
+    static {
+        for (MessageEncoding encoding : MessageEncoding.values()) {
+            WORKFLOW_MESSAGE_READERS.put(encoding, new ObjectMapper(encoding.createFactory()).readerFor(WorkflowMessage.class));
+        }
+    }
+
+    private List<DequeueSignal> dequeueSignals;
+
+    private volatile Workflow workflow;
+
+    private IngestionDeduplicator deduplicator;
+
+    private Integer bulkBatchSize = 100;
+
     public NCNEXUS38DXMessageListener() {
         super();
     }
@@ -38,60 +64,246 @@ public class NCNEXUS38DXMessageListener extends AbstractSequencingMessageListene
     public void onMessage(Message message) {
         logger.debug("ENTERING onMessage(Message)");
 
-        String messageValue = null;
+        MessageEncoding encoding = getEncoding(message);
+        byte[] payload = getPayload(message);
+        if (encoding == null || payload == null) {
+            return;
+        }
+
+        if (isBulk(encoding, payload)) {
+            try {
+                ingestBulk(encoding, payload);
+            } catch (WorkflowException | MaPSeqDAOException e) {
+                /*
+                 * an auto acknowledged message is acked once onMessage returns, throwing has the broker redeliver the whole
+                 * request instead and the runs already stored are skipped by the deduplicator
+                 */
+                logger.error("failed to ingest bulk request, it will be redelivered", e);
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+
+        try {
+            WorkflowMessage workflowMessage = parse(encoding, payload);
+            if (workflowMessage == null) {
+                return;
+            }
+            ingest(Collections.singletonList(workflowMessage));
+        } catch (WorkflowException | MaPSeqDAOException e1) {
+            logger.error(e1.getMessage(), e1);
+            return;
+        }
+
+        signal();
+    }
+
+    /*
+     * a batch received in a transacted session, unparseable messages are dropped as before but a failure to store any run is
+     * thrown so the session can be rolled back and the batch redelivered
+     */
+    public void onMessages(List<Message> messages) throws WorkflowException, MaPSeqDAOException {
+        logger.debug("ENTERING onMessages(List<Message>)");
+
+        List<WorkflowMessage> workflowMessages = new ArrayList<WorkflowMessage>(messages.size());
+        for (Message message : messages) {
+            MessageEncoding encoding = getEncoding(message);
+            byte[] payload = getPayload(message);
+            if (encoding == null || payload == null) {
+                continue;
+            }
+            if (isBulk(encoding, payload)) {
+                ingestBulk(encoding, payload);
+                continue;
+            }
+            WorkflowMessage workflowMessage = parse(encoding, payload);
+            if (workflowMessage != null) {
+                workflowMessages.add(workflowMessage);
+            }
+        }
+        if (workflowMessages.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        ingest(workflowMessages);
+        logger.info("ingested {} of {} messages in {} ms", workflowMessages.size(), messages.size(), System.currentTimeMillis() - start);
+
+        signal();
+    }
+
+    private MessageEncoding getEncoding(Message message) {
+        String contentType = null;
+        try {
+            contentType = message.getStringProperty(MessageEncoding.PROPERTY);
+        } catch (JMSException e) {
+            logger.warn("failed to read {}", MessageEncoding.PROPERTY, e);
+        }
+        MessageEncoding ret = MessageEncoding.fromContentType(contentType);
+        if (ret == null) {
+            logger.error("unsupported {}: {}", MessageEncoding.PROPERTY, contentType);
+        }
+        return ret;
+    }
+
+    private byte[] getPayload(Message message) {
+        byte[] ret = null;
 
         try {
             if (message instanceof TextMessage) {
                 logger.debug("received TextMessage");
                 TextMessage textMessage = (TextMessage) message;
-                messageValue = textMessage.getText();
+                String messageValue = textMessage.getText();
+                if (StringUtils.isNotEmpty(messageValue)) {
+                    ret = messageValue.getBytes(StandardCharsets.UTF_8);
+                }
+            } else if (message instanceof BytesMessage) {
+                logger.debug("received BytesMessage");
+                BytesMessage bytesMessage = (BytesMessage) message;
+                if (bytesMessage.getBodyLength() > 0) {
+                    ret = new byte[(int) bytesMessage.getBodyLength()];
+                    bytesMessage.readBytes(ret);
+                }
             }
         } catch (JMSException e2) {
             e2.printStackTrace();
         }
 
-        if (StringUtils.isEmpty(messageValue)) {
+        if (ret == null) {
             logger.warn("message value is empty");
-            return;
         }
+        return ret;
+    }
 
-        logger.info("messageValue: {}", messageValue);
+    private boolean isBulk(MessageEncoding encoding, byte[] payload) {
+        try {
+            return BulkRequestReader.isBulk(encoding.getFactory(), payload);
+        } catch (IOException e) {
+            // left to parse() to report
+            return false;
+        }
+    }
 
-        ObjectMapper mapper = new ObjectMapper();
-        WorkflowMessage workflowMessage = null;
+    private WorkflowMessage parse(MessageEncoding encoding, byte[] payload) {
+        if (encoding.isBinary()) {
+            logger.info("{} message of {} bytes", encoding, payload.length);
+        } else {
+            logger.info("messageValue: {}", new String(payload, StandardCharsets.UTF_8));
+        }
 
         try {
-            workflowMessage = mapper.readValue(messageValue, WorkflowMessage.class);
+            WorkflowMessage workflowMessage = WORKFLOW_MESSAGE_READERS.get(encoding).readValue(payload);
             if (workflowMessage.getEntities() == null) {
                 logger.error("json lacks entities");
-                return;
+                return null;
             }
+            return workflowMessage;
         } catch (IOException e) {
-            logger.error("BAD JSON format", e);
-            return;
+            logger.error("BAD {} format", encoding, e);
+            return null;
         }
+    }
 
-        MaPSeqDAOBeanService daoBean = getWorkflowBeanService().getMaPSeqDAOBeanService();
-        WorkflowDAO workflowDAO = daoBean.getWorkflowDAO();
-        WorkflowRunAttemptDAO workflowRunAttemptDAO = daoBean.getWorkflowRunAttemptDAO();
-
+    /*
+     * a bulk request is streamed and ingested bulkBatchSize runs at a time, the executor is signalled after each batch so
+     * the first DAGs start while the rest of the request is still being stored
+     */
+    private void ingestBulk(MessageEncoding encoding, byte[] payload) throws WorkflowException, MaPSeqDAOException {
+        logger.info("{} bulk request of {} bytes", encoding, payload.length);
+        long start = System.currentTimeMillis();
         try {
+            int count = BulkRequestReader.read(encoding.getFactory(), payload, bulkBatchSize, batch -> {
+                ingest(batch);
+                signal();
+            });
+            logger.info("ingested bulk request of {} runs in {} ms", count, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            // runs read before the bad entry are kept, resending the corrected request skips them
+            logger.error("BAD {} format in bulk request", encoding, e);
+        }
+    }
+
+    private void ingest(List<WorkflowMessage> workflowMessages) throws WorkflowException, MaPSeqDAOException {
+        WorkflowRunAttemptDAO workflowRunAttemptDAO = getWorkflowBeanService().getMaPSeqDAOBeanService().getWorkflowRunAttemptDAO();
+        Workflow workflow = getWorkflow();
+        for (WorkflowMessage workflowMessage : workflowMessages) {
+            // redelivered & resent requests are dropped before anything is stored
+            String key = null;
+            if (deduplicator != null) {
+                key = deduplicator.getKey(workflowMessage);
+                if (!deduplicator.claim(key)) {
+                    logger.info("request {} was already ingested, skipping it", key);
+                    continue;
+                }
+            }
+            try {
+                WorkflowRun workflowRun = createWorkflowRun(workflowMessage, workflow);
+                WorkflowRunAttempt attempt = new WorkflowRunAttempt();
+                attempt.setStatus(WorkflowRunAttemptStatusType.PENDING);
+                attempt.setWorkflowRun(workflowRun);
+                workflowRunAttemptDAO.save(attempt);
+            } catch (WorkflowException | MaPSeqDAOException | RuntimeException e) {
+                if (key != null) {
+                    deduplicator.abandon(key);
+                }
+                throw e;
+            }
+            if (key != null) {
+                deduplicator.complete(key);
+            }
+        }
+    }
+
+    private Workflow getWorkflow() throws WorkflowException, MaPSeqDAOException {
+        // the workflow row never changes once created, so it is looked up once rather than per message
+        Workflow ret = workflow;
+        if (ret == null) {
+            WorkflowDAO workflowDAO = getWorkflowBeanService().getMaPSeqDAOBeanService().getWorkflowDAO();
             List<Workflow> workflowList = workflowDAO.findByName(getWorkflowName());
             if (CollectionUtils.isEmpty(workflowList)) {
-                logger.error("No Workflow Found: {}", getWorkflowName());
-                return;
+                throw new WorkflowException(String.format("No Workflow Found: %s", getWorkflowName()));
             }
-            Workflow workflow = workflowList.get(0);
-            WorkflowRun workflowRun = createWorkflowRun(workflowMessage, workflow);
-            WorkflowRunAttempt attempt = new WorkflowRunAttempt();
-            attempt.setStatus(WorkflowRunAttemptStatusType.PENDING);
-            attempt.setWorkflowRun(workflowRun);
-            workflowRunAttemptDAO.save(attempt);
+            ret = workflowList.get(0);
+            this.workflow = ret;
+        }
+        return ret;
+    }
 
-        } catch (WorkflowException | MaPSeqDAOException e1) {
-            logger.error(e1.getMessage(), e1);
+    private void signal() {
+        // hand off to the executor so the attempt doesn't wait for the next poll
+        if (CollectionUtils.isNotEmpty(dequeueSignals)) {
+            for (DequeueSignal dequeueSignal : dequeueSignals) {
+                try {
+                    dequeueSignal.signal();
+                } catch (Exception e) {
+                    logger.warn("dequeue signal failed, the executor poll will pick the attempt up", e);
+                }
+            }
         }
+    }
+
+    public IngestionDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    public void setDeduplicator(IngestionDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    public Integer getBulkBatchSize() {
+        return bulkBatchSize;
+    }
+
+    public void setBulkBatchSize(Integer bulkBatchSize) {
+        this.bulkBatchSize = bulkBatchSize;
+    }
+
+    public List<DequeueSignal> getDequeueSignals() {
+        return dequeueSignals;
+    }
 
+    public void setDequeueSignals(List<DequeueSignal> dequeueSignals) {
+        this.dequeueSignals = dequeueSignals;
     }
 
 }
@@ -1,8 +1,16 @@
 package edu.unc.mapseq.messaging.ncnexus38.dx;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.Session;
 
@@ -15,7 +23,7 @@ public class NCNEXUS38DXMessageService {
 
     private Connection connection;
 
-    private Session session;
+    private final List<Session> sessions = new ArrayList<Session>();
 
     private ConnectionFactory connectionFactory;
 
@@ -23,6 +31,20 @@ public class NCNEXUS38DXMessageService {
 
     private String destinationName;
 
+    private Integer consumerCount = 1;
+
+    // 0 leaves the broker default
+    private Integer prefetchSize = 0;
+
+    // above 1 each consumer drains up to batchSize messages or batchTimeout ms into one transacted session
+    private Integer batchSize = 1;
+
+    private Long batchTimeout = 1000L;
+
+    private ExecutorService batchExecutor;
+
+    private volatile boolean running;
+
     public NCNEXUS38DXMessageService() {
         super();
     }
@@ -30,19 +52,88 @@ public class NCNEXUS38DXMessageService {
     public void start() throws Exception {
         logger.info("ENTERING start()");
         this.connection = connectionFactory.createConnection();
-        this.session = this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-        Destination destination = this.session.createQueue(this.destinationName);
-        MessageConsumer consumer = this.session.createConsumer(destination);
-        consumer.setMessageListener(getMessageListener());
+
+        // a session delivers to its listener on one thread, so each consumer gets a session of its own
+        boolean batched = batchSize != null && batchSize > 1;
+        int prefetch = prefetchSize != null ? prefetchSize : 0;
+        if (batched && prefetch > 0) {
+            // a batch should not wait on a broker round trip per message
+            prefetch = Math.max(prefetch, batchSize);
+        }
+        String name = this.destinationName;
+        if (prefetch > 0) {
+            name = String.format("%s%sconsumer.prefetchSize=%d", name, name.contains("?") ? "&" : "?", prefetch);
+        }
+        int count = Math.max(consumerCount, 1);
+        if (batched) {
+            this.running = true;
+            this.batchExecutor = Executors.newFixedThreadPool(count);
+        }
+        for (int i = 0; i < count; ++i) {
+            Session session = batched ? this.connection.createSession(true, Session.SESSION_TRANSACTED)
+                    : this.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Destination destination = session.createQueue(name);
+            MessageConsumer consumer = session.createConsumer(destination);
+            if (batched) {
+                batchExecutor.submit(() -> drain(session, consumer));
+            } else {
+                consumer.setMessageListener(getMessageListener());
+            }
+            sessions.add(session);
+        }
+        logger.info("consuming {} with {} consumers, batchSize: {}", name, sessions.size(), batched ? batchSize : 1);
         this.connection.start();
 
     }
 
+    /*
+     * the session is committed only after every run of the batch is stored, any failure rolls the batch back for redelivery
+     */
+    private void drain(Session session, MessageConsumer consumer) {
+        while (running) {
+            List<Message> batch = new ArrayList<Message>();
+            try {
+                Message message = consumer.receive(1000L);
+                if (message == null) {
+                    continue;
+                }
+                batch.add(message);
+                long deadline = System.currentTimeMillis() + batchTimeout;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    Message next = wait > 0 ? consumer.receive(wait) : consumer.receiveNoWait();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                messageListener.onMessages(batch);
+                session.commit();
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("failed to ingest {} messages, rolling back", batch.size(), e);
+                try {
+                    session.rollback();
+                } catch (JMSException e1) {
+                    logger.error(e1.getMessage(), e1);
+                }
+            }
+        }
+    }
+
     public void stop() throws Exception {
         logger.info("ENTERING stop()");
-        if (this.session != null) {
-            this.session.close();
+        this.running = false;
+        if (batchExecutor != null) {
+            batchExecutor.shutdown();
+            batchExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        for (Session session : sessions) {
+            session.close();
         }
+        sessions.clear();
         if (this.connection != null) {
             this.connection.stop();
             this.connection.close();
@@ -65,6 +156,38 @@ public class NCNEXUS38DXMessageService {
         this.messageListener = messageListener;
     }
 
+    public Integer getConsumerCount() {
+        return consumerCount;
+    }
+
+    public void setConsumerCount(Integer consumerCount) {
+        this.consumerCount = consumerCount;
+    }
+
+    public Integer getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    public void setPrefetchSize(Integer prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Long getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    public void setBatchTimeout(Long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
     public String getDestinationName() {
         return destinationName;
     }
@@ -0,0 +1,410 @@
+package edu.unc.mapseq.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.MessageEncoding;
+import edu.unc.mapseq.dao.MaPSeqDAOBeanService;
+import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
+import edu.unc.mapseq.messaging.ncnexus38.dx.IngestionDeduplicator;
+import edu.unc.mapseq.messaging.ncnexus38.dx.NCNEXUS38DXMessageListener;
+import edu.unc.mapseq.messaging.ncnexus38.dx.NCNEXUS38DXMessageService;
+import edu.unc.mapseq.workflow.WorkflowBeanService;
+
+/*
+ * Pushes requests through an embedded broker into the message service & listener, with every DAO held in memory, and reports
+ * how fast they end up stored. Runs offline & only when asked for with -Dbenchmark=true, sized & shaped through system
+ * properties, e.g.
+ *
+ * mvn test -Dtest=IngestionBenchmarkTest -Dbenchmark=true -Dbenchmark.messages=50000 -Dbenchmark.batchSize=50 -Dbenchmark.encoding=SMILE
+ */
+public class IngestionBenchmarkTest {
+
+    private final int messages = Integer.getInteger("benchmark.messages", 2000);
+
+    private final int consumers = Integer.getInteger("benchmark.consumers", 4);
+
+    private final int prefetchSize = Integer.getInteger("benchmark.prefetchSize", 1);
+
+    private final int batchSize = Integer.getInteger("benchmark.batchSize", 1);
+
+    // per request in one bulk message, 0 sends every request as a message of its own
+    private final int bulkSize = Integer.getInteger("benchmark.bulkSize", 0);
+
+    private final MessageEncoding encoding = MessageEncoding.fromContentType(System.getProperty("benchmark.encoding", "JSON"));
+
+    // ms slept in every save, a stand in for the database round trip
+    private final long saveLatency = Long.getLong("benchmark.saveLatency", 0L);
+
+    private final Map<String, Long> sent = new ConcurrentHashMap<String, Long>();
+
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+
+    private final AtomicLong lastStored = new AtomicLong();
+
+    private CountDownLatch stored;
+
+    @Test
+    public void testIngestion() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        this.stored = new CountDownLatch(messages);
+
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("ncnexus38-dx-benchmark");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("vm://ncnexus38-dx-benchmark?create=false");
+
+        IngestionDeduplicator deduplicator = new IngestionDeduplicator();
+        deduplicator.start();
+
+        NCNEXUS38DXMessageListener messageListener = new NCNEXUS38DXMessageListener();
+        messageListener.setWorkflowBeanService(createWorkflowBeanService());
+        messageListener.setWorkflowName("NCNEXUS38DX");
+        messageListener.setDeduplicator(deduplicator);
+
+        NCNEXUS38DXMessageService messageService = new NCNEXUS38DXMessageService();
+        messageService.setConnectionFactory(connectionFactory);
+        messageService.setMessageListener(messageListener);
+        messageService.setDestinationName("queue/ncnexus38.dx");
+        messageService.setConsumerCount(consumers);
+        messageService.setPrefetchSize(prefetchSize);
+        messageService.setBatchSize(batchSize);
+        messageService.start();
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = getAllocatedBytes(threadMXBean);
+        long start = System.nanoTime();
+
+        Connection connection = connectionFactory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(session.createQueue("queue/ncnexus38.dx"));
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            if (bulkSize > 0) {
+                for (int i = 0; i < messages; i += bulkSize) {
+                    producer.send(createMessage(session, createBulkRequest(i, Math.min(messages, i + bulkSize))));
+                }
+            } else {
+                for (int i = 0; i < messages; ++i) {
+                    producer.send(createMessage(session, createRequest(i)));
+                }
+            }
+            stored.await(10, TimeUnit.MINUTES);
+        } finally {
+            connection.close();
+        }
+
+        long allocated = getAllocatedBytes(threadMXBean) - allocatedBefore;
+        messageService.stop();
+        broker.stop();
+
+        double seconds = (lastStored.get() - start) / 1e9;
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        Collections.sort(sorted);
+        System.out.println(String.format("encoding: %s, consumers: %d, prefetchSize: %d, batchSize: %d, bulkSize: %d, saveLatency: %d ms", encoding,
+                consumers, prefetchSize, batchSize, bulkSize, saveLatency));
+        System.out.println(String.format("stored %d of %d requests in %.2f s, %.1f requests/s", sorted.size(), messages, seconds,
+                sorted.size() / seconds));
+        System.out.println(String.format("latency ms p50: %.2f, p90: %.2f, p99: %.2f, max: %.2f", getPercentile(sorted, 0.5),
+                getPercentile(sorted, 0.9), getPercentile(sorted, 0.99), getPercentile(sorted, 1.0)));
+        if (allocated >= 0) {
+            System.out.println(String.format("allocated %.1f MB, %.1f MB/s, %.1f KB/request", allocated / 1e6, allocated / 1e6 / seconds,
+                    allocated / 1e3 / messages));
+        }
+
+        assertEquals(messages, sorted.size());
+    }
+
+    private byte[] createRequest(int i) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = encoding.getFactory().createGenerator(out);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("entities");
+
+        generator.writeStartObject();
+        generator.writeStringField("entityType", "Sample");
+        generator.writeStringField("id", Integer.toString(i + 1));
+        generator.writeEndObject();
+
+        generator.writeStartObject();
+        generator.writeStringField("entityType", "WorkflowRun");
+        generator.writeStringField("name", getWorkflowRunName(i));
+        generator.writeArrayFieldStart("attributes");
+        generator.writeStartObject();
+        generator.writeStringField("name", "list_version");
+        generator.writeStringField("value", "48");
+        generator.writeEndObject();
+        generator.writeStartObject();
+        generator.writeStringField("name", "dx_id");
+        generator.writeStringField("value", "36");
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+        sent.put(getWorkflowRunName(i), System.nanoTime());
+        return out.toByteArray();
+    }
+
+    private byte[] createBulkRequest(int from, int to) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = encoding.getFactory().createGenerator(out);
+        generator.writeStartObject();
+        generator.writeStringField("list_version", "48");
+        generator.writeStringField("dx_id", "36");
+        generator.writeArrayFieldStart("requests");
+        for (int i = from; i < to; ++i) {
+            generator.writeStartObject();
+            generator.writeStringField("sampleId", Integer.toString(i + 1));
+            generator.writeStringField("workflowRunName", getWorkflowRunName(i));
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+        long now = System.nanoTime();
+        for (int i = from; i < to; ++i) {
+            sent.put(getWorkflowRunName(i), now);
+        }
+        return out.toByteArray();
+    }
+
+    private Message createMessage(Session session, byte[] payload) throws Exception {
+        if (!encoding.isBinary()) {
+            return session.createTextMessage(new String(payload, StandardCharsets.UTF_8));
+        }
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(payload);
+        message.setStringProperty(MessageEncoding.PROPERTY, encoding.getContentType());
+        return message;
+    }
+
+    private String getWorkflowRunName(int i) {
+        return String.format("NCX_%05d-ncnexus38-dx-benchmark", i + 1);
+    }
+
+    private void stored(Object entity) {
+        if (!(entity instanceof WorkflowRunAttempt)) {
+            return;
+        }
+        WorkflowRunAttempt attempt = (WorkflowRunAttempt) entity;
+        Long sentAt = attempt.getWorkflowRun() != null ? sent.get(attempt.getWorkflowRun().getName()) : null;
+        if (sentAt != null) {
+            long now = System.nanoTime();
+            latencies.add(now - sentAt);
+            lastStored.accumulateAndGet(now, Math::max);
+            stored.countDown();
+        }
+    }
+
+    private static double getPercentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    /*
+     * bytes allocated by the live threads so far, -1 when the JVM doesn't count them
+     */
+    private static long getAllocatedBytes(ThreadMXBean threadMXBean) {
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long ret = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            ret += Math.max(0, allocated);
+        }
+        return ret;
+    }
+
+    private WorkflowBeanService createWorkflowBeanService() {
+        MaPSeqDAOBeanService maPSeqDAOBeanService = createProxy(MaPSeqDAOBeanService.class, new InvocationHandler() {
+
+            private final AtomicLong ids = new AtomicLong();
+
+            private final Map<Class<?>, Object> daos = new ConcurrentHashMap<Class<?>, Object>();
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Class<?> type = method.getReturnType();
+                if (method.getName().startsWith("get") && type.isInterface()) {
+                    return daos.computeIfAbsent(type, a -> createProxy(a, new InMemoryDAO(a, ids)));
+                }
+                return getDefault(proxy, method, args);
+            }
+
+        });
+
+        return createProxy(WorkflowBeanService.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMaPSeqDAOBeanService":
+                    return maPSeqDAOBeanService;
+                case "getAttributes":
+                    return new ConcurrentHashMap<String, String>();
+                default:
+                    return getDefault(proxy, method, args);
+            }
+        });
+    }
+
+    /*
+     * stands in for any DAO: save assigns an id & keeps the entity, findById hands back what was saved or a new entity with
+     * that id, findByName a single new entity with that name, any other finder nothing
+     */
+    private class InMemoryDAO implements InvocationHandler {
+
+        private final Class<?> entityClass;
+
+        private final AtomicLong ids;
+
+        private final Map<Object, Object> entities = new ConcurrentHashMap<Object, Object>();
+
+        public InMemoryDAO(Class<?> daoClass, AtomicLong ids) {
+            super();
+            this.entityClass = getEntityClass(daoClass);
+            this.ids = ids;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Class<?> type = method.getReturnType();
+            if ("save".equals(name) && args != null && args.length == 1) {
+                Long id = ids.incrementAndGet();
+                invokeSetter(args[0], "setId", Long.class, id);
+                entities.put(id, args[0]);
+                if (saveLatency > 0) {
+                    Thread.sleep(saveLatency);
+                }
+                stored(args[0]);
+                return type.isAssignableFrom(Long.class) ? id : type.isInstance(args[0]) ? args[0] : null;
+            }
+            if ("findById".equals(name) && args != null && args.length == 1) {
+                Object ret = entities.get(args[0]);
+                return ret != null ? ret : newEntity("setId", Long.class, args[0]);
+            }
+            if ("findByName".equals(name) && args != null && args.length == 1 && List.class.isAssignableFrom(type)) {
+                List<Object> ret = new ArrayList<Object>();
+                Object entity = newEntity("setName", String.class, args[0]);
+                if (entity != null) {
+                    invokeSetter(entity, "setId", Long.class, ids.incrementAndGet());
+                    ret.add(entity);
+                }
+                return ret;
+            }
+            if (name.startsWith("find") && List.class.isAssignableFrom(type)) {
+                return new ArrayList<Object>();
+            }
+            return getDefault(proxy, method, args);
+        }
+
+        private Object newEntity(String setter, Class<?> valueType, Object value) {
+            if (entityClass == null) {
+                return null;
+            }
+            try {
+                Object ret = entityClass.newInstance();
+                invokeSetter(ret, setter, valueType, value);
+                return ret;
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+    }
+
+    /*
+     * the first concrete type argument of the DAO's generic super interfaces, e.g. Sample for SampleDAO
+     */
+    private static Class<?> getEntityClass(Class<?> daoClass) {
+        for (Type type : daoClass.getGenericInterfaces()) {
+            if (type instanceof ParameterizedType) {
+                for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                    if (argument instanceof Class) {
+                        return (Class<?>) argument;
+                    }
+                }
+            } else if (type instanceof Class) {
+                Class<?> ret = getEntityClass((Class<?>) type);
+                if (ret != null) {
+                    return ret;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void invokeSetter(Object target, String setter, Class<?> valueType, Object value) {
+        try {
+            target.getClass().getMethod(setter, valueType).invoke(target, value);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            // not every entity has one
+        }
+    }
+
+    private static Object getDefault(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return proxy.getClass().getInterfaces()[0].getSimpleName();
+            default:
+                break;
+        }
+        Class<?> type = method.getReturnType();
+        if (type.isPrimitive() && type != void.class) {
+            return Array.get(Array.newInstance(type, 1), 0);
+        }
+        if (List.class.isAssignableFrom(type)) {
+            return new ArrayList<Object>();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(IngestionBenchmarkTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+}
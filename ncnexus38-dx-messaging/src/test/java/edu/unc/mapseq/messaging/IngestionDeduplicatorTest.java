@@ -0,0 +1,165 @@
+package edu.unc.mapseq.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.unc.mapseq.messaging.ncnexus38.dx.IngestionDeduplicator;
+
+public class IngestionDeduplicatorTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testClaim() throws Exception {
+        File logDirectory = tmpFolder.newFolder("ingested-requests");
+        File logFile = new File(logDirectory, "node-a.log");
+
+        IngestionDeduplicator deduplicator = createDeduplicator(logDirectory, "node-a");
+        deduplicator.start();
+        assertEquals(logFile, deduplicator.getLogFile());
+
+        // a claimed key can't be claimed again until it is abandoned or completed
+        assertTrue(deduplicator.claim("a"));
+        assertFalse(deduplicator.claim("a"));
+        deduplicator.abandon("a");
+        assertTrue(deduplicator.claim("a"));
+        deduplicator.complete("a");
+        assertFalse(deduplicator.claim("a"));
+
+        // consumers completing at once each get their line in
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 8; ++i) {
+            int consumer = i;
+            futures.add(es.submit(() -> {
+                for (int j = 0; j < 100; ++j) {
+                    String key = String.format("%d-%d", consumer, j);
+                    assertTrue(deduplicator.claim(key));
+                    deduplicator.complete(key);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        es.shutdown();
+        es.awaitTermination(10, TimeUnit.SECONDS);
+
+        deduplicator.stop();
+        assertEquals(801, Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8).size());
+
+        // read back on start
+        IngestionDeduplicator reloaded = createDeduplicator(logDirectory, "node-a");
+        reloaded.start();
+        assertFalse(reloaded.claim("a"));
+        assertFalse(reloaded.claim("7-99"));
+        assertTrue(reloaded.claim("b"));
+        reloaded.stop();
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        File logDirectory = tmpFolder.newFolder("ingested-requests");
+        File logFile = new File(logDirectory, "node-a.log");
+        long now = System.currentTimeMillis();
+        long expired = now - TimeUnit.DAYS.toMillis(8);
+        Files.write(logFile.toPath(),
+                Arrays.asList(String.format("old-1\t%d", expired), String.format("old-2\t%d", expired), String.format("old-3\t%d", expired),
+                        "malformed", String.format("recent\t%d", now - TimeUnit.DAYS.toMillis(6))),
+                StandardCharsets.UTF_8);
+
+        IngestionDeduplicator deduplicator = createDeduplicator(logDirectory, "node-a");
+        deduplicator.setRetention(7L);
+        deduplicator.start();
+
+        // keys past the retention are forgotten, the log holding mostly those is compacted
+        List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith("recent\t"));
+        assertTrue(deduplicator.claim("old-1"));
+        assertFalse(deduplicator.claim("recent"));
+
+        // appended to the compacted log
+        deduplicator.complete("old-1");
+        deduplicator.stop();
+        lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).startsWith("old-1\t"));
+
+        // keys past a shorter retention aren't loaded
+        IngestionDeduplicator shortRetention = createDeduplicator(logDirectory, "node-a");
+        shortRetention.setRetention(5L);
+        shortRetention.start();
+        assertTrue(shortRetention.claim("recent"));
+        assertFalse(shortRetention.claim("old-1"));
+        shortRetention.stop();
+    }
+
+    @Test
+    public void testNodes() throws Exception {
+        File logDirectory = tmpFolder.newFolder("ingested-requests");
+        long now = System.currentTimeMillis();
+        long expired = now - TimeUnit.DAYS.toMillis(8);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 10; ++i) {
+            lines.add(String.format("old-%d\t%d", i, expired));
+        }
+        for (int i = 0; i < 4; ++i) {
+            lines.add(String.format("recent-%d\t%d", i, now - TimeUnit.HOURS.toMillis(4 - i)));
+        }
+        File nodeALogFile = new File(logDirectory, "node-a.log");
+        Files.write(nodeALogFile.toPath(), lines, StandardCharsets.UTF_8);
+        assertTrue(nodeALogFile.setLastModified(now - TimeUnit.HOURS.toMillis(1)));
+        // node-b is still running & half way through a line
+        File nodeBLogFile = new File(logDirectory, "node-b.log");
+        Files.write(nodeBLogFile.toPath(), (String.format("b-1\t%d%nb-2\t%d%nb-3", now, now)).getBytes(StandardCharsets.UTF_8));
+
+        IngestionDeduplicator a = createDeduplicator(logDirectory, "node-a");
+        a.setMaxEntries(2);
+        a.start();
+
+        // keys of every node are read back
+        assertFalse(a.claim("b-1"));
+        assertFalse(a.claim("b-2"));
+        assertTrue(a.claim("b-3"));
+        a.abandon("b-3");
+
+        // only the own log is compacted, to every key within the retention, not just the ones the LRU holds
+        lines = Files.readAllLines(nodeALogFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("recent-0", "recent-1", "recent-2", "recent-3"),
+                lines.stream().map(line -> line.split("\t")[0]).collect(Collectors.toList()));
+        assertEquals(String.format("b-1\t%d%nb-2\t%d%nb-3", now, now),
+                new String(Files.readAllBytes(nodeBLogFile.toPath()), StandardCharsets.UTF_8));
+
+        // maxEntries caps the window: node-b's keys, read last, pushed this node's out of the LRU
+        assertTrue(a.claim("recent-0"));
+        a.abandon("recent-0");
+        a.stop();
+    }
+
+    private static IngestionDeduplicator createDeduplicator(File logDirectory, String nodeId) {
+        IngestionDeduplicator ret = new IngestionDeduplicator();
+        ret.setLogDirectory(logDirectory.getAbsolutePath());
+        ret.setNodeId(nodeId);
+        return ret;
+    }
+
+}
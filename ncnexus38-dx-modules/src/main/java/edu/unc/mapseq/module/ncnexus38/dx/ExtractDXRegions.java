@@ -0,0 +1,170 @@
+package edu.unc.mapseq.module.ncnexus38.dx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.ExtractBAMRegionsCallable;
+import edu.unc.mapseq.commons.ncnexus38.dx.FilterVCFByIntervalsCallable;
+import edu.unc.mapseq.commons.ncnexus38.dx.IntervalFilterOutput;
+import edu.unc.mapseq.module.DefaultModuleOutput;
+import edu.unc.mapseq.module.Module;
+import edu.unc.mapseq.module.ModuleException;
+import edu.unc.mapseq.module.ModuleOutput;
+import edu.unc.mapseq.module.annotations.Application;
+import edu.unc.mapseq.module.annotations.InputArgument;
+import edu.unc.mapseq.module.annotations.InputValidations;
+import edu.unc.mapseq.module.constraints.FileIsReadable;
+
+/*
+ * Writes the per dx outputs, one pass over the bam and one over the vcf for all dx ids of the attempt. Each dxId goes with the
+ * intervalList, bamOutput & vcfOutput given at the same position.
+ */
+@Application(name = "ExtractDXRegions", isWorkflowRunIdOptional = true)
+public class ExtractDXRegions extends Module {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractDXRegions.class);
+
+    @NotNull(message = "bam is required", groups = InputValidations.class)
+    @FileIsReadable(message = "bam is not readable", groups = InputValidations.class)
+    @InputArgument(description = "coordinate sorted bam")
+    private File bam;
+
+    @NotNull(message = "bamIndex is required", groups = InputValidations.class)
+    @FileIsReadable(message = "bamIndex is not readable", groups = InputValidations.class)
+    @InputArgument(description = "index of the bam")
+    private File bamIndex;
+
+    @NotNull(message = "vcf is required", groups = InputValidations.class)
+    @FileIsReadable(message = "vcf is not readable", groups = InputValidations.class)
+    @InputArgument(description = "vcf")
+    private File vcf;
+
+    @NotNull(message = "dxId is required", groups = InputValidations.class)
+    @InputArgument(description = "dx id, once per dx")
+    private List<String> dxId;
+
+    @NotNull(message = "intervalList is required", groups = InputValidations.class)
+    @InputArgument(description = "interval list of the dx, once per dx")
+    private List<File> intervalList;
+
+    @NotNull(message = "bamOutput is required", groups = InputValidations.class)
+    @InputArgument(description = "bam written for the dx, once per dx")
+    private List<File> bamOutput;
+
+    @NotNull(message = "vcfOutput is required", groups = InputValidations.class)
+    @InputArgument(description = "vcf written for the dx, once per dx")
+    private List<File> vcfOutput;
+
+    @InputArgument(description = "also write bgzip compressed, tabix indexed vcf outputs, needs a coordinate sorted vcf")
+    private Boolean bgzip = Boolean.FALSE;
+
+    public ExtractDXRegions() {
+        super();
+    }
+
+    @Override
+    public Class<?> getModuleClass() {
+        return ExtractDXRegions.class;
+    }
+
+    @Override
+    public ModuleOutput call() throws ModuleException {
+        logger.debug("ENTERING call()");
+
+        if (dxId.isEmpty() || dxId.size() != intervalList.size() || dxId.size() != bamOutput.size() || dxId.size() != vcfOutput.size()) {
+            throw new ModuleException("dxId, intervalList, bamOutput & vcfOutput have to be given once per dx");
+        }
+
+        DefaultModuleOutput moduleOutput = new DefaultModuleOutput();
+        try {
+            List<IntervalFilterOutput> bamOutputs = new ArrayList<IntervalFilterOutput>();
+            List<IntervalFilterOutput> vcfOutputs = new ArrayList<IntervalFilterOutput>();
+            for (int i = 0; i < dxId.size(); ++i) {
+                IntervalFilterOutput output = new IntervalFilterOutput(dxId.get(i), intervalList.get(i), bamOutput.get(i));
+                bamOutputs.add(output);
+                // parsed once for both passes
+                vcfOutputs.add(new IntervalFilterOutput(dxId.get(i), intervalList.get(i), output.loadIntervalSet(), vcfOutput.get(i)));
+            }
+
+            new ExtractBAMRegionsCallable(bam, bamIndex, bamOutputs).call();
+            FilterVCFByIntervalsCallable filterVCFByIntervalsCallable = new FilterVCFByIntervalsCallable(vcf, vcfOutputs);
+            filterVCFByIntervalsCallable.setBgzip(bgzip);
+            filterVCFByIntervalsCallable.call();
+        } catch (Exception e) {
+            throw new ModuleException(e);
+        }
+        moduleOutput.setExitCode(0);
+        return moduleOutput;
+    }
+
+    public File getBam() {
+        return bam;
+    }
+
+    public void setBam(File bam) {
+        this.bam = bam;
+    }
+
+    public File getBamIndex() {
+        return bamIndex;
+    }
+
+    public void setBamIndex(File bamIndex) {
+        this.bamIndex = bamIndex;
+    }
+
+    public File getVcf() {
+        return vcf;
+    }
+
+    public void setVcf(File vcf) {
+        this.vcf = vcf;
+    }
+
+    public List<String> getDxId() {
+        return dxId;
+    }
+
+    public void setDxId(List<String> dxId) {
+        this.dxId = dxId;
+    }
+
+    public List<File> getIntervalList() {
+        return intervalList;
+    }
+
+    public void setIntervalList(List<File> intervalList) {
+        this.intervalList = intervalList;
+    }
+
+    public List<File> getBamOutput() {
+        return bamOutput;
+    }
+
+    public void setBamOutput(List<File> bamOutput) {
+        this.bamOutput = bamOutput;
+    }
+
+    public List<File> getVcfOutput() {
+        return vcfOutput;
+    }
+
+    public void setVcfOutput(List<File> vcfOutput) {
+        this.vcfOutput = vcfOutput;
+    }
+
+    public Boolean getBgzip() {
+        return bgzip;
+    }
+
+    public void setBgzip(Boolean bgzip) {
+        this.bgzip = bgzip;
+    }
+
+}
@@ -0,0 +1,107 @@
+package edu.unc.mapseq.module.ncnexus38.dx;
+
+import java.io.File;
+
+import javax.validation.constraints.NotNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.unc.mapseq.commons.ncnexus38.dx.ExtractTargetDepthCallable;
+import edu.unc.mapseq.dao.model.MimeType;
+import edu.unc.mapseq.module.DefaultModuleOutput;
+import edu.unc.mapseq.module.Module;
+import edu.unc.mapseq.module.ModuleException;
+import edu.unc.mapseq.module.ModuleOutput;
+import edu.unc.mapseq.module.annotations.Application;
+import edu.unc.mapseq.module.annotations.InputArgument;
+import edu.unc.mapseq.module.annotations.InputValidations;
+import edu.unc.mapseq.module.annotations.OutputArgument;
+import edu.unc.mapseq.module.annotations.OutputValidations;
+import edu.unc.mapseq.module.constraints.FileIsNotEmpty;
+import edu.unc.mapseq.module.constraints.FileIsReadable;
+
+/*
+ * Cuts the target loci out of the samtools depth file, the indexed depth store next to it is (re)built first when it is missing
+ * or older than the depth file.
+ */
+@Application(name = "ExtractTargetDepth", isWorkflowRunIdOptional = true)
+public class ExtractTargetDepth extends Module {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractTargetDepth.class);
+
+    @NotNull(message = "depth is required", groups = InputValidations.class)
+    @FileIsReadable(message = "depth is not readable", groups = InputValidations.class)
+    @InputArgument(description = "samtools depth file")
+    private File depth;
+
+    @NotNull(message = "depthStore is required", groups = InputValidations.class)
+    @InputArgument(description = "indexed depth store, written when missing or stale")
+    private File depthStore;
+
+    @NotNull(message = "intervals is required", groups = InputValidations.class)
+    @FileIsReadable(message = "intervals is not readable", groups = InputValidations.class)
+    @InputArgument(description = "intervals")
+    private File intervals;
+
+    @NotNull(message = "output is required", groups = InputValidations.class)
+    @FileIsNotEmpty(message = "output is empty", groups = OutputValidations.class)
+    @OutputArgument(mimeType = MimeType.TEXT_PLAIN)
+    @InputArgument(description = "depth of the target loci")
+    private File output;
+
+    public ExtractTargetDepth() {
+        super();
+    }
+
+    @Override
+    public Class<?> getModuleClass() {
+        return ExtractTargetDepth.class;
+    }
+
+    @Override
+    public ModuleOutput call() throws ModuleException {
+        logger.debug("ENTERING call()");
+        DefaultModuleOutput moduleOutput = new DefaultModuleOutput();
+        try {
+            new ExtractTargetDepthCallable(depth, depthStore, intervals, output).call();
+        } catch (Exception e) {
+            throw new ModuleException(e);
+        }
+        moduleOutput.setExitCode(0);
+        return moduleOutput;
+    }
+
+    public File getDepth() {
+        return depth;
+    }
+
+    public void setDepth(File depth) {
+        this.depth = depth;
+    }
+
+    public File getDepthStore() {
+        return depthStore;
+    }
+
+    public void setDepthStore(File depthStore) {
+        this.depthStore = depthStore;
+    }
+
+    public File getIntervals() {
+        return intervals;
+    }
+
+    public void setIntervals(File intervals) {
+        this.intervals = intervals;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public void setOutput(File output) {
+        this.output = output;
+    }
+
+}
@@ -0,0 +1,64 @@
+package edu.unc.mapseq.module.ncnexus38.dx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExtractTargetDepthTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testCall() throws Exception {
+        File tmpDir = tmpFolder.newFolder("extract-target-depth");
+        File depthFile = new File(tmpDir, "NCX_00004.merged.rg.deduped.depth.txt");
+        File depthStoreFile = new File(tmpDir, "NCX_00004.merged.rg.deduped.depth.bin");
+        File intervalsFile = new File(tmpDir, "allintervals.v48.txt");
+        File output = new File(tmpDir, "NCX_00004.merged.rg.deduped.depth.targets.v48.txt");
+
+        writeDepth(depthFile, 50);
+        Files.write(intervalsFile.toPath(), Arrays.asList("chr2:10-12", "chr1:500-502", "chr3:1-5", "chr1\t998\t1005"),
+                StandardCharsets.UTF_8);
+
+        ExtractTargetDepth module = new ExtractTargetDepth();
+        module.setDepth(depthFile);
+        module.setDepthStore(depthStoreFile);
+        module.setIntervals(intervalsFile);
+        module.setOutput(output);
+        module.call();
+
+        // the store is built from the depth file, loci come out in its contig order
+        assertTrue(depthStoreFile.exists());
+        assertEquals(Arrays.asList("chr1\t500\t0", "chr1\t501\t1", "chr1\t502\t2", "chr1\t998\t48", "chr1\t999\t49", "chr1\t1000\t0",
+                "chr2\t10\t10", "chr2\t11\t11", "chr2\t12\t12"), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+
+        // a newer depth file rebuilds the store
+        writeDepth(depthFile, 7);
+        depthFile.setLastModified(depthStoreFile.lastModified() + 2000);
+        module.call();
+        assertEquals(Arrays.asList("chr1\t500\t3", "chr1\t501\t4", "chr1\t502\t5", "chr1\t998\t4", "chr1\t999\t5", "chr1\t1000\t6",
+                "chr2\t10\t3", "chr2\t11\t4", "chr2\t12\t5"), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private static void writeDepth(File depthFile, int modulus) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (String contig : Arrays.asList("chr1", "chr2")) {
+            for (int position = 1; position <= 1000; ++position) {
+                lines.add(String.format("%s\t%d\t%d", contig, position, position % modulus));
+            }
+        }
+        Files.write(depthFile.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+}
@@ -1,19 +1,14 @@
 package edu.unc.mapseq.workflow.ncnexus38.dx;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang.StringUtils;
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultDirectedGraph;
@@ -23,21 +18,24 @@ import org.renci.jlrm.condor.CondorJobEdge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.unc.mapseq.commons.ncnexus38.dx.AnnotationRegistry;
+import edu.unc.mapseq.commons.ncnexus38.dx.AnnotationRegistryImpl;
+import edu.unc.mapseq.commons.ncnexus38.dx.DXAnnotationSet;
+import edu.unc.mapseq.commons.ncnexus38.dx.NCNEXUS38DXWorkflowUtil;
 import edu.unc.mapseq.commons.ncnexus38.dx.RegisterToIRODSRunnable;
-import edu.unc.mapseq.dao.model.Attribute;
+import edu.unc.mapseq.commons.ncnexus38.dx.RegistrationOutbox;
+import edu.unc.mapseq.commons.ncnexus38.dx.ResultCache;
+import edu.unc.mapseq.commons.ncnexus38.dx.ResultCacheKeyBuilder;
+import edu.unc.mapseq.commons.ncnexus38.dx.VersionAnnotationSet;
 import edu.unc.mapseq.dao.model.Sample;
 import edu.unc.mapseq.dao.model.WorkflowRun;
 import edu.unc.mapseq.dao.model.WorkflowRunAttempt;
-import edu.unc.mapseq.module.core.RemoveCLI;
-import edu.unc.mapseq.module.core.ZipCLI;
+import edu.unc.mapseq.module.ncnexus38.dx.ExtractDXRegionsCLI;
+import edu.unc.mapseq.module.ncnexus38.dx.ExtractTargetDepth;
+import edu.unc.mapseq.module.ncnexus38.dx.ExtractTargetDepthCLI;
 import edu.unc.mapseq.module.sequencing.converter.SAMToolsDepthToGATKDOCFormatConverterCLI;
-import edu.unc.mapseq.module.sequencing.filter.FilterVariantCLI;
-import edu.unc.mapseq.module.sequencing.picard.PicardSortOrderType;
 import edu.unc.mapseq.module.sequencing.picard2.PicardCollectHsMetricsCLI;
-import edu.unc.mapseq.module.sequencing.picard2.PicardSortSAMCLI;
-import edu.unc.mapseq.module.sequencing.picard2.PicardViewSAMCLI;
 import edu.unc.mapseq.workflow.WorkflowException;
-import edu.unc.mapseq.workflow.core.WorkflowJobFactory;
 import edu.unc.mapseq.workflow.sequencing.AbstractSequencingWorkflow;
 import edu.unc.mapseq.workflow.sequencing.SequencingWorkflowJobFactory;
 import edu.unc.mapseq.workflow.sequencing.SequencingWorkflowUtil;
@@ -46,113 +44,78 @@ public class NCNEXUS38DXWorkflow extends AbstractSequencingWorkflow {
 
     private static final Logger logger = LoggerFactory.getLogger(NCNEXUS38DXWorkflow.class);
 
-    public NCNEXUS38DXWorkflow() {
-        super();
-    }
+    private AnnotationRegistry annotationRegistry;
 
-    @Override
-    public Graph<CondorJob, CondorJobEdge> createGraph() throws WorkflowException {
-        logger.info("ENTERING createGraph()");
+    private RegistrationOutbox registrationOutbox;
 
-        DirectedGraph<CondorJob, CondorJobEdge> graph = new DefaultDirectedGraph<CondorJob, CondorJobEdge>(CondorJobEdge.class);
+    private volatile boolean cancelled;
 
-        int count = 0;
-        String listVersion = null;
-        String dxId = null;
+    private String listVersion;
 
-        Set<Sample> sampleSet = SequencingWorkflowUtil.getAggregatedSamples(getWorkflowBeanService().getMaPSeqDAOBeanService(),
-                getWorkflowRunAttempt());
-        logger.info("sampleSet.size(): {}", sampleSet.size());
+    private VersionAnnotationSet versionAnnotationSet;
 
-        String siteName = getWorkflowBeanService().getAttributes().get("siteName");
-        String referenceSequence = getWorkflowBeanService().getAttributes().get("referenceSequence");
-        String subjectMergeHome = getWorkflowBeanService().getAttributes().get("subjectMergeHome");
+    private List<DXAnnotationSet> dxAnnotationSets;
 
-        Boolean isIncidental = Boolean.FALSE;
-        WorkflowRunAttempt attempt = getWorkflowRunAttempt();
-        WorkflowRun workflowRun = attempt.getWorkflowRun();
+    private File subjectDirectory;
 
-        Set<Attribute> attributeSet = workflowRun.getAttributes();
-        if (CollectionUtils.isNotEmpty(attributeSet)) {
-            Iterator<Attribute> attributeIter = attributeSet.iterator();
-            while (attributeIter.hasNext()) {
-                Attribute attribute = attributeIter.next();
-                if ("list_version".equals(attribute.getName())) {
-                    listVersion = attribute.getValue();
-                }
-                if ("dx_id".equals(attribute.getName())) {
-                    dxId = attribute.getValue();
-                }
-            }
-        }
+    private File bamFile;
 
-        if (listVersion == null || dxId == null) {
-            throw new WorkflowException("Both version and DX were null...returning empty dag");
-        }
+    private File bamIndexFile;
 
-        Set<String> subjectNameSet = new HashSet<String>();
-        for (Sample sample : sampleSet) {
-            if ("Undetermined".equals(sample.getBarcode())) {
-                continue;
-            }
-            Set<Attribute> sampleAttributes = sample.getAttributes();
-            Optional<Attribute> foundAttribute = sampleAttributes.stream().filter(a -> "subjectName".equals(a.getName())).findFirst();
-            if (foundAttribute.isPresent()) {
-                subjectNameSet.add(foundAttribute.get().getValue());
-            }
-        }
+    private File outputDirectory;
 
-        Set<String> synchronizedSubjectNameSet = Collections.synchronizedSet(subjectNameSet);
+    private ResultCache resultCache;
 
-        if (synchronizedSubjectNameSet.isEmpty()) {
-            throw new WorkflowException("subjectNameSet is empty");
-        }
+    private ResultCache.Entry picardCollectHsMetricsCacheEntry;
 
-        if (synchronizedSubjectNameSet.size() > 1) {
-            throw new WorkflowException("multiple subjectName values across samples");
-        }
+    private ResultCache.Entry samtoolsDepthCacheEntry;
+
+    public NCNEXUS38DXWorkflow() {
+        super();
+    }
 
-        String subjectName = synchronizedSubjectNameSet.iterator().next();
+    /*
+     * resolves the inputs, outputs & cache entries of the attempt without writing anything. createGraph() schedules from
+     * them, recovery calls this instead of createGraph() before postRun() of a dag that is already done
+     */
+    public void prepare() throws WorkflowException {
+        logger.info("ENTERING prepare()");
 
-        if (StringUtils.isEmpty(subjectName)) {
-            throw new WorkflowException("empty subjectName");
-        }
+        Set<Sample> sampleSet = SequencingWorkflowUtil.getAggregatedSamples(getWorkflowBeanService().getMaPSeqDAOBeanService(),
+                getWorkflowRunAttempt());
+        logger.info("sampleSet.size(): {}", sampleSet.size());
 
-        String dataDirectory = System.getenv("MAPSEQ_DATA_DIRECTORY");
-        if (StringUtils.isEmpty(dataDirectory)) {
-            dataDirectory = "/projects/mapseq/data";
-        }
+        String referenceSequence = getWorkflowBeanService().getAttributes().get("referenceSequence");
+        String subjectMergeHome = getWorkflowBeanService().getAttributes().get("subjectMergeHome");
 
-        File allIntervalsFile = new File(
-                String.format("%1$s/resources/annotation/abeast/NCNEXUS38/all/allintervals.v%2$s.txt", dataDirectory, listVersion));
-        if (!allIntervalsFile.exists()) {
-            throw new WorkflowException("allIntervalsFile does not exist: " + allIntervalsFile.getAbsolutePath());
+        if (referenceSequence == null) {
+            throw new WorkflowException("referenceSequence is not set");
         }
 
-        File versionedExonsIntervalListFile = new File(String
-                .format("%1$s/resources/annotation/abeast/NCNEXUS38/%2$s/exons_pm_0_v%2$s.interval_list", dataDirectory, listVersion));
-        if (!versionedExonsIntervalListFile.exists()) {
-            throw new WorkflowException("Interval list file does not exist: " + versionedExonsIntervalListFile.getAbsolutePath());
-        }
+        Boolean isIncidental = Boolean.FALSE;
+        WorkflowRunAttempt attempt = getWorkflowRunAttempt();
+        WorkflowRun workflowRun = attempt.getWorkflowRun();
 
-        File versionedExonsBedFile = new File(
-                String.format("%1$s/resources/annotation/abeast/NCNEXUS38/%2$s/exons_pm_0_v%2$s.bed", dataDirectory, listVersion));
-        if (!versionedExonsBedFile.exists()) {
-            throw new WorkflowException("BED file does not exist: " + versionedExonsBedFile.getAbsolutePath());
-        }
+        this.listVersion = NCNEXUS38DXWorkflowUtil.getListVersion(workflowRun);
+        List<String> dxIds = NCNEXUS38DXWorkflowUtil.getDXIds(workflowRun);
 
-        File intervalListByDXAndVersionFile = new File(String.format(
-                "%1$s/resources/annotation/abeast/NCNEXUS38/%2$s/genes_dxid_%3$s_v_%2$s.interval_list", dataDirectory, listVersion, dxId));
-        if (isIncidental) {
-            intervalListByDXAndVersionFile = new File(
-                    String.format("%1$s/resources/annotation/abeast/NCNEXUS38/Incidental/incidental_%3$s_%2$s.interval_list", dataDirectory,
-                            listVersion, dxId));
+        if (listVersion == null || CollectionUtils.isEmpty(dxIds)) {
+            throw new WorkflowException("Both version and DX were null...returning empty dag");
         }
-        if (!intervalListByDXAndVersionFile.exists()) {
-            throw new WorkflowException("Interval list file does not exist: " + intervalListByDXAndVersionFile.getAbsolutePath());
+        logger.info("listVersion: {}, dxIds: {}", listVersion, dxIds);
+
+        String subjectName = NCNEXUS38DXWorkflowUtil.getSubjectName(sampleSet);
+
+        // annotation files are resolved & validated once per bundle and revalidated against the files on disk by the registry
+        if (annotationRegistry != null) {
+            resolveAnnotationSets(annotationRegistry, dxIds, isIncidental);
+        } else {
+            AnnotationRegistryImpl.call(getClass(), a -> resolveAnnotationSets(a, dxIds, isIncidental));
         }
+        File allIntervalsFile = versionAnnotationSet.getAllIntervalsFile();
+        File versionedExonsIntervalListFile = versionAnnotationSet.getExonsIntervalListFile();
 
-        File subjectDirectory = new File(subjectMergeHome, subjectName);
+        this.subjectDirectory = new File(subjectMergeHome, subjectName);
 
         List<File> files = Arrays.asList(subjectDirectory.listFiles((a, b) -> {
             if (b.endsWith(".deduped.bam")) {
@@ -161,7 +124,7 @@ public class NCNEXUS38DXWorkflow extends AbstractSequencingWorkflow {
             return false;
         }));
 
-        File bamFile = null;
+        this.bamFile = null;
         if (CollectionUtils.isNotEmpty(files)) {
             bamFile = files.get(0);
         }
@@ -178,7 +141,7 @@ public class NCNEXUS38DXWorkflow extends AbstractSequencingWorkflow {
             return false;
         }));
 
-        File bamIndexFile = null;
+        this.bamIndexFile = null;
         if (CollectionUtils.isNotEmpty(files)) {
             bamIndexFile = files.get(0);
         }
@@ -188,96 +151,153 @@ public class NCNEXUS38DXWorkflow extends AbstractSequencingWorkflow {
             throw new WorkflowException("bam index file was not found");
         }
 
-        File outputDirectory = new File(subjectDirectory, listVersion);
-        if (!outputDirectory.exists()) {
-            outputDirectory.mkdirs();
-        }
+        this.outputDirectory = new File(subjectDirectory, listVersion);
 
         try {
 
-            // new job
-            CondorJobBuilder builder = SequencingWorkflowJobFactory.createJob(++count, PicardCollectHsMetricsCLI.class, attempt.getId())
-                    .siteName(siteName);
+            this.resultCache = new ResultCache(new File(outputDirectory, ".cache"));
+
+            // the reference is keyed by its path and, where they resolve here, its index & dictionary, they change with its contigs
+            // where the path may not
+            String resolvedReferenceSequence = NCNEXUS38DXWorkflowUtil.expandEnvironmentVariables(referenceSequence, System.getenv());
+            File referenceSequenceIndexFile = new File(String.format("%s.fai", resolvedReferenceSequence));
+            File referenceSequenceDictionaryFile = new File(
+                    resolvedReferenceSequence.replaceAll("\\.(fa|fasta|fna)(\\.gz)?$", ".dict"));
+
             File picardCollectHsMetricsFile = new File(outputDirectory, bamFile.getName().replace(".bam", ".hs.metrics"));
             File picardCollectHsPerTargetsCoverageFile = new File(outputDirectory, bamFile.getName().replace(".bam", ".hs.coverage"));
-            builder.addArgument(PicardCollectHsMetricsCLI.INPUT, bamFile.getAbsolutePath())
-                    .addArgument(PicardCollectHsMetricsCLI.OUTPUT, picardCollectHsMetricsFile.getAbsolutePath())
-                    .addArgument(PicardCollectHsMetricsCLI.REFERENCESEQUENCE, referenceSequence)
-                    .addArgument(PicardCollectHsMetricsCLI.PERTARGETCOVERAGE, picardCollectHsPerTargetsCoverageFile.getAbsolutePath())
-                    .addArgument(PicardCollectHsMetricsCLI.BAITINTERVALS, versionedExonsIntervalListFile.getAbsolutePath())
-                    .addArgument(PicardCollectHsMetricsCLI.TARGETINTERVALS, versionedExonsIntervalListFile.getAbsolutePath());
-            CondorJob picardCollectHsMetricsJob = builder.build();
-            logger.info(picardCollectHsMetricsJob.toString());
-            graph.addVertex(picardCollectHsMetricsJob);
-
-            // new job
-            builder = SequencingWorkflowJobFactory.createJob(++count, SAMToolsDepthToGATKDOCFormatConverterCLI.class, attempt.getId())
-                    .siteName(siteName).numberOfProcessors(16);
+            this.picardCollectHsMetricsCacheEntry = new ResultCache.Entry(PicardCollectHsMetricsCLI.class.getSimpleName(),
+                    new ResultCacheKeyBuilder().value("tool", PicardCollectHsMetricsCLI.class.getName())
+                            .version("version", PicardCollectHsMetricsCLI.class).value("referenceSequence", referenceSequence)
+                            .optionalFile("referenceSequenceIndex", referenceSequenceIndexFile)
+                            .optionalFile("referenceSequenceDictionary", referenceSequenceDictionaryFile).file("bam", bamFile)
+                            .file("bai", bamIndexFile).file("intervals", versionedExonsIntervalListFile).build(),
+                    Arrays.asList(picardCollectHsMetricsFile, picardCollectHsPerTargetsCoverageFile));
+
             File samtoolsDepthFile = new File(subjectDirectory, bamFile.getName().replace(".bam", ".depth.txt"));
             File samtoolsDepthConvertedFile = new File(outputDirectory,
                     bamFile.getName().replace(".bam", String.format(".depth.v%s.txt", listVersion)));
-            builder.addArgument(SAMToolsDepthToGATKDOCFormatConverterCLI.INPUT, samtoolsDepthFile.getAbsolutePath())
-                    .addArgument(SAMToolsDepthToGATKDOCFormatConverterCLI.OUTPUT, samtoolsDepthConvertedFile.getAbsolutePath())
-                    .addArgument(SAMToolsDepthToGATKDOCFormatConverterCLI.INTERVALS, allIntervalsFile.getAbsolutePath());
-            CondorJob samtoolsDepthToGATKDOCFormatConverterJob = builder.build();
-            logger.info(samtoolsDepthToGATKDOCFormatConverterJob.toString());
-            graph.addVertex(samtoolsDepthToGATKDOCFormatConverterJob);
-
-            // new job
-            builder = SequencingWorkflowJobFactory.createJob(++count, PicardViewSAMCLI.class, attempt.getId()).siteName(siteName);
-            File picardViewSAMOutput = new File(outputDirectory,
-                    bamFile.getName().replace(".bam", String.format(".filtered_by_dxid_%s_v%s.bam", dxId, listVersion)));
-            builder.addArgument(PicardViewSAMCLI.OUTPUT, picardViewSAMOutput.getAbsolutePath())
-                    .addArgument(PicardViewSAMCLI.INTERVALLIST, intervalListByDXAndVersionFile.getAbsolutePath())
-                    .addArgument(PicardViewSAMCLI.INPUT, bamFile.getAbsolutePath());
-            CondorJob samtoolsViewJob = builder.build();
-            logger.info(samtoolsViewJob.toString());
-            graph.addVertex(samtoolsViewJob);
-
-            // new job
-            builder = SequencingWorkflowJobFactory.createJob(++count, PicardSortSAMCLI.class, attempt.getId()).siteName(siteName);
-            File picardSortSAMOutput = new File(outputDirectory, picardViewSAMOutput.getName().replace(".bam", ".sorted.bam"));
-            File picardSortSAMIndexOut = new File(outputDirectory, picardSortSAMOutput.getName().replace(".bam", ".bai"));
-            builder.addArgument(PicardSortSAMCLI.INPUT, picardViewSAMOutput.getAbsolutePath()).addArgument(PicardSortSAMCLI.CREATEINDEX)
-                    .addArgument(PicardSortSAMCLI.OUTPUT, picardSortSAMOutput.getAbsolutePath())
-                    .addArgument(PicardSortSAMCLI.SORTORDER, PicardSortOrderType.COORDINATE.toString().toLowerCase());
-            CondorJob picardSortSAMJob = builder.build();
-            logger.info(picardSortSAMJob.toString());
-            graph.addVertex(picardSortSAMJob);
-            graph.addEdge(samtoolsViewJob, picardSortSAMJob);
-
-            // new job
-            builder = SequencingWorkflowJobFactory.createJob(++count, ZipCLI.class, attempt.getId()).siteName(siteName);
-            File zipOutputFile = new File(outputDirectory, picardSortSAMOutput.getName().replace(".bam", ".zip"));
-            builder.addArgument(ZipCLI.ENTRY, picardSortSAMOutput.getAbsolutePath())
-                    .addArgument(ZipCLI.WORKDIR, outputDirectory.getAbsolutePath())
-                    .addArgument(ZipCLI.ENTRY, picardSortSAMIndexOut.getAbsolutePath())
-                    .addArgument(ZipCLI.OUTPUT, zipOutputFile.getAbsolutePath());
-            CondorJob zipJob = builder.build();
-            logger.info(zipJob.toString());
-            graph.addVertex(zipJob);
-            graph.addEdge(picardSortSAMJob, zipJob);
+            this.samtoolsDepthCacheEntry = new ResultCache.Entry(SAMToolsDepthToGATKDOCFormatConverterCLI.class.getSimpleName(),
+                    new ResultCacheKeyBuilder().value("tool", SAMToolsDepthToGATKDOCFormatConverterCLI.class.getName())
+                            .version("version", SAMToolsDepthToGATKDOCFormatConverterCLI.class)
+                            .version("extractTargetDepthVersion", ExtractTargetDepth.class).file("depth", samtoolsDepthFile)
+                            .file("intervals", allIntervalsFile).build(),
+                    Arrays.asList(samtoolsDepthConvertedFile));
+
+        } catch (IOException e) {
+            throw new WorkflowException(e);
+        }
+
+    }
+
+    private VersionAnnotationSet resolveAnnotationSets(AnnotationRegistry registry, List<String> dxIds, Boolean isIncidental)
+            throws WorkflowException {
+        this.versionAnnotationSet = registry.getVersionAnnotationSet(listVersion);
+        this.dxAnnotationSets = new ArrayList<DXAnnotationSet>();
+        for (String dxId : dxIds) {
+            dxAnnotationSets.add(registry.getDXAnnotationSet(listVersion, dxId, isIncidental));
+        }
+        return versionAnnotationSet;
+    }
+
+    @Override
+    public Graph<CondorJob, CondorJobEdge> createGraph() throws WorkflowException {
+        logger.info("ENTERING createGraph()");
+
+        prepare();
+
+        DirectedGraph<CondorJob, CondorJobEdge> graph = new DefaultDirectedGraph<CondorJob, CondorJobEdge>(CondorJobEdge.class);
+
+        int count = 0;
+
+        String siteName = getWorkflowBeanService().getAttributes().get("siteName");
+        String referenceSequence = getWorkflowBeanService().getAttributes().get("referenceSequence");
+        WorkflowRunAttempt attempt = getWorkflowRunAttempt();
+        File allIntervalsFile = versionAnnotationSet.getAllIntervalsFile();
+        File versionedExonsIntervalListFile = versionAnnotationSet.getExonsIntervalListFile();
+
+        if (!outputDirectory.exists()) {
+            outputDirectory.mkdirs();
+        }
 
+        try {
+
+            // version scoped jobs are only scheduled when the cached outputs are missing or stale
+            if (resultCache.isValid(picardCollectHsMetricsCacheEntry)) {
+                logger.info("using cached {} outputs", picardCollectHsMetricsCacheEntry.getName());
+            } else {
+                // new job
+                CondorJobBuilder builder = SequencingWorkflowJobFactory
+                        .createJob(++count, PicardCollectHsMetricsCLI.class, attempt.getId()).siteName(siteName);
+                File picardCollectHsMetricsFile = picardCollectHsMetricsCacheEntry.getOutputs().get(0);
+                File picardCollectHsPerTargetsCoverageFile = picardCollectHsMetricsCacheEntry.getOutputs().get(1);
+                builder.addArgument(PicardCollectHsMetricsCLI.INPUT, bamFile.getAbsolutePath())
+                        .addArgument(PicardCollectHsMetricsCLI.OUTPUT, picardCollectHsMetricsFile.getAbsolutePath())
+                        .addArgument(PicardCollectHsMetricsCLI.REFERENCESEQUENCE, referenceSequence)
+                        .addArgument(PicardCollectHsMetricsCLI.PERTARGETCOVERAGE, picardCollectHsPerTargetsCoverageFile.getAbsolutePath())
+                        .addArgument(PicardCollectHsMetricsCLI.BAITINTERVALS, versionedExonsIntervalListFile.getAbsolutePath())
+                        .addArgument(PicardCollectHsMetricsCLI.TARGETINTERVALS, versionedExonsIntervalListFile.getAbsolutePath());
+                CondorJob picardCollectHsMetricsJob = builder.build();
+                logger.info(picardCollectHsMetricsJob.toString());
+                graph.addVertex(picardCollectHsMetricsJob);
+            }
+
+            if (resultCache.isValid(samtoolsDepthCacheEntry)) {
+                logger.info("using cached {} outputs", samtoolsDepthCacheEntry.getName());
+            } else {
+                // new job, the converter only needs the target loci, cut them out of the indexed depth store kept next to the bam
+                CondorJobBuilder builder = SequencingWorkflowJobFactory.createJob(++count, ExtractTargetDepthCLI.class, attempt.getId())
+                        .siteName(siteName);
+                File samtoolsDepthFile = new File(subjectDirectory, bamFile.getName().replace(".bam", ".depth.txt"));
+                File samtoolsDepthStoreFile = new File(subjectDirectory, bamFile.getName().replace(".bam", ".depth.bin"));
+                File samtoolsTargetDepthFile = new File(outputDirectory,
+                        bamFile.getName().replace(".bam", String.format(".depth.targets.v%s.txt", listVersion)));
+                builder.addArgument(ExtractTargetDepthCLI.DEPTH, samtoolsDepthFile.getAbsolutePath())
+                        .addArgument(ExtractTargetDepthCLI.DEPTHSTORE, samtoolsDepthStoreFile.getAbsolutePath())
+                        .addArgument(ExtractTargetDepthCLI.INTERVALS, allIntervalsFile.getAbsolutePath())
+                        .addArgument(ExtractTargetDepthCLI.OUTPUT, samtoolsTargetDepthFile.getAbsolutePath());
+                CondorJob extractTargetDepthJob = builder.build();
+                logger.info(extractTargetDepthJob.toString());
+                graph.addVertex(extractTargetDepthJob);
+
+                // new job
+                builder = SequencingWorkflowJobFactory.createJob(++count, SAMToolsDepthToGATKDOCFormatConverterCLI.class, attempt.getId())
+                        .siteName(siteName).numberOfProcessors(16);
+                File samtoolsDepthConvertedFile = samtoolsDepthCacheEntry.getOutputs().get(0);
+                builder.addArgument(SAMToolsDepthToGATKDOCFormatConverterCLI.INPUT, samtoolsTargetDepthFile.getAbsolutePath())
+                        .addArgument(SAMToolsDepthToGATKDOCFormatConverterCLI.OUTPUT, samtoolsDepthConvertedFile.getAbsolutePath())
+                        .addArgument(SAMToolsDepthToGATKDOCFormatConverterCLI.INTERVALS, allIntervalsFile.getAbsolutePath());
+                CondorJob samtoolsDepthToGATKDOCFormatConverterJob = builder.build();
+                logger.info(samtoolsDepthToGATKDOCFormatConverterJob.toString());
+                graph.addVertex(samtoolsDepthToGATKDOCFormatConverterJob);
+                graph.addEdge(extractTargetDepthJob, samtoolsDepthToGATKDOCFormatConverterJob);
+            }
+
+            // new job, per dx outputs are written by single passes over the bam & vcf
             File vcf = new File(subjectDirectory, bamFile.getName().replace(".bam", ".filtered.srd.ps.va.vcf"));
-            // new job
-            builder = SequencingWorkflowJobFactory.createJob(++count, FilterVariantCLI.class, attempt.getId()).siteName(siteName);
-            File filterVariantOutput = new File(outputDirectory,
-                    bamFile.getName().replace(".bam", String.format(".filtered_by_dxid_%s_v%s.vcf", dxId, listVersion)));
-            builder.addArgument(FilterVariantCLI.INTERVALLIST, intervalListByDXAndVersionFile.getAbsolutePath())
-                    .addArgument(FilterVariantCLI.INPUT, vcf.getAbsolutePath())
-                    .addArgument(FilterVariantCLI.OUTPUT, filterVariantOutput.getAbsolutePath());
-            CondorJob filterVariantJob = builder.build();
-            logger.info(filterVariantJob.toString());
-            graph.addVertex(filterVariantJob);
-
-            // new job
-            builder = WorkflowJobFactory.createJob(++count, RemoveCLI.class, attempt.getId()).siteName(siteName);
-            builder.addArgument(RemoveCLI.FILE, picardViewSAMOutput.getAbsolutePath());
-            CondorJob removeJob = builder.build();
-            logger.info(removeJob.toString());
-            graph.addVertex(removeJob);
-            graph.addEdge(zipJob, removeJob);
-            graph.addEdge(filterVariantJob, removeJob);
+            CondorJobBuilder builder = SequencingWorkflowJobFactory.createJob(++count, ExtractDXRegionsCLI.class, attempt.getId())
+                    .siteName(siteName);
+            builder.addArgument(ExtractDXRegionsCLI.BAM, bamFile.getAbsolutePath())
+                    .addArgument(ExtractDXRegionsCLI.BAMINDEX, bamIndexFile.getAbsolutePath())
+                    .addArgument(ExtractDXRegionsCLI.VCF, vcf.getAbsolutePath());
+            if (Boolean.valueOf(getWorkflowBeanService().getAttributes().get("bgzipVCF"))) {
+                // .vcf.gz & .vcf.gz.tbi next to each vcf, registered along with it
+                builder.addArgument(ExtractDXRegionsCLI.BGZIP);
+            }
+            for (DXAnnotationSet dxAnnotationSet : dxAnnotationSets) {
+                String dxId = dxAnnotationSet.getDxId();
+                File filteredBAMOutput = new File(outputDirectory,
+                        bamFile.getName().replace(".bam", String.format(".filtered_by_dxid_%s_v%s.sorted.bam", dxId, listVersion)));
+                File filterVariantOutput = new File(outputDirectory,
+                        bamFile.getName().replace(".bam", String.format(".filtered_by_dxid_%s_v%s.vcf", dxId, listVersion)));
+                builder.addArgument(ExtractDXRegionsCLI.DXID, dxId)
+                        .addArgument(ExtractDXRegionsCLI.INTERVALLIST, dxAnnotationSet.getIntervalListFile().getAbsolutePath())
+                        .addArgument(ExtractDXRegionsCLI.BAMOUTPUT, filteredBAMOutput.getAbsolutePath())
+                        .addArgument(ExtractDXRegionsCLI.VCFOUTPUT, filterVariantOutput.getAbsolutePath());
+            }
+            CondorJob extractDXRegionsJob = builder.build();
+            logger.info(extractDXRegionsJob.toString());
+            graph.addVertex(extractDXRegionsJob);
 
         } catch (Exception e) {
             throw new WorkflowException(e);
@@ -291,19 +311,75 @@ public class NCNEXUS38DXWorkflow extends AbstractSequencingWorkflow {
     public void postRun() throws WorkflowException {
         logger.info("ENTERING postRun()");
 
-        try {
-            ExecutorService es = Executors.newSingleThreadExecutor();
+        if (cancelled) {
+            // another executor owns the attempt now, its outputs are registered there
+            throw new WorkflowException(String.format("WorkflowRunAttempt %d was cancelled", getWorkflowRunAttempt().getId()));
+        }
+
+        if (resultCache == null) {
+            throw new WorkflowException("prepare() was not called");
+        }
+
+        // entries the dag had to (re)create are the ones that aren't valid yet
+        for (ResultCache.Entry entry : Arrays.asList(picardCollectHsMetricsCacheEntry, samtoolsDepthCacheEntry)) {
+            if (resultCache.isValid(entry)) {
+                continue;
+            }
+            try {
+                resultCache.record(entry);
+            } catch (IOException e) {
+                logger.warn("failed to cache {} outputs", entry.getName(), e);
+            }
+        }
+
+        if (registrationOutbox != null) {
+            // registered by the outbox workers, the attempt doesn't wait for iRODS
+            try {
+                registrationOutbox.submit(getWorkflowRunAttempt().getId());
+                return;
+            } catch (IOException e) {
+                logger.warn("failed to queue registration of WorkflowRunAttempt {}, registering now", getWorkflowRunAttempt().getId(), e);
+            }
+        }
 
-            RegisterToIRODSRunnable runnable = new RegisterToIRODSRunnable(getWorkflowBeanService().getMaPSeqDAOBeanService(),
-                    getWorkflowRunAttempt());
-            es.submit(runnable);
+        RegisterToIRODSRunnable runnable = new RegisterToIRODSRunnable(getWorkflowBeanService().getMaPSeqDAOBeanService(),
+                getWorkflowRunAttempt());
+        runnable.run();
 
-            es.shutdown();
-            es.awaitTermination(1L, TimeUnit.HOURS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (runnable.getException() != null) {
+            throw new WorkflowException(runnable.getException());
+        }
+        List<String> failed = runnable.getResults().stream().filter(a -> !a.isSuccessful())
+                .map(a -> String.format("%s (%s)", a.getDataObject(), a.getMessage())).collect(Collectors.toList());
+        if (!failed.isEmpty()) {
+            throw new WorkflowException(String.format("failed to register %d of %d files to iRODS: %s", failed.size(),
+                    runnable.getResults().size(), String.join(", ", failed)));
         }
 
     }
 
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public AnnotationRegistry getAnnotationRegistry() {
+        return annotationRegistry;
+    }
+
+    public void setAnnotationRegistry(AnnotationRegistry annotationRegistry) {
+        this.annotationRegistry = annotationRegistry;
+    }
+
+    public RegistrationOutbox getRegistrationOutbox() {
+        return registrationOutbox;
+    }
+
+    public void setRegistrationOutbox(RegistrationOutbox registrationOutbox) {
+        this.registrationOutbox = registrationOutbox;
+    }
+
 }